@@ -284,6 +284,14 @@ public class ConfigurationManager {
   }
 
   private static void processIgnoreFilesInfo() {
+    String cacheSize = getAppConfig(Constants.CONF_K_APP_IGNORED_FILES_CACHE_SIZE);
+    if (cacheSize != null && !cacheSize.trim().isEmpty()) {
+      try {
+        IgnoredFilter.setCacheSize(Integer.parseInt(cacheSize.trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid value for '{}': {}", Constants.CONF_K_APP_IGNORED_FILES_CACHE_SIZE, cacheSize);
+      }
+    }
     String ignorePatterns = getAppConfig(Constants.CONF_K_IGNORED_FILES);
     if (ignorePatterns != null && !ignorePatterns.trim().equalsIgnoreCase("")) {
       String[] patterns = ignorePatterns.split(Constants.MISC_COMMA);
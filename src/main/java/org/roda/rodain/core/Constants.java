@@ -90,6 +90,9 @@ public final class Constants {
   public static final String FOLDER_LOG = "log";
   public static final String FOLDER_METADATA = "metadata";
   public static final String FOLDER_HELP = "help";
+  public static final String FOLDER_SOURCE_INDEX = "source-index";
+  public static final String FOLDER_CHECKSUM_CACHE = "checksum-cache";
+  public static final String FOLDER_STAGING = "staging";
 
   // configs keys prefixes & sufixes
   public static final String CONF_K_PREFIX_METADATA = "metadata.";
@@ -166,6 +169,23 @@ public final class Constants {
   public static final String CONF_K_APP_HELP_ENABLED = "app.helpEnabled";
   public static final String CONF_K_APP_LANGUAGE = "app.language";
   public static final String CONF_K_APP_MULTIPLE_EDIT_MAX = "app.multipleEdit.max";
+  public static final String CONF_K_APP_IGNORED_FILES_CACHE_SIZE = "app.ignoredFiles.cacheSize";
+  public static final String CONF_K_APP_WALK_PARALLELISM = "app.walkFileTree.parallelism";
+  public static final String CONF_K_APP_VISITOR_STACK_CONCURRENCY = "app.visitorStack.concurrency";
+  public static final String CONF_K_APP_SOURCE_CACHE_MAX_ENTRIES = "app.sourceCache.maxEntries";
+  public static final String CONF_K_APP_SOURCE_CACHE_MAX_AGE = "app.sourceCache.maxAge";
+  public static final String CONF_K_APP_SOURCE_CACHE_CONCURRENT_READS = "app.sourceCache.concurrentReads";
+  public static final String CONF_K_APP_SOURCE_INDEX_ENABLED = "app.sourceIndex.enabled";
+  public static final String CONF_K_APP_SOURCE_INDEX_MAX_AGE = "app.sourceIndex.maxAge";
+  public static final String CONF_K_APP_SOURCE_DIRECTORY_KEEP_ONLY_LAST_PAGE = "app.sourceDirectory.keepOnlyLastPage";
+  public static final String CONF_K_APP_DIRECTORY_WATCHER_ENABLED = "app.directoryWatcher.enabled";
+  public static final String CONF_K_APP_DIRECTORY_WATCHER_MAX_PER_ROOT = "app.directoryWatcher.maxPerRoot";
+  public static final String CONF_K_APP_DIRECTORY_WATCHER_POLL_INTERVAL = "app.directoryWatcher.pollInterval";
+  public static final String CONF_K_APP_DIRECTORY_WATCHER_MAX_POLLED = "app.directoryWatcher.maxPolled";
+  public static final String CONF_K_APP_SIP_CREATION_PARALLELISM = "app.sipCreation.parallelism";
+  public static final String CONF_K_APP_CHECKSUM_CACHE_ENABLED = "app.checksumCache.enabled";
+  public static final String CONF_K_APP_CHECKSUM_CACHE_MAX_FILES = "app.checksumCache.maxFiles";
+  public static final String CONF_K_APP_CHECKSUMS_PARALLELISM = "app.checksums.parallelism";
   // configs files
   public static final String CONFIG_FILE = "config.properties";
   public static final String APP_CONFIG_FILE = ".app.properties";
@@ -1,17 +1,29 @@
 package org.roda.rodain.core;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.commons.lang3.StringUtils;
 import org.roda.rodain.core.Constants.PathState;
+import org.roda.rodain.core.source.SourceMetadataCache;
+import org.roda.rodain.core.utils.IntMap;
 import org.roda.rodain.ui.source.items.SourceTreeDirectory;
 import org.roda.rodain.ui.source.items.SourceTreeItem;
 import org.slf4j.Logger;
@@ -26,30 +38,51 @@ import org.slf4j.LoggerFactory;
  * state of a path can be changed and, with this class, this information is
  * always coherent, since all of them report the changes to it.
  * </p>
+ * <p>
+ * The paths are kept in a trie with one node per name segment, so the queries
+ * about the children of a path only visit its subtree and the queries about its
+ * ancestors only visit the nodes between it and the root. The nodes are keyed
+ * by the ids of the paths in the {@link PathRegistry}, instead of holding the
+ * paths themselves, and each node keeps its path in the registry until it's
+ * removed from the trie.
+ * </p>
+ * <p>
+ * Each node also keeps how many of its children are in each state, updated
+ * whenever the state of a child changes, so the state of a directory is
+ * derived from its children without visiting them.
+ * </p>
+ * <p>
+ * Only the paths whose state was explicitly set, the exceptions to the state of
+ * their ancestors and the paths with an item are kept. Ignoring or mapping a
+ * directory marks the state of its whole subtree in the directory's node, and
+ * every path under it that isn't in the trie inherits the state of the nearest
+ * ancestor with such a mark. The nodes that end up with the same state they
+ * would inherit are removed, so the collection doesn't grow with the number of
+ * files under the directories being ignored or mapped.
+ * </p>
+ * <p>
+ * The rule visitors, the tasks of the file explorer and the JavaFX thread use
+ * the collection at the same time, so it's guarded by a read/write lock: the
+ * lookups run in parallel and the changes are exclusive. The items are only
+ * told about their new states after the lock is released, so the UI code they
+ * run never holds it.
+ * </p>
  *
  * @author Andre Pereira apereira@keep.pt
  * @since 12-11-2015.
  */
 public class PathCollection {
   private static final Logger LOGGER = LoggerFactory.getLogger(PathCollection.class.getName());
-  private static Map<Path, PathState> states = new ConcurrentHashMap<>();
-  private static Map<Path, SourceTreeItem> items = new HashMap<>();
+  private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+  // the number of entries of a directory not listed yet and of one that can't
+  // be listed, in both cases there may be children not in the trie
+  private static final int UNKNOWN_ENTRIES = -1;
+  private static final int UNLISTED_ENTRIES = -2;
+  private static Node root = new Node(PathRegistry.ROOT, null);
 
   private PathCollection() {
   }
 
-  /**
-   * If the path isn't in the collection, adds it and sets its state as NORMAL.
-   *
-   * @param path
-   *          The path to be added to the collection
-   */
-  public static void simpleAddPath(Path path) {
-    if (!"".equals(path.toString()) && !states.containsKey(path)) {
-      states.put(path, PathState.NORMAL);
-    }
-  }
-
   /**
    * Adds a path and its state to collection.
    * <p/>
@@ -70,62 +103,136 @@ public class PathCollection {
    *          The state of the item.
    */
   public static void addPath(Path path, PathState st) {
-    if ("".equals(path)) {
-      return;
-    }
-    // ignoring or removing the ignore of an item
-    if (st == PathState.IGNORED) {
-      applySameStateAllChildren(path, PathState.NORMAL, st);
-    }
-    if (st == PathState.MAPPED) {
-      applySameStateAllChildren(path, PathState.NORMAL, st);
-    }
-    if (st == PathState.NORMAL && states.get(path) == PathState.IGNORED) {
-      applySameStateAllChildren(path, PathState.IGNORED, st);
-      verifyStateAncestors(path);
-    }
+    addAllPaths(Collections.singleton(path), st);
+  }
 
-    if (states.get(path) != PathState.NORMAL) {
-      states.put(path, st);
-      verifyStateAncestors(path);
-    } else {
-      verifyState(path);
-    }
-    states.put(path, st);
+  /**
+   * Adds a collection of paths to the collection, all of them with the same
+   * state.
+   * <p/>
+   * <p>
+   * Each path is changed as in {@link #addPath(Path, PathState)}, so a path can
+   * also be the root of a subtree being ignored or mapped. Only after all the
+   * paths are changed are their ancestors verified, each ancestor once and from
+   * the deepest to the root, and each affected SourceTreeDirectory is notified
+   * once to move its children with the wrong state.
+   * </p>
+   * <p>
+   * The directories that must be listed to verify their state are listed after
+   * the lock is released, and their states are verified again with the number
+   * of entries found.
+   * </p>
+   *
+   * @param paths
+   *          The paths to be added to the collection.
+   * @param st
+   *          The state of the paths.
+   */
+  public static void addAllPaths(Collection<Path> paths, PathState st) {
+    Changes changes = new Changes();
+    LOCK.writeLock().lock();
+    try {
+      List<Node> changed = new ArrayList<>();
+      for (Path path : paths) {
+        if (isEmpty(path)) {
+          continue;
+        }
+        Node node = getOrCreateNode(path);
+        applyState(node, st, changes);
+        changed.add(node);
 
-    // if there's an item with this path
-    if (items.containsKey(path)) {
-      SourceTreeItem item = items.get(path);
-      item.setState(states.get(path));
-      verifyStateAncestors(path);
-      if (item instanceof SourceTreeDirectory) {
-        ((SourceTreeDirectory) item).moveChildrenWrongState();
+        // if there's an item with this path
+        if (node.item != null) {
+          changes.update(node);
+          if (node.item instanceof SourceTreeDirectory) {
+            changes.touched.add((SourceTreeDirectory) node.item);
+          }
+        }
+        // move the modified children in the parent
+        if (node.parent.item instanceof SourceTreeDirectory) {
+          changes.touched.add((SourceTreeDirectory) node.parent.item);
+        }
       }
+
+      verifyStateAncestors(changed, changes);
+    } finally {
+      LOCK.writeLock().unlock();
     }
+    countEntries(changes);
+    changes.notifyItems();
+  }
 
-    Path parent = path.getParent();
-    // move the modified children in the parent
-    if (parent != null && items.containsKey(parent) && items.get(parent) instanceof SourceTreeDirectory) {
-      ((SourceTreeDirectory) items.get(parent)).moveChildrenWrongState();
+  /*
+   * Ignoring or mapping a path also ignores or maps its NORMAL children and
+   * removing the ignore of a path removes the ignore of its children. Setting a
+   * MAPPED path back to NORMAL also stops mapping its MAPPED children, so a
+   * mapped subtree is removed by its root, and the paths that inherit the state
+   * from it, except the roots of other mapped subtrees under it, like the paths
+   * mapped by other rules.
+   */
+  private static void applyState(Node node, PathState st, Changes changes) {
+    if (st == PathState.IGNORED || st == PathState.MAPPED) {
+      applySameStateAllChildren(node, PathState.NORMAL, st, changes);
+    } else if (getEffectiveState(node) == PathState.IGNORED) {
+      applySameStateAllChildren(node, PathState.IGNORED, st, changes);
+    } else if (getEffectiveState(node) == PathState.MAPPED) {
+      applySameStateAllChildren(node, PathState.MAPPED, st, changes);
+    } else if (getInheritedState(node) == PathState.MAPPED) {
+      node.subtreeState = st;
+    }
+    setState(node, st);
+    if (st == PathState.MAPPED) {
+      node.mappedRoot = true;
     }
   }
 
-  private static void applySameStateAllChildren(Path path, PathState previousState, PathState state) {
-    if ("".equals(path)) {
-      return;
+  private static void applySameStateAllChildren(Node node, PathState previousState, PathState state,
+    Changes changes) {
+    // the paths under the node that aren't in the trie change with it
+    if (getInheritedState(node) == previousState) {
+      node.subtreeState = state;
     }
-    states.put(path, state);
+    setState(node, state);
+    if (node.children != null) {
+      applySameStateDescendants(node, getInheritedState(node), previousState, state, changes);
+    }
+  }
 
-    if (Files.isDirectory(path)) {
-      Map<Path, PathState> children = getAllChildren(path);
-      for (Path child : children.keySet()) {
-        if (states.get(child) == previousState) {
-          states.put(child, state);
-          // update the item
-          if (items.containsKey(child)) {
-            items.get(child).setState(state);
-          }
+  /*
+   * Changes the descendants in the previous state and the marks of the subtrees
+   * in the previous state. The descendants left with the state they inherit are
+   * removed from the trie.
+   */
+  private static void applySameStateDescendants(Node node, PathState inherited, PathState previousState,
+    PathState state, Changes changes) {
+    Iterator<Node> iterator = node.children.values().iterator();
+    while (iterator.hasNext()) {
+      Node child = iterator.next();
+      if (child.mappedRoot && previousState == PathState.MAPPED) {
+        // mapped by itself, it stays mapped with the paths under it
+        if (child.subtreeState == null) {
+          child.subtreeState = PathState.MAPPED;
         }
+        continue;
+      }
+      if (child.state == previousState) {
+        setState(child, state);
+        // update the item
+        if (child.item != null) {
+          changes.update(child);
+        }
+      }
+      if (child.subtreeState == previousState) {
+        child.subtreeState = state;
+      }
+      if (child.children != null) {
+        PathState childInherited = child.subtreeState != null ? child.subtreeState : inherited;
+        applySameStateDescendants(child, childInherited, previousState, state, changes);
+      }
+      if (isRedundant(child, inherited)) {
+        setState(child, null);
+        iterator.remove();
+        PathRegistry.release(child.id);
       }
     }
   }
@@ -137,18 +244,21 @@ public class PathCollection {
    *          The set of paths to be added to the collection.
    * @param st
    *          The state of the items.
-   * @see #addPath(String, PathState)
+   * @see #addAllPaths(Collection, PathState)
    */
   public static void addPaths(Set<String> paths, PathState st) {
+    List<Path> result = new ArrayList<>();
     for (String path : paths)
-      addPath(Paths.get(path), st);
+      result.add(Paths.get(path));
+    addAllPaths(result, st);
   }
 
   /**
    * Adds a SourceTreeItem reference to the collection.
    * <p/>
    * <p>
-   * If the item's path isn't in the collection, it's also added.
+   * The path of the item is also added to the collection, with the state of the
+   * item, if it isn't already in it.
    * </p>
    *
    * @param item
@@ -159,49 +269,79 @@ public class PathCollection {
     if ("".equals(path)) {
       return;
     }
-    if (!states.containsKey(path)) {
-      states.put(Paths.get(path), item.getState());
+    LOCK.writeLock().lock();
+    try {
+      Node node = getOrCreateNode(Paths.get(path));
+      if (node.state == null) {
+        setState(node, item.getState());
+      }
+      node.item = item;
+    } finally {
+      LOCK.writeLock().unlock();
     }
-    items.put(Paths.get(path), item);
   }
 
   /**
    * Used to get the state associated with a path.
+   * <p/>
+   * <p>
+   * The lookup doesn't change the collection, a path that isn't in it gets the
+   * state inherited from its nearest ancestor in the collection.
+   * </p>
    *
    * @param path
    *          The path used to get the state.
    * @return The path's associated state if the path is in the collection,
-   *         otherwise NORMAL.
+   *         otherwise the inherited state or NORMAL.
    */
   public static PathState getState(Path path) {
-    PathState result = PathState.NORMAL;
-    if (states.containsKey(path)) {
-      result = states.get(path);
-    } else {
-      Path parent = path.getParent();
-      if (parent != null) {
-        if (Files.isDirectory(parent)) {
-          result = getStateWithoutAddingParents(parent);
-          addPath(path, result);
-        }
-      }
+    if (isEmpty(path)) {
+      return PathState.NORMAL;
     }
-    return result;
+    return getState(path.toString());
   }
 
-  private static PathState getStateWithoutAddingParents(Path path) {
-    PathState result = PathState.NORMAL;
-    if (states.containsKey(path)) {
-      result = states.get(path);
-    } else {
-      Path parent = path.getParent();
-      if (parent != null) {
-        if (Files.isDirectory(parent)) {
-          result = getState(parent);
-        }
+  /**
+   * Used to get the state associated with a path, looked up by its string
+   * without building the path.
+   *
+   * @param pathString
+   *          The string of the path used to get the state.
+   * @return The path's associated state if the path is in the collection,
+   *         otherwise the inherited state or NORMAL.
+   * @see #getState(Path)
+   */
+  public static PathState getState(String pathString) {
+    if (pathString == null || pathString.isEmpty()) {
+      return PathState.NORMAL;
+    }
+    while (true) {
+      int id = PathRegistry.findId(pathString);
+      boolean registered = id != PathRegistry.NO_ID;
+      if (!registered) {
+        id = PathRegistry.findClosestId(pathString);
+      }
+      PathState result;
+      LOCK.readLock().lock();
+      try {
+        Node node = getClosestNode(id);
+        result = registered && node.id == id && node.state != null ? node.state : getInheritedState(node);
+      } finally {
+        LOCK.readLock().unlock();
+      }
+      if (isSameId(pathString, id, registered)) {
+        return result;
       }
     }
-    return result;
+  }
+
+  /*
+   * True if the lookup of the path still gives the id. The paths that aren't in
+   * the trie may be removed from the registry, and their ids reused, while
+   * they're looked up.
+   */
+  private static boolean isSameId(String path, int id, boolean registered) {
+    return id == (registered ? PathRegistry.findId(path) : PathRegistry.findClosestId(path));
   }
 
   /**
@@ -213,112 +353,493 @@ public class PathCollection {
    *         otherwise.
    */
   public static SourceTreeItem getItem(Path path) {
-    return items.get(path);
+    if (isEmpty(path)) {
+      return null;
+    }
+    String pathString = path.toString();
+    while (true) {
+      int id = PathRegistry.findId(pathString);
+      SourceTreeItem result;
+      LOCK.readLock().lock();
+      try {
+        Node node = getNode(id);
+        result = node != null ? node.item : null;
+      } finally {
+        LOCK.readLock().unlock();
+      }
+      if (result != null || isSameId(pathString, id, true)) {
+        return result;
+      }
+    }
   }
 
-  public static void removePathAndItem(Path path) {
-    states.remove(path);
-    items.remove(path);
+  /**
+   * Removes the reference to an item from the collection, keeping the state of
+   * its path, for example when the item is no longer shown.
+   *
+   * @param item
+   *          The item to be removed from the collection.
+   */
+  public static void removeItem(SourceTreeItem item) {
+    String path = item.getPath();
+    if (path == null || "".equals(path)) {
+      return;
+    }
+    LOCK.writeLock().lock();
+    try {
+      Node node = getNode(PathRegistry.findId(path));
+      if (node != null && node.item == item) {
+        node.item = null;
+        prune(node);
+      }
+    } finally {
+      LOCK.writeLock().unlock();
+    }
+  }
 
-    Map<Path, PathState> children = getAllChildren(path);
-    children.keySet().forEach(PathCollection::removePathAndItem);
+  /**
+   * Removes a path, all the paths under it and their items from the
+   * collection.
+   *
+   * @param path
+   *          The path to be removed.
+   */
+  public static void removePathAndItem(Path path) {
+    if (isEmpty(path)) {
+      return;
+    }
+    LOCK.writeLock().lock();
+    try {
+      // the nodes keep their ids, so the id of a node in the trie is current
+      Node node = getNode(PathRegistry.findId(path));
+      if (node != null && node.parent != null && PathRegistry.getPath(node.id).equals(path)) {
+        setState(node, null);
+        node.parent.children.remove(node.id);
+        release(node);
+        prune(node.parent);
+      }
+    } finally {
+      LOCK.writeLock().unlock();
+    }
   }
 
-  private static void verifyStateAncestors(Path path) {
-    while (path.getParent() != null) {
-      path = path.getParent();
-      boolean updated = true;
-      if (states.containsKey(path)) {
-        updated = verifyState(path);
+  /*
+   * Verifies the state of the ancestors of the changed nodes, deepest first so
+   * that each ancestor is verified once, after all its children. The verification
+   * only goes up from an ancestor while its state keeps changing.
+   */
+  private static void verifyStateAncestors(Collection<Node> changed, Changes changes) {
+    List<Node> parents = new ArrayList<>(changed.size());
+    for (Node node : changed) {
+      if (node.parent != null && node.parent != root) {
+        parents.add(node.parent);
+      }
+    }
+    verifyStates(parents, changes);
+  }
 
-        if (items.containsKey(path)) {
-          SourceTreeDirectory dir = (SourceTreeDirectory) items.get(path);
-          dir.moveChildrenWrongState();
-        }
+  /*
+   * Verifies the state of the nodes and, while their states change, of their
+   * ancestors.
+   */
+  private static void verifyStates(Collection<Node> nodes, Changes changes) {
+    PriorityQueue<Node> queue = new PriorityQueue<>(Comparator.comparingInt((Node n) -> n.depth).reversed());
+    Set<Node> queued = new HashSet<>();
+    for (Node node : nodes) {
+      if (queued.add(node)) {
+        queue.add(node);
       }
-      if (!updated) {
-        break;
+    }
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      // removed from the trie by the changes of its ancestors
+      if (node.parent.getChild(node.id) != node) {
+        continue;
+      }
+      boolean updated = verifyState(node, changes);
+      if (node.item instanceof SourceTreeDirectory) {
+        changes.touched.add((SourceTreeDirectory) node.item);
+      }
+      if (updated) {
+        enqueueParent(node, queue, queued);
       }
     }
   }
 
+  private static void enqueueParent(Node node, PriorityQueue<Node> queue, Set<Node> queued) {
+    if (node.parent != null && node.parent != root && queued.add(node.parent)) {
+      queue.add(node.parent);
+    }
+  }
+
   /*
    * Returns true if the state was updated, false if the state was the same.
+   *
+   * The children that aren't in the trie have the state inherited from the node.
+   * When the number of entries of the directory is unknown and it's needed to
+   * decide the state, the number is taken from the listings in memory or,
+   * when the directory isn't there, the directory is left to be counted after
+   * the lock is released and there may be more children in the inherited state.
+   * The disk isn't accessed while the lock is held.
    */
-  private static boolean verifyState(Path path) {
-    if ("".equals(path)) {
-      return false;
-    }
+  private static boolean verifyState(Node node, Changes changes) {
+    PathState currentState = getEffectiveState(node);
+    PathState inherited = getInheritedState(node);
+    int[] counts = node.childrenStates.clone();
+    int stored = counts[PathState.NORMAL.ordinal()] + counts[PathState.IGNORED.ordinal()]
+      + counts[PathState.MAPPED.ordinal()];
 
-    PathState currentState = null;
-    PathState newState = null;
-    if (states.containsKey(path)) {
-      currentState = states.get(path);
-    }
-    int normalItems = 0, ignoredItems = 0, mappedItems = 0;
-    Map<Path, PathState> children = getDirectChildren(path);
-    for (Path child : children.keySet()) {
-      switch (states.get(child)) {
-        case MAPPED:
-          mappedItems++;
-          break;
-        case IGNORED:
-          ignoredItems++;
-          break;
-        default:
-          normalItems++;
-          break;
+    if (node.entries == UNKNOWN_ENTRIES && stored > 0 && !isStateKnown(counts, stored, inherited)) {
+      // usually the directory has just been walked or browsed
+      SourceMetadataCache.Listing listing = SourceMetadataCache.peekListing(node.id);
+      if (listing != null) {
+        node.entries = listing.size();
+      } else {
+        changes.unlisted.put(node, PathRegistry.getPath(node.id));
       }
     }
+    if (node.entries >= 0 && node.entries < stored) {
+      // the directory changed after being listed
+      node.entries = stored;
+    }
+    int implicit = node.entries < 0 ? 1 : Math.max(0, node.entries - stored);
+    counts[inherited.ordinal()] += implicit;
 
+    int normalItems = counts[PathState.NORMAL.ordinal()];
+    int ignoredItems = counts[PathState.IGNORED.ordinal()];
+    int mappedItems = counts[PathState.MAPPED.ordinal()];
+    PathState newState = null;
     if (normalItems == 0) {
       // only MAPPED items, the directory is MAPPED
       if (mappedItems != 0 && ignoredItems == 0) {
         newState = PathState.MAPPED;
-        states.put(path, PathState.MAPPED);
       }
       // only IGNORED items, the directory is IGNORED
       if (mappedItems == 0 && ignoredItems != 0) {
         newState = PathState.IGNORED;
-        states.put(path, PathState.IGNORED);
       }
       // IGNORED and MAPPED items, the directory is MAPPED
       if (mappedItems != 0 && ignoredItems != 0) {
         newState = PathState.MAPPED;
-        states.put(path, PathState.MAPPED);
       }
     } else { // there's at least one NORMAL item, so the directory must be
       // NORMAL
       newState = PathState.NORMAL;
-      states.put(path, PathState.NORMAL);
+    }
+    if (newState == null) {
+      return false;
+    }
+    if (node.state != null || newState != currentState) {
+      setState(node, newState);
     }
 
-    if (items.containsKey(path)) {
-      SourceTreeItem item = items.get(path);
-      item.setState(states.get(path));
+    // all the children have the same state, the ones that would inherit it
+    // don't need to be kept
+    int sameState = counts[newState.ordinal()];
+    if (sameState == normalItems + ignoredItems + mappedItems) {
+      if (node.state != null && inherited != newState) {
+        markSubtree(node, inherited, newState);
+      }
+      removeRedundantChildren(node, getInheritedState(node));
     }
 
-    if (currentState != null && newState != null) {
-      return currentState != newState;
+    if (node.item != null) {
+      changes.update(node);
+    }
+    return currentState != newState;
+  }
+
+  /*
+   * True when the children that aren't in the trie can't change the state of the
+   * directory: there are NORMAL children and children in other states, or all the
+   * children have the state the others would inherit.
+   */
+  private static boolean isStateKnown(int[] counts, int stored, PathState inherited) {
+    int normalItems = counts[PathState.NORMAL.ordinal()];
+    return (normalItems != 0 && normalItems != stored) || counts[inherited.ordinal()] == stored;
+  }
+
+  /*
+   * Counts the entries of the directories whose number of entries was needed to
+   * verify their state, from the listing cache or the disk, without holding the
+   * lock, and verifies their states again with the numbers found. Verifying them
+   * may need more directories to be counted.
+   */
+  private static void countEntries(Changes changes) {
+    while (!changes.unlisted.isEmpty()) {
+      Map<Node, Integer> entries = new HashMap<>();
+      // the paths were taken with the lock, the ids of the nodes removed in
+      // the meantime may belong to other paths
+      changes.unlisted.forEach((node, path) -> entries.put(node, countEntries(path)));
+      changes.unlisted.clear();
+
+      LOCK.writeLock().lock();
+      try {
+        List<Node> listed = new ArrayList<>(entries.size());
+        entries.forEach((node, count) -> {
+          // the node may have been changed or removed in the meantime
+          if (node.entries == UNKNOWN_ENTRIES && isAttached(node)) {
+            node.entries = count;
+            listed.add(node);
+          }
+        });
+        verifyStates(listed, changes);
+      } finally {
+        LOCK.writeLock().unlock();
+      }
+    }
+  }
+
+  private static int countEntries(Path dir) {
+    SourceMetadataCache.Listing listing = SourceMetadataCache.getCachedListing(dir);
+    if (listing != null) {
+      return listing.size();
+    }
+    int result = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path ignored : stream) {
+        result++;
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Unable to count the entries of a directory", e);
+      result = UNLISTED_ENTRIES;
+    }
+    return result;
+  }
+
+  private static boolean isAttached(Node node) {
+    for (Node current = node; current != root; current = current.parent) {
+      if (current.parent == null || current.parent.getChild(current.id) != current) {
+        return false;
+      }
     }
     return true;
   }
 
-  private static Map<Path, PathState> getDirectChildren(Path path) {
-    int countSeparators = StringUtils.countMatches(path.toString(), File.separator) + 1;
-    return states.entrySet().stream().parallel()
-      .filter(p -> p.getKey().startsWith(path)
-        && StringUtils.countMatches(p.getKey().toString(), File.separator) == countSeparators)
-      .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
+  /*
+   * Marks the subtree of the node with a new state. The children with children
+   * of their own that inherited the previous state keep it.
+   */
+  private static void markSubtree(Node node, PathState previousState, PathState state) {
+    for (Node child : node.children.values()) {
+      if (child.state != null && child.subtreeState == null && child.children != null && !child.children.isEmpty()) {
+        child.subtreeState = previousState;
+      }
+    }
+    node.subtreeState = state;
+  }
+
+  private static void removeRedundantChildren(Node node, PathState inherited) {
+    if (node.children == null) {
+      return;
+    }
+    Iterator<Node> iterator = node.children.values().iterator();
+    while (iterator.hasNext()) {
+      Node child = iterator.next();
+      if (isRedundant(child, inherited)) {
+        setState(child, null);
+        iterator.remove();
+        PathRegistry.release(child.id);
+      }
+    }
+  }
+
+  /*
+   * A node is redundant when it has the state it would inherit and nothing else
+   * that needs to be kept. The roots of mapped subtrees are kept, so they stay
+   * mapped when a subtree mapped around them is removed.
+   */
+  private static boolean isRedundant(Node node, PathState inherited) {
+    return node.item == null && !node.mappedRoot && (node.children == null || node.children.isEmpty())
+      && (node.state == null || node.state == inherited)
+      && (node.subtreeState == null || node.subtreeState == inherited);
+  }
+
+  /*
+   * The state of the node, inherited from its ancestors when it isn't in the
+   * collection.
+   */
+  private static PathState getEffectiveState(Node node) {
+    return node.state != null ? node.state : getInheritedState(node);
+  }
+
+  /*
+   * The state inherited by the paths under the node that aren't in the trie.
+   */
+  private static PathState getInheritedState(Node node) {
+    for (Node current = node; current != null; current = current.parent) {
+      if (current.subtreeState != null) {
+        return current.subtreeState;
+      }
+    }
+    return PathState.NORMAL;
+  }
+
+  /*
+   * Sets the state of the node, keeping the children states count of its parent
+   * up to date. A null state removes the node from the collection.
+   */
+  private static void setState(Node node, PathState state) {
+    if (node.state == state) {
+      return;
+    }
+    if (node.state != null) {
+      node.parent.childrenStates[node.state.ordinal()]--;
+    }
+    if (state != null) {
+      node.parent.childrenStates[state.ordinal()]++;
+    }
+    node.state = state;
+    if (state != PathState.MAPPED) {
+      node.mappedRoot = false;
+    }
   }
 
-  private static Map<Path, PathState> getAllChildren(Path path) {
-    return states.entrySet().stream().parallel().filter(p -> p.getKey().startsWith(path))
-      .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
+  private static Node getNode(int id) {
+    if (id == PathRegistry.NO_ID) {
+      return null;
+    }
+    if (id == PathRegistry.ROOT) {
+      return root;
+    }
+    Node parent = getNode(PathRegistry.getParent(id));
+    return parent == null ? null : parent.getChild(id);
+  }
+
+  /*
+   * The node of the path with the id, or of its deepest ancestor in the trie.
+   */
+  private static Node getClosestNode(int id) {
+    if (id == PathRegistry.ROOT) {
+      return root;
+    }
+    int parentId = PathRegistry.getParent(id);
+    Node parent = getClosestNode(parentId);
+    if (parent.id != parentId) {
+      return parent;
+    }
+    Node node = parent.getChild(id);
+    return node != null ? node : parent;
+  }
+
+  private static Node getOrCreateNode(Path path) {
+    // keeps the path while its nodes are created, they acquire it themselves
+    int id = PathRegistry.acquire(path);
+    try {
+      return getOrCreateNode(id);
+    } finally {
+      PathRegistry.release(id);
+    }
+  }
+
+  private static Node getOrCreateNode(int id) {
+    if (id == PathRegistry.ROOT) {
+      return root;
+    }
+    return getOrCreateNode(PathRegistry.getParent(id)).getOrCreateChild(id);
+  }
+
+  /*
+   * Removes the node from the trie, and its ancestors after it, while they're
+   * only there to connect the paths in the collection.
+   */
+  private static void prune(Node node) {
+    while (node != root && node.state == null && node.item == null
+      && (node.children == null || node.children.isEmpty())) {
+      node.parent.children.remove(node.id);
+      PathRegistry.release(node.id);
+      node = node.parent;
+    }
+  }
+
+  /*
+   * Releases the paths of the nodes of a subtree removed from the trie.
+   */
+  private static void release(Node node) {
+    if (node.children != null) {
+      for (Node child : node.children.values()) {
+        release(child);
+      }
+    }
+    if (node != root) {
+      PathRegistry.release(node.id);
+    }
+  }
+
+  private static boolean isEmpty(Path path) {
+    return path == null || "".equals(path.toString());
   }
 
   public static void reset() {
-    states = new HashMap<>();
-    items = new HashMap<>();
+    LOCK.writeLock().lock();
+    try {
+      release(root);
+      root = new Node(PathRegistry.ROOT, null);
+    } finally {
+      LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The items changed while the lock is held, to be told about their new states
+   * after it's released.
+   */
+  private static class Changes {
+    private final Map<SourceTreeItem, PathState> items = new LinkedHashMap<>();
+    private final Set<SourceTreeDirectory> touched = new LinkedHashSet<>();
+    // the directories to list before verifying their states again
+    private final Map<Node, Path> unlisted = new LinkedHashMap<>();
+
+    void update(Node node) {
+      items.put(node.item, node.state);
+    }
+
+    void notifyItems() {
+      items.forEach(SourceTreeItem::setState);
+      touched.forEach(SourceTreeDirectory::moveChildrenWrongState);
+    }
+  }
+
+  /**
+   * A path in the trie, identified by its id in the {@link PathRegistry}. The
+   * node is only part of the collection when it has a state, otherwise it's only
+   * connecting its children to the rest of the trie. The subtree state, when
+   * set, is the state inherited by the paths under the node that aren't in the
+   * trie. The node keeps its path in the registry while it's in the trie.
+   */
+  private static class Node {
+    private final int id;
+    private final Node parent;
+    private final int depth;
+    private IntMap<Node> children;
+    // how many children are in each state, indexed by the state's ordinal
+    private final int[] childrenStates = new int[PathState.values().length];
+    private PathState state;
+    private PathState subtreeState;
+    // mapped by its own path, not only with the subtree of an ancestor
+    private boolean mappedRoot;
+    // the number of entries of the directory, if it was listed
+    private int entries = UNKNOWN_ENTRIES;
+    private SourceTreeItem item;
+
+    Node(int id, Node parent) {
+      this.id = id;
+      this.parent = parent;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    Node getChild(int childId) {
+      return children == null ? null : children.get(childId);
+    }
+
+    Node getOrCreateChild(int childId) {
+      if (children == null) {
+        children = new IntMap<>();
+      }
+      return children.computeIfAbsent(childId, key -> {
+        PathRegistry.acquire(key);
+        return new Node(key, this);
+      });
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,621 @@
+package org.roda.rodain.core;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A registry of paths, where each path is identified by an int id.
+ * <p/>
+ * <p>
+ * A path is kept as the id of its parent and the id of its last name segment,
+ * and the name segments are interned, so the directories shared by millions of
+ * paths are stored only once. The root component of a path (for example "/" or
+ * "C:\") is a child of {@link #ROOT}.
+ * </p>
+ * <p>
+ * The paths registered with {@link #getId(Path)} are kept while the application
+ * is running and their ids never change. The caches register their paths with
+ * {@link #acquire(Path)} instead, and give them back with
+ * {@link #release(int)}: a path is counted once for each acquire and for each
+ * of its children in the registry, and it's removed, with its name when no
+ * other path uses it, when its count drops to zero. The ids of the removed
+ * paths are reused, the oldest first, so an id found with a lookup is only
+ * certainly the same path while the path is kept by something else.
+ * </p>
+ * <p>
+ * All of this class's methods are static, like in {@link PathCollection}, and
+ * can be called from any thread: the lookups share a read lock and only the
+ * changes to the registry take the write lock.
+ * </p>
+ * <p>
+ * The paths can also be looked up by their string, which doesn't allocate
+ * anything: the string is split in place and its segments are compared with
+ * the interned names.
+ * </p>
+ */
+public final class PathRegistry {
+  /**
+   * The id of the parent of the root components of the paths.
+   */
+  public static final int ROOT = 0;
+  /**
+   * The id returned when a path isn't in the registry.
+   */
+  public static final int NO_ID = -1;
+
+  private static final int INITIAL_CAPACITY = 1024;
+  // added to the count of a path registered with getId, so it's never removed
+  private static final int PINNED = 1 << 30;
+  private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+  // the parent id, the name id and the count of each path, indexed by the path
+  // id, the name of a removed path is NO_ID
+  private static int[] parents = new int[INITIAL_CAPACITY];
+  private static int[] names = new int[INITIAL_CAPACITY];
+  private static int[] counts = new int[INITIAL_CAPACITY];
+  private static int size = 1;
+  private static int live = 0;
+
+  // the ids of the removed paths, in the order they were removed
+  private static int[] freeIds = new int[INITIAL_CAPACITY];
+  private static int freeHead = 0, freeCount = 0;
+
+  // open addressing index of the paths by parent and name, holds id + 1
+  private static int[] index = new int[INITIAL_CAPACITY * 2];
+
+  // open addressing index of the interned names by their hash, holds name id + 1
+  private static int[] nameIndex = new int[INITIAL_CAPACITY * 2];
+  private static final List<String> nameValues = new ArrayList<>();
+  // how many paths use each name, the removed names are null and reused
+  private static int[] nameCounts = new int[INITIAL_CAPACITY];
+  private static int[] freeNames = new int[INITIAL_CAPACITY];
+  private static int freeNameCount = 0;
+
+  // the ids of the root components
+  private static int[] roots = new int[4];
+  private static int rootCount = 0;
+
+  static {
+    parents[ROOT] = NO_ID;
+    names[ROOT] = NO_ID;
+  }
+
+  private PathRegistry() {
+  }
+
+  /**
+   * Gets the id of a path, adding the path and its ancestors to the registry if
+   * they aren't in it. The path is kept in the registry until the application
+   * ends.
+   *
+   * @param path
+   *          The path.
+   * @return The id of the path.
+   */
+  public static int getId(Path path) {
+    int id;
+    LOCK.readLock().lock();
+    try {
+      id = findId(path);
+      if (id != NO_ID && (counts[id] & PINNED) != 0) {
+        return id;
+      }
+    } finally {
+      LOCK.readLock().unlock();
+    }
+    LOCK.writeLock().lock();
+    try {
+      id = register(path);
+      counts[id] |= PINNED;
+      return id;
+    } finally {
+      LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the id of a path, adding the path and its ancestors to the registry if
+   * they aren't in it, and keeps the path in the registry until it's released
+   * with {@link #release(int)}, once for each time it's acquired.
+   *
+   * @param path
+   *          The path.
+   * @return The id of the path.
+   */
+  public static int acquire(Path path) {
+    LOCK.writeLock().lock();
+    try {
+      int id = register(path);
+      counts[id]++;
+      return id;
+    } finally {
+      LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Keeps a path already in the registry until it's released with
+   * {@link #release(int)}.
+   *
+   * @param id
+   *          The id of a path that is kept by something else while it's
+   *          acquired.
+   */
+  public static void acquire(int id) {
+    LOCK.writeLock().lock();
+    try {
+      if (id <= ROOT || names[id] == NO_ID) {
+        throw new IllegalArgumentException("No path with the id " + id);
+      }
+      counts[id]++;
+    } finally {
+      LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gives back a path acquired with {@link #acquire(Path)} or
+   * {@link #acquire(int)}. When nothing else keeps the path, it's removed from
+   * the registry, and so are its ancestors that were only kept by it.
+   *
+   * @param id
+   *          The id of the acquired path.
+   */
+  public static void release(int id) {
+    if (id <= ROOT) {
+      return;
+    }
+    LOCK.writeLock().lock();
+    try {
+      while (id != ROOT && names[id] != NO_ID && --counts[id] == 0) {
+        int parent = parents[id];
+        remove(id);
+        id = parent;
+      }
+    } finally {
+      LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return The number of paths in the registry.
+   */
+  public static int size() {
+    LOCK.readLock().lock();
+    try {
+      return live;
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the id of a path without changing the registry.
+   *
+   * @param path
+   *          The path.
+   * @return The id of the path, or {@link #NO_ID} if it isn't in the registry.
+   */
+  public static int findId(Path path) {
+    LOCK.readLock().lock();
+    try {
+      int id = findChild(ROOT, rootName(path));
+      for (int i = 0; id != NO_ID && i < path.getNameCount(); i++) {
+        id = findChild(id, path.getName(i).toString());
+      }
+      return id;
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the id of the deepest path in the registry that is the path or one of
+   * its ancestors, without changing the registry.
+   *
+   * @param path
+   *          The path.
+   * @return The id of the path or of its deepest ancestor in the registry, or
+   *         {@link #ROOT} if none of them is in the registry.
+   */
+  public static int findClosestId(Path path) {
+    LOCK.readLock().lock();
+    try {
+      int id = findChild(ROOT, rootName(path));
+      if (id == NO_ID) {
+        return ROOT;
+      }
+      for (int i = 0; i < path.getNameCount(); i++) {
+        int child = findChild(id, path.getName(i).toString());
+        if (child == NO_ID) {
+          break;
+        }
+        id = child;
+      }
+      return id;
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the id of a path without changing the registry.
+   *
+   * @param path
+   *          The string of the path, as returned by {@link Path#toString()}.
+   * @return The id of the path, or {@link #NO_ID} if it isn't in the registry.
+   */
+  public static int findId(String path) {
+    LOCK.readLock().lock();
+    try {
+      return find(path, true);
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the id of the deepest path in the registry that is the path or one of
+   * its ancestors, without changing the registry.
+   *
+   * @param path
+   *          The string of the path, as returned by {@link Path#toString()}.
+   * @return The id of the path or of its deepest ancestor in the registry, or
+   *         {@link #ROOT} if none of them is in the registry.
+   */
+  public static int findClosestId(String path) {
+    LOCK.readLock().lock();
+    try {
+      return find(path, false);
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param id
+   *          The id of a path.
+   * @return The id of the parent of the path, {@link #ROOT} for the root
+   *         components and {@link #NO_ID} for {@link #ROOT} itself.
+   */
+  public static int getParent(int id) {
+    LOCK.readLock().lock();
+    try {
+      return parents[id];
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param id
+   *          The id of a path.
+   * @return The last name segment of the path, or the root component.
+   */
+  public static String getName(int id) {
+    LOCK.readLock().lock();
+    try {
+      return id == ROOT || names[id] == NO_ID ? "" : nameValues.get(names[id]);
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * Builds the path with the id received as parameter.
+   *
+   * @param id
+   *          The id of a path.
+   * @return The path.
+   * @throws IllegalArgumentException
+   *           If the id is {@link #ROOT}, {@link #NO_ID} or the id of a path
+   *           that was removed.
+   */
+  public static Path getPath(int id) {
+    LOCK.readLock().lock();
+    try {
+      if (id <= ROOT || id >= size || names[id] == NO_ID) {
+        throw new IllegalArgumentException("No path with the id " + id);
+      }
+      int depth = 0;
+      for (int current = id; parents[current] != ROOT; current = parents[current]) {
+        depth++;
+      }
+      String[] segments = new String[depth];
+      int current = id;
+      for (int i = depth - 1; i >= 0; i--) {
+        segments[i] = nameValues.get(names[current]);
+        current = parents[current];
+      }
+      return Paths.get(nameValues.get(names[current]), segments);
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  /**
+   * @param ancestor
+   *          The id of the possible ancestor.
+   * @param id
+   *          The id of a path.
+   * @return True if the path is the ancestor or is under it, false otherwise.
+   */
+  public static boolean isSameOrDescendant(int ancestor, int id) {
+    LOCK.readLock().lock();
+    try {
+      for (int current = id; current != NO_ID; current = parents[current]) {
+        if (current == ancestor) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      LOCK.readLock().unlock();
+    }
+  }
+
+  private static String rootName(Path path) {
+    Path pathRoot = path.getRoot();
+    return pathRoot == null ? "" : pathRoot.toString();
+  }
+
+  /*
+   * Walks the segments of the path string, starting in the longest root
+   * component it starts with (UNC roots included).
+   */
+  private static int find(String path, boolean exact) {
+    int id = NO_ID;
+    int start = 0;
+    for (int i = 0; i < rootCount; i++) {
+      String rootName = nameValues.get(names[roots[i]]);
+      if ((id == NO_ID || rootName.length() > start) && path.startsWith(rootName)) {
+        id = roots[i];
+        start = rootName.length();
+      }
+    }
+    if (id == NO_ID) {
+      return exact ? NO_ID : ROOT;
+    }
+
+    while (start < path.length()) {
+      int end = path.indexOf(File.separatorChar, start);
+      if (end == -1) {
+        end = path.length();
+      }
+      if (end > start) {
+        int child = findChild(id, findName(path, start, end));
+        if (child == NO_ID) {
+          return exact ? NO_ID : id;
+        }
+        id = child;
+      }
+      start = end + 1;
+    }
+    return id;
+  }
+
+  private static int findChild(int parent, String name) {
+    return findChild(parent, findName(name, 0, name.length()));
+  }
+
+  private static int findChild(int parent, int nameId) {
+    if (nameId == NO_ID) {
+      return NO_ID;
+    }
+    int mask = index.length - 1;
+    for (int slot = hash(parent, nameId) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int id = index[slot] - 1;
+      if (parents[id] == parent && names[id] == nameId) {
+        return id;
+      }
+    }
+    return NO_ID;
+  }
+
+  private static int getOrCreateChild(int parent, String name) {
+    int nameId = internName(name);
+    int mask = index.length - 1;
+    int slot = hash(parent, nameId) & mask;
+    for (; index[slot] != 0; slot = (slot + 1) & mask) {
+      int id = index[slot] - 1;
+      if (parents[id] == parent && names[id] == nameId) {
+        return id;
+      }
+    }
+
+    int id;
+    if (freeCount > 0) {
+      id = freeIds[freeHead];
+      freeHead = (freeHead + 1) % freeIds.length;
+      freeCount--;
+    } else {
+      id = size++;
+      if (id == parents.length) {
+        parents = Arrays.copyOf(parents, id * 2);
+        names = Arrays.copyOf(names, id * 2);
+        counts = Arrays.copyOf(counts, id * 2);
+      }
+    }
+    parents[id] = parent;
+    names[id] = nameId;
+    counts[id] = 0;
+    nameCounts[nameId]++;
+    live++;
+    index[slot] = id + 1;
+    if (parent != ROOT) {
+      // the child keeps its parent
+      counts[parent]++;
+    } else {
+      if (rootCount == roots.length) {
+        roots = Arrays.copyOf(roots, rootCount * 2);
+      }
+      roots[rootCount++] = id;
+    }
+    if (live * 2 > index.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  private static int register(Path path) {
+    int id = getOrCreateChild(ROOT, rootName(path));
+    for (int i = 0; i < path.getNameCount(); i++) {
+      id = getOrCreateChild(id, path.getName(i).toString());
+    }
+    return id;
+  }
+
+  /*
+   * Removes a path that nothing keeps. Its parent's count is updated by the
+   * caller.
+   */
+  private static void remove(int id) {
+    removeFromIndex(index, hash(parents[id], names[id]), id + 1);
+    if (parents[id] == ROOT) {
+      for (int i = 0; i < rootCount; i++) {
+        if (roots[i] == id) {
+          roots[i] = roots[--rootCount];
+          break;
+        }
+      }
+    }
+    int nameId = names[id];
+    if (--nameCounts[nameId] == 0) {
+      removeFromIndex(nameIndex, spread(nameValues.get(nameId).hashCode()), nameId + 1);
+      nameValues.set(nameId, null);
+      if (freeNameCount == freeNames.length) {
+        freeNames = Arrays.copyOf(freeNames, freeNameCount * 2);
+      }
+      freeNames[freeNameCount++] = nameId;
+    }
+    // the parent is kept, so a lookup that found the id before it was removed
+    // still walks the ancestors of its path
+    names[id] = NO_ID;
+    live--;
+
+    if (freeCount == freeIds.length) {
+      int[] grown = new int[freeIds.length * 2];
+      for (int i = 0; i < freeCount; i++) {
+        grown[i] = freeIds[(freeHead + i) % freeIds.length];
+      }
+      freeIds = grown;
+      freeHead = 0;
+    }
+    freeIds[(freeHead + freeCount) % freeIds.length] = id;
+    freeCount++;
+  }
+
+  /*
+   * Removes a value from an open addressing table, moving back the values after
+   * it that would no longer be found.
+   */
+  private static void removeFromIndex(int[] table, int hash, int value) {
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != value) {
+      slot = (slot + 1) & mask;
+    }
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      if (table[next] == 0) {
+        break;
+      }
+      int home = (table == index ? hash(parents[table[next] - 1], names[table[next] - 1])
+        : spread(nameValues.get(table[next] - 1).hashCode())) & mask;
+      // the value can move to the empty slot if its home isn't between them
+      if (((next - home) & mask) >= ((next - slot) & mask)) {
+        table[slot] = table[next];
+        slot = next;
+      }
+    }
+    table[slot] = 0;
+  }
+
+  /*
+   * The id of the interned name equal to the region of the string, or NO_ID.
+   * The hash is the same as String.hashCode() of the region.
+   */
+  private static int findName(String value, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + value.charAt(i);
+    }
+    int length = end - start;
+    int mask = nameIndex.length - 1;
+    for (int slot = spread(hash) & mask; nameIndex[slot] != 0; slot = (slot + 1) & mask) {
+      int nameId = nameIndex[slot] - 1;
+      String name = nameValues.get(nameId);
+      if (name.length() == length && name.regionMatches(0, value, start, length)) {
+        return nameId;
+      }
+    }
+    return NO_ID;
+  }
+
+  private static int internName(String name) {
+    int nameId = findName(name, 0, name.length());
+    if (nameId == NO_ID) {
+      if (freeNameCount == 0) {
+        nameId = nameValues.size();
+        nameValues.add(name);
+        if (nameId == nameCounts.length) {
+          nameCounts = Arrays.copyOf(nameCounts, nameId * 2);
+        }
+      } else {
+        nameId = freeNames[--freeNameCount];
+        nameValues.set(nameId, name);
+      }
+      nameCounts[nameId] = 0;
+      if (nameValues.size() * 2 > nameIndex.length) {
+        nameIndex = new int[nameIndex.length * 2];
+        for (int i = 0; i < nameValues.size(); i++) {
+          if (nameValues.get(i) != null) {
+            indexName(i);
+          }
+        }
+      } else {
+        indexName(nameId);
+      }
+    }
+    return nameId;
+  }
+
+  private static void indexName(int nameId) {
+    int mask = nameIndex.length - 1;
+    int slot = spread(nameValues.get(nameId).hashCode()) & mask;
+    while (nameIndex[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    nameIndex[slot] = nameId + 1;
+  }
+
+  private static void rehash() {
+    index = new int[index.length * 2];
+    int mask = index.length - 1;
+    for (int id = ROOT + 1; id < size; id++) {
+      if (names[id] == NO_ID) {
+        continue;
+      }
+      int slot = hash(parents[id], names[id]) & mask;
+      while (index[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      index[slot] = id + 1;
+    }
+  }
+
+  private static int hash(int parent, int nameId) {
+    return spread(parent * 0x9E3779B9 + nameId);
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+}
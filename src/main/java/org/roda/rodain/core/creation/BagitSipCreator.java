@@ -1,8 +1,6 @@
 package org.roda.rodain.core.creation;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -41,10 +39,6 @@ import org.slf4j.LoggerFactory;
  */
 public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, ISipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(BagitSipCreator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPsize = 0;
-  private int currentSIPadded = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
 
@@ -68,30 +62,20 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-      Pair pathBag = createBagit(preview);
-      if (pathBag != null) {
-        sips.put((Path) pathBag.getKey(), (SIP) pathBag.getValue());
-      }
-    }
+    Map<Path, Object> sips = createSips(sipNameBuilder, this::createBagit);
 
     if (createReport) {
       createReport(sips);
     }
 
-    currentAction = I18n.t(Constants.I18N_DONE);
+    setCurrentAction(I18n.t(Constants.I18N_DONE));
   }
 
   private Pair createBagit(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
     // we add a timestamp to the beginning of the SIP name to avoid same name
     // conflicts
-    currentSipName = descriptionObject.getTitle();
-    currentAction = actionCreatingFolders;
+    setCurrentSipName(descriptionObject.getTitle());
+    setCurrentAction(actionCreatingFolders);
 
     org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
       ? ((SipPreview) descriptionObject).getContentType()
@@ -104,7 +88,7 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
     bagit.setStatus(IPStatus.NEW);
 
     try {
-      currentAction = actionCopyingData;
+      setCurrentAction(actionCopyingData);
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -112,12 +96,12 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
           rep.setContentType(new org.roda_project.commons_ip.model.RepresentationContentType(sr.getType().getValue()));
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          getSipProgress().filesAdded = 0;
+          getSipProgress().filesCount = 0;
 
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            getSipProgress().filesCount += tn.getFullTreePaths().size();
           }
 
           for (TreeNode tn : files) {
@@ -139,11 +123,11 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
         list.forEach((id, content) -> metadataMap.put(Constants.CONF_K_PREFIX_METADATA + id, content));
       }
 
-      Path metadataPath = tempDir.resolve(Utils.generateRandomAndPrefixedUUID());
+      Path metadataPath = getStagingFolder().resolve(Utils.generateRandomAndPrefixedUUID());
       bagit.addDescriptiveMetadata(BagitUtils.createBagitMetadata(metadataMap, bagit.getAncestors(), metadataPath));
 
       Path name = bagit.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(name, bagit);
     } catch (Exception e) {
       LOGGER.error("Error creating SIP", e);
@@ -154,7 +138,7 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -165,30 +149,33 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      getSipProgress().filesAdded++;
+      setCurrentAction(String.format("%s (%d/%d)", actionCopyingData, getSipProgress().filesAdded,
+        getSipProgress().filesCount));
     }
   }
 
   @Override
   public void sipBuildRepresentationsProcessingStarted(int current) {
-    // do nothing
+    getSipProgress().representationsCount = current;
+    getSipProgress().representationsProcessed = 0;
   }
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    getSipProgress().representationSize = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    setCurrentAction(String.format(format, i, getSipProgress().representationSize));
+    getSipProgress().setRepresentationProcessed(i);
   }
 
   @Override
   public void sipBuildRepresentationProcessingEnded() {
-    // do nothing
+    getSipProgress().representationsProcessed++;
   }
 
   @Override
@@ -198,22 +185,21 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, IS
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    getSipProgress().zipFilesCount = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    String progress = String.format(format, current, getSipProgress().zipFilesCount);
+    setCurrentAction(progress);
+    getSipProgress().setPackaged(current);
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    setCurrentAction(actionFinalizingSip);
+    getSipProgress().packaged = 0;
   }
 
   public static String getText() {
@@ -115,7 +115,7 @@ public class CreateSips {
    *         created by the total number of SIPs.
    */
   public double getProgress() {
-    return (creator.getCreatedSipsCount() / (sipsCount * 1.0)) + creator.currentSipProgress;
+    return (creator.getCreatedSipsCount() / (sipsCount * 1.0)) + creator.getCurrentSipProgress();
   }
 
   /**
@@ -125,6 +125,14 @@ public class CreateSips {
     return creator.getTimeRemainingEstimate();
   }
 
+  /**
+   * @return The smoothed throughput of the SIP creator, in bytes per second, or
+   *         -1 if it can't be computed yet.
+   */
+  public double getThroughput() {
+    return creator.getThroughput();
+  }
+
   /**
    * @return The name of the SIP currently being processed.
    */
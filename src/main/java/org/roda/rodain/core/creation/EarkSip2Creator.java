@@ -1,6 +1,5 @@
 package org.roda.rodain.core.creation;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -77,7 +76,7 @@ public class EarkSip2Creator extends SipCreator {
   @Override
   protected void addFileToRepresentation(final TreeNode tn, final List<String> relativePath,
     final IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       final List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -89,7 +88,7 @@ public class EarkSip2Creator extends SipCreator {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
       setCurrentSIPadded(getCurrentSIPadded() + 1);
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, getCurrentSIPadded(), getCurrentSIPsize());
+      setCurrentAction(String.format("%s (%d/%d)", actionCopyingData, getCurrentSIPadded(), getCurrentSIPsize()));
     }
   }
 }
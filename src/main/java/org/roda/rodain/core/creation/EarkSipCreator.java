@@ -1,11 +1,8 @@
 package org.roda.rodain.core.creation;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,10 +43,6 @@ import org.slf4j.LoggerFactory;
  */
 public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(EarkSipCreator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPadded = 0;
-  private int currentSIPsize = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
   private IPHeader ipHeader;
@@ -76,24 +69,14 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-      Pair pathSIP = createEarkSip(preview);
-      if (pathSIP != null) {
-        sips.put((Path) pathSIP.getKey(), (SIP) pathSIP.getValue());
-      }
-    }
+    Map<Path, Object> sips = createSips(sipNameBuilder, this::createEarkSip);
     if (createReport) {
       createReport(sips);
     }
-    currentAction = I18n.t(Constants.I18N_DONE);
+    setCurrentAction(I18n.t(Constants.I18N_DONE));
   }
 
   private Pair createEarkSip(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
     try {
       org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
         ? ((SipPreview) descriptionObject).getContentType()
@@ -112,9 +95,8 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
         earkSip.setStatus(IPStatus.NEW);
       }
 
-      currentSipProgress = 0;
-      currentSipName = descriptionObject.getTitle();
-      currentAction = actionCopyingMetadata;
+      setCurrentSipName(descriptionObject.getTitle());
+      setCurrentAction(actionCopyingMetadata);
 
       for (DescriptiveMetadata descObjMetadata : descriptionObject.getMetadata()) {
         MetadataType metadataType = new MetadataType(MetadataType.MetadataTypeEnum.OTHER);
@@ -147,7 +129,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
           String content = descriptionObject.getMetadataWithReplaces(descObjMetadata);
           metadataPath = descObjMetadata.getPath();
           if (metadataPath == null) {
-            metadataPath = tempDir.resolve(descObjMetadata.getId());
+            metadataPath = getStagingFolder().resolve(descObjMetadata.getId());
           }
           FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
         }
@@ -159,7 +141,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
         earkSip.addDescriptiveMetadata(metadata);
       }
 
-      currentAction = actionCopyingData;
+      setCurrentAction(actionCopyingData);
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -173,12 +155,12 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
           rep.setContentType(contentType);
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          getSipProgress().filesAdded = 0;
+          getSipProgress().filesCount = 0;
 
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            getSipProgress().filesCount += tn.getFullTreePaths().size();
           }
 
           // add files to representation
@@ -189,7 +171,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
           earkSip.addRepresentation(rep);
         }
 
-        currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
+        setCurrentAction(I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION));
         Set<TreeNode> docs = sip.getDocumentation();
         for (TreeNode tn : docs) {
           addDocToSip(tn, new ArrayList<>(), earkSip);
@@ -199,10 +181,10 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
       earkSip.setHeader(ipHeader);
       earkSip.addCreatorSoftwareAgent(agentName);
 
-      currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
+      setCurrentAction(I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP));
       Path sipPath = earkSip.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
 
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(sipPath, earkSip);
     } catch (InterruptedException e) {
       canceled = true;
@@ -220,7 +202,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -231,13 +213,14 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      getSipProgress().filesAdded++;
+      setCurrentAction(String.format("%s (%d/%d)", actionCopyingData, getSipProgress().filesAdded,
+        getSipProgress().filesCount));
     }
   }
 
   private void addDocToSip(TreeNode tn, List<String> relativePath, SIP earkSip) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -254,23 +237,25 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
 
   @Override
   public void sipBuildRepresentationsProcessingStarted(int i) {
-    // do nothing
+    getSipProgress().representationsCount = i;
+    getSipProgress().representationsProcessed = 0;
   }
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    getSipProgress().representationSize = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    setCurrentAction(String.format(format, i, getSipProgress().representationSize));
+    getSipProgress().setRepresentationProcessed(i);
   }
 
   @Override
   public void sipBuildRepresentationProcessingEnded() {
-    // do nothing
+    getSipProgress().representationsProcessed++;
   }
 
   @Override
@@ -280,22 +265,21 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, ISi
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    getSipProgress().zipFilesCount = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    String progress = String.format(format, current, getSipProgress().zipFilesCount);
+    setCurrentAction(progress);
+    getSipProgress().setPackaged(current);
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    setCurrentAction(actionFinalizingSip);
+    getSipProgress().packaged = 0;
   }
 
   public static String getText() {
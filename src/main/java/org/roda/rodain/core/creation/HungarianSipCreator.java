@@ -3,11 +3,8 @@ package org.roda.rodain.core.creation;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,10 +43,6 @@ import org.slf4j.LoggerFactory;
 
 public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver, ISipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(HungarianSipCreator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPadded = 0;
-  private int currentSIPsize = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
   private IPHeader ipHeader;
@@ -75,27 +68,16 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-
-      Pair pathSIP = createHungarianSip(preview);
-      if (pathSIP != null) {
-        sips.put((Path) pathSIP.getKey(), (SIP) pathSIP.getValue());
-      }
-    }
+    Map<Path, Object> sips = createSips(sipNameBuilder, this::createHungarianSip);
 
     if (createReport) {
       createReport(sips);
     }
 
-    currentAction = I18n.t(Constants.I18N_DONE);
+    setCurrentAction(I18n.t(Constants.I18N_DONE));
   }
 
   private Pair createHungarianSip(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
     try {
       org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
         ? ((SipPreview) descriptionObject).getContentType()
@@ -111,9 +93,8 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
         hungarianSip.setStatus(IPStatus.NEW);
       }
 
-      currentSipProgress = 0;
-      currentSipName = descriptionObject.getTitle();
-      currentAction = actionCopyingMetadata;
+      setCurrentSipName(descriptionObject.getTitle());
+      setCurrentAction(actionCopyingMetadata);
 
       for (DescriptiveMetadata descObjMetadata : descriptionObject.getMetadata()) {
         MetadataType metadataType = new MetadataType(MetadataType.MetadataTypeEnum.OTHER);
@@ -146,7 +127,7 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
           String content = descriptionObject.getMetadataWithReplaces(descObjMetadata);
           metadataPath = descObjMetadata.getPath();
           if (metadataPath == null) {
-            metadataPath = tempDir.resolve(descObjMetadata.getId());
+            metadataPath = getStagingFolder().resolve(descObjMetadata.getId());
           }
           FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
         }
@@ -159,7 +140,7 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
         hungarianSip.addDescriptiveMetadata(metadata);
       }
 
-      currentAction = actionCopyingData;
+      setCurrentAction(actionCopyingData);
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -167,11 +148,11 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
           rep.setContentType(new org.roda_project.commons_ip.model.RepresentationContentType(sr.getType().getValue()));
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          getSipProgress().filesAdded = 0;
+          getSipProgress().filesCount = 0;
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            getSipProgress().filesCount += tn.getFullTreePaths().size();
           }
           // add files to representation
           for (TreeNode tn : files) {
@@ -181,14 +162,14 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
           hungarianSip.addRepresentation(rep);
         }
 
-        currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
+        setCurrentAction(I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION));
         Set<TreeNode> docs = sip.getDocumentation();
         for (TreeNode tn : docs) {
           addDocToZip(tn, new ArrayList<>(), hungarianSip);
         }
       }
 
-      currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
+      setCurrentAction(I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP));
 
       // 2017-05-10 bferreira: these are constant. see issue #286
       IPAltRecordID deliveryType = new IPAltRecordID();
@@ -212,7 +193,7 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
       }
       Path sipPath = hungarianSip.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
 
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(sipPath, hungarianSip);
     } catch (InterruptedException e) {
       canceled = true;
@@ -230,7 +211,7 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -242,13 +223,14 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      getSipProgress().filesAdded++;
+      setCurrentAction(String.format("%s (%d/%d)", actionCopyingData, getSipProgress().filesAdded,
+        getSipProgress().filesCount));
     }
   }
 
   private void addDocToZip(TreeNode tn, List<String> relativePath, SIP hungarianSip) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -265,23 +247,25 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
 
   @Override
   public void sipBuildRepresentationsProcessingStarted(int i) {
-    // do nothing
+    getSipProgress().representationsCount = i;
+    getSipProgress().representationsProcessed = 0;
   }
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    getSipProgress().representationSize = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    setCurrentAction(String.format(format, i, getSipProgress().representationSize));
+    getSipProgress().setRepresentationProcessed(i);
   }
 
   @Override
   public void sipBuildRepresentationProcessingEnded() {
-    // do nothing
+    getSipProgress().representationsProcessed++;
   }
 
   @Override
@@ -291,22 +275,21 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    getSipProgress().zipFilesCount = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    String progress = String.format(format, current, getSipProgress().zipFilesCount);
+    setCurrentAction(progress);
+    getSipProgress().setPackaged(current);
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    setCurrentAction(actionFinalizingSip);
+    getSipProgress().packaged = 0;
   }
 
   public static String getText() {
@@ -1,17 +1,16 @@
 package org.roda.rodain.core.creation;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.schema.RepresentationContentType;
@@ -20,6 +19,7 @@ import org.roda.rodain.core.shallowSipManager.ShallowSipUriCreator;
 import org.roda.rodain.core.shallowSipManager.UriCreator;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
 import org.roda.rodain.core.sip.naming.SIPNameBuilderSIPS;
+import org.roda.rodain.core.source.FileDigests;
 import org.roda_project.commons_ip.model.IPHeader;
 import org.roda_project.commons_ip.utils.IPException;
 import org.roda_project.commons_ip2.mets_v1_12.beans.FileType;
@@ -31,7 +31,6 @@ import org.roda_project.commons_ip2.model.IPFileInterface;
 import org.roda_project.commons_ip2.model.IPFileShallow;
 import org.roda_project.commons_ip2.model.IPRepresentation;
 import org.roda_project.commons_ip2.utils.METSUtils;
-import org.roda_project.commons_ip2.utils.ZIPUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +43,17 @@ public class ShallowSipCreator extends SipCreator {
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(ShallowSipCreator.class.getName());
 
+  /**
+   * The checksum algorithms of the files.
+   */
+  private static final Set<String> CHECKSUM_ALGORITHMS = Collections.singleton(IPConstants.CHECKSUM_ALGORITHM);
+
+  /**
+   * The checksums of the files of the representations being added, computed in
+   * parallel before the files are added.
+   */
+  private final Map<Path, Map<String, String>> checksums = new ConcurrentHashMap<>();
+
   /**
    * Creates a new Shallow SIP exporter.
    *
@@ -96,10 +106,33 @@ public class ShallowSipCreator extends SipCreator {
     return res;
   }
 
+  @Override
+  protected void prepareRepresentationFiles(final Set<TreeNode> files) throws IOException, InterruptedException {
+    final List<Path> paths = new ArrayList<>();
+    for (TreeNode tn : files) {
+      addFilePaths(tn, paths);
+    }
+    try {
+      checksums.putAll(FileDigests.digestAll(paths, CHECKSUM_ALGORITHMS, getBytesReadCounter()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void addFilePaths(final TreeNode tn, final List<Path> paths) {
+    if (tn.isDirectory()) {
+      for (TreeNode node : tn.getChildren().values()) {
+        addFilePaths(node, paths);
+      }
+    } else {
+      paths.add(tn.getPath());
+    }
+  }
+
   @Override
   protected void addFileToRepresentation(final TreeNode tn, final List<String> relativePath,
     final IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       final List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -126,7 +159,7 @@ public class ShallowSipCreator extends SipCreator {
       }
       rep.addFile(representationFile);
       setCurrentSIPadded(getCurrentSIPadded() + 1);
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, getCurrentSIPadded(), getCurrentSIPsize());
+      setCurrentAction(String.format("%s (%d/%d)", actionCopyingData, getCurrentSIPadded(), getCurrentSIPsize()));
     }
   }
 
@@ -140,13 +173,12 @@ public class ShallowSipCreator extends SipCreator {
     }
 
     final String checksumType = IPConstants.CHECKSUM_ALGORITHM;
-    final Set<String> checksumAlgorithms = new HashSet<>();
-    checksumAlgorithms.add(checksumType);
-    try (InputStream inputStream = Files.newInputStream(path)) {
-      final Map<String, String> checksums = ZIPUtils.calculateChecksums(Optional.empty(), inputStream,
-        checksumAlgorithms);
-      final String checksum = checksums.get(checksumType);
-      filetype.setCHECKSUM(checksum);
+    try {
+      Map<String, String> fileChecksums = checksums.remove(path);
+      if (fileChecksums == null) {
+        fileChecksums = FileDigests.digest(path, CHECKSUM_ALGORITHMS, getBytesReadCounter());
+      }
+      filetype.setCHECKSUM(fileChecksums.get(checksumType));
       filetype.setCHECKSUMTYPE(checksumType);
     } catch (NoSuchAlgorithmException | IOException e) {
       // do nothing
@@ -5,13 +5,29 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -24,11 +40,16 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.io.FileUtils;
+import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Controller;
 import org.roda.rodain.core.I18n;
+import org.roda.rodain.core.Pair;
 import org.roda.rodain.core.report.InventoryReportCreator;
+import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.schema.Sip;
+import org.roda.rodain.core.sip.SipPreview;
+import org.roda.rodain.core.sip.SipRepresentation;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,11 +60,31 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 /**
+ * The base of the SIP exporters.
+ * <p/>
+ * <p>
+ * The SIPs are created by {@link #createSips(SIPNameBuilder, Function)} in a
+ * bounded pool of workers, several at the same time, starting with the ones
+ * with more content. The names of the SIPs are given before, one by one in the
+ * order of the previews. The progress of each SIP being created is kept by its
+ * worker thread in a {@link SipProgress} and summed in
+ * {@link #getCurrentSipProgress()}.
+ * </p>
+ * <p>
+ * The files generated for a SIP, like its rendered descriptive metadata, are
+ * written to a staging folder of the SIP, by default in the application's
+ * folder, see {@link #getStagingFolder()}. The folder is deleted when the SIP
+ * is created, or after the inventory report when one is created, since the
+ * report reads the files of the SIPs.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 19/11/2015.
  */
 public abstract class SimpleSipCreator extends Thread {
   private static final Logger LOGGER = LoggerFactory.getLogger(SimpleSipCreator.class.getName());
+  private static final int MAX_DEFAULT_PARALLELISM = 4;
+  private static final long STAGING_MAX_AGE = 24L * 60 * 60 * 1000; // in milliseconds
 
   protected static final String actionCreatingFolders = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_CREATING_STRUCTURE);
   protected static final String actionCopyingData = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_COPYING_DATA);
@@ -56,22 +97,32 @@ public abstract class SimpleSipCreator extends Thread {
   protected final Map<Sip, List<String>> previews;
   protected final int sipPreviewCount;
 
-  protected int createdSipsCount = 0;
-  protected String currentSipName;
-  protected String currentAction;
+  protected final AtomicInteger createdSipsCount = new AtomicInteger();
+  // shown when no SIP is being created
+  private volatile String currentSipName;
+  private volatile String currentAction;
 
   // ETA
-  protected long sipSize;
-  protected long sipTransferedSize;
-  protected long sipTransferedTime;
-  protected long transferedSize;
-  protected long transferedTime;
-  protected long allSipsSize;
+  private static final long THROUGHPUT_SAMPLE_TIME = 1000; // in milliseconds
+  private static final double THROUGHPUT_WEIGHT = 0.2;
+  protected volatile long allSipsSize;
+  protected final LongAdder transferedSize = new LongAdder();
   protected Instant lastInstant;
-  protected Instant sipStartInstant;
-
-  protected boolean canceled = false;
-  protected float currentSipProgress;
+  protected long lastTransferedSize;
+  // smoothed, in bytes per millisecond, negative until the first sample
+  protected double throughput = -1;
+
+  protected volatile boolean canceled = false;
+  protected long startedTime = Long.MIN_VALUE;
+  // the folder of the staging folders of the exports
+  private final Path stagingRoot;
+  // the staging folder of the export, with a folder for each SIP
+  private Path exportStaging;
+  // in the order the SIPs started to be created
+  private final Queue<SipProgress> running = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<SipProgress> sipProgress = new ThreadLocal<>();
+  // given before the workers start, only read by them
+  private final Map<Sip, String> sipNames = new HashMap<>();
 
   protected Set<Sip> unsuccessful;
 
@@ -89,12 +140,30 @@ public abstract class SimpleSipCreator extends Thread {
    *          The map with the SIPs that will be exported
    */
   public SimpleSipCreator(Path outputPath, Map<Sip, List<String>> previews, boolean createReport) {
+    this(outputPath, previews, createReport, ConfigurationManager.getRodainPath().resolve(Constants.FOLDER_STAGING));
+  }
+
+  /**
+   * Creates a simple SIP exporter staging the files of the SIPs in a given
+   * folder.
+   *
+   * @param outputPath
+   *          The path to the output folder of the SIP exportation
+   * @param previews
+   *          The map with the SIPs that will be exported
+   * @param stagingRoot
+   *          The folder of the staging folders, where the ones left by previous
+   *          exports are deleted
+   */
+  protected SimpleSipCreator(Path outputPath, Map<Sip, List<String>> previews, boolean createReport,
+    Path stagingRoot) {
     this.outputPath = outputPath;
+    this.stagingRoot = stagingRoot;
     this.createReport = createReport;
     this.previews = previews;
     sipPreviewCount = previews.size();
 
-    unsuccessful = new HashSet<>();
+    unsuccessful = ConcurrentHashMap.newKeySet();
 
     try {
       agentName = String.format(Constants.SIP_AGENT_NAME_FORMAT, Controller.getCurrentVersion());
@@ -107,7 +176,22 @@ public abstract class SimpleSipCreator extends Thread {
    * @return The number of SIPs that have already been created.
    */
   public int getCreatedSipsCount() {
-    return createdSipsCount;
+    return createdSipsCount.get();
+  }
+
+  /**
+   * @return The progress of the SIPs being created, as a fraction of all the
+   *         SIPs.
+   */
+  public float getCurrentSipProgress() {
+    if (sipPreviewCount == 0) {
+      return 0;
+    }
+    float result = 0;
+    for (SipProgress progress : running) {
+      result += progress.packaged;
+    }
+    return result / sipPreviewCount;
   }
 
   /**
@@ -118,17 +202,270 @@ public abstract class SimpleSipCreator extends Thread {
   }
 
   /**
-   * @return The action currently being done on the SIP.
+   * @return The action currently being done on the oldest SIP being created.
    */
   public String getCurrentAction() {
-    return currentAction;
+    SipProgress progress = running.peek();
+    return progress != null && progress.action != null ? progress.action : currentAction;
+  }
+
+  /**
+   * Sets the action being done on the SIP created in the current thread, or by
+   * the creator when it isn't creating a SIP.
+   *
+   * @param action
+   *          The action
+   */
+  protected void setCurrentAction(String action) {
+    SipProgress progress = sipProgress.get();
+    if (progress != null) {
+      progress.action = action;
+    } else {
+      currentAction = action;
+    }
   }
 
   /**
-   * @return The name of the SIP currently being processed.
+   * @return The name of the oldest SIP being created.
    */
   public String getCurrentSipName() {
-    return currentSipName;
+    SipProgress progress = running.peek();
+    return progress != null && progress.sipName != null ? progress.sipName : currentSipName;
+  }
+
+  /**
+   * Sets the name of the SIP created in the current thread.
+   *
+   * @param sipName
+   *          The name of the SIP
+   */
+  protected void setCurrentSipName(String sipName) {
+    SipProgress progress = sipProgress.get();
+    if (progress != null) {
+      progress.sipName = sipName;
+    } else {
+      currentSipName = sipName;
+    }
+  }
+
+  /**
+   * Creates the SIPs, several at the same time, largest first.
+   * <p/>
+   * <p>
+   * The names of the SIPs are built before, in this thread and in the order of
+   * the previews, so the builders with serial numbers give them in that order
+   * and aren't used by several workers at the same time.
+   * </p>
+   *
+   * @param sipNameBuilder
+   *          The builder of the names of the SIPs, see
+   *          {@link #createSipName(Sip, SIPNameBuilder)}
+   * @param creator
+   *          The function that creates one SIP, returning the path and the
+   *          object of the SIP, or null if it wasn't created
+   * @return The paths and the objects of the created SIPs
+   */
+  protected Map<Path, Object> createSips(SIPNameBuilder sipNameBuilder, Function<Sip, Pair> creator) {
+    startedTime = System.currentTimeMillis();
+    Map<Sip, Long> sizes = new HashMap<>();
+    long total = 0;
+    for (Sip sip : previews.keySet()) {
+      if (sipNameBuilder != null) {
+        sipNames.put(sip, buildSipName(sip, sipNameBuilder));
+      }
+      long size = getContentSize(sip);
+      sizes.put(sip, size);
+      total += size;
+    }
+    allSipsSize = total;
+    List<Sip> sorted = new ArrayList<>(previews.keySet());
+    // the largest SIPs first, so they don't end up running alone at the end
+    sorted.sort(Comparator.comparing((Sip sip) -> sizes.get(sip)).reversed());
+
+    Map<Path, Object> sips = new ConcurrentHashMap<>();
+    ExecutorService workers = Executors.newFixedThreadPool(getParallelism());
+    List<Future<?>> futures = new ArrayList<>();
+    for (Sip sip : sorted) {
+      futures.add(workers.submit(() -> {
+        if (canceled) {
+          return;
+        }
+        SipProgress progress = new SipProgress(sizes.get(sip));
+        sipProgress.set(progress);
+        running.add(progress);
+        try {
+          Pair pathSIP = creator.apply(sip);
+          if (pathSIP != null) {
+            sips.put((Path) pathSIP.getKey(), pathSIP.getValue());
+          }
+        } finally {
+          if (progress.staging != null && !createReport) {
+            deleteDirectory(progress.staging);
+          }
+          // the SIPs with errors are done too, as far as the estimate goes
+          transferedSize.add(progress.size);
+          running.remove(progress);
+          sipProgress.remove();
+        }
+      }));
+    }
+    workers.shutdown();
+    try {
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          // the other SIPs are still created
+          LOGGER.error("Error creating a SIP", e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      canceled = true;
+      workers.shutdownNow();
+      awaitTermination(workers);
+    }
+    // no worker is writing to the staging folder anymore
+    if (!createReport) {
+      deleteStaging();
+    }
+    return sips;
+  }
+
+  /*
+   * Waits for the interrupted workers to stop, so the report and the deletion
+   * of the staging folder don't race with the SIPs still being written.
+   */
+  private static void awaitTermination(ExecutorService workers) {
+    boolean terminated = false;
+    while (!terminated) {
+      try {
+        terminated = workers.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // the creation was already canceled
+      }
+    }
+    Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Gets the staging folder of the SIP being created in the current thread,
+   * creating it if needed.
+   *
+   * @return The path of the folder.
+   * @throws IOException
+   *           If the folder can't be created.
+   * @throws IllegalStateException
+   *           If the current thread isn't creating a SIP.
+   */
+  protected Path getStagingFolder() throws IOException {
+    SipProgress progress = getSipProgress();
+    if (progress.staging == null) {
+      progress.staging = Files.createTempDirectory(getExportStaging(), "sip-");
+    }
+    return progress.staging;
+  }
+
+  private synchronized Path getExportStaging() throws IOException {
+    if (exportStaging == null) {
+      Files.createDirectories(stagingRoot);
+      deleteOldStaging(stagingRoot);
+      exportStaging = Files.createTempDirectory(stagingRoot, "export-");
+    }
+    return exportStaging;
+  }
+
+  private synchronized void deleteStaging() {
+    if (exportStaging != null) {
+      deleteDirectory(exportStaging);
+      exportStaging = null;
+    }
+  }
+
+  /*
+   * Deletes the staging folders left by the exports that didn't end, for
+   * example because the application was killed. Only the folders not modified
+   * in the last day are deleted, in case another instance of the application
+   * is exporting SIPs.
+   */
+  private static void deleteOldStaging(Path root) {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+      for (Path staging : stream) {
+        if (System.currentTimeMillis() - Files.getLastModifiedTime(staging).toMillis() > STAGING_MAX_AGE) {
+          FileUtils.deleteQuietly(staging.toFile());
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Error deleting the old staging folders", e);
+    }
+  }
+
+  /**
+   * @return The progress of the SIP being created in the current thread.
+   * @throws IllegalStateException
+   *           If the current thread isn't creating a SIP, since its progress
+   *           and staging folder would be lost.
+   */
+  protected SipProgress getSipProgress() {
+    SipProgress progress = sipProgress.get();
+    if (progress == null) {
+      throw new IllegalStateException("Not creating a SIP in thread " + Thread.currentThread().getName());
+    }
+    return progress;
+  }
+
+  /**
+   * @return Told the bytes read of the files of the SIP being created in the
+   *         current thread, from any thread, or null if the current thread
+   *         isn't creating a SIP.
+   */
+  protected LongConsumer getBytesReadCounter() {
+    SipProgress progress = sipProgress.get();
+    return progress == null ? null : progress::addBytesRead;
+  }
+
+  /**
+   * @param sip
+   *          The SIP
+   * @return The size, in bytes, of the files of the SIP's representations and
+   *         documentation
+   */
+  protected static long getContentSize(Sip sip) {
+    long result = 0;
+    if (sip instanceof SipPreview) {
+      for (SipRepresentation representation : ((SipPreview) sip).getRepresentations()) {
+        for (TreeNode tn : representation.getFiles()) {
+          result += getContentSize(tn);
+        }
+      }
+      for (TreeNode tn : ((SipPreview) sip).getDocumentation()) {
+        result += getContentSize(tn);
+      }
+    }
+    return result;
+  }
+
+  private static long getContentSize(TreeNode tn) {
+    if (!tn.isDirectory()) {
+      return tn.getSize();
+    }
+    long result = 0;
+    for (TreeNode child : tn.getChildren().values()) {
+      result += getContentSize(child);
+    }
+    return result;
+  }
+
+  private static int getParallelism() {
+    int parallelism = Math.min(MAX_DEFAULT_PARALLELISM, Runtime.getRuntime().availableProcessors());
+    String configured = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_SIP_CREATION_PARALLELISM);
+    if (configured != null && !configured.trim().isEmpty()) {
+      try {
+        parallelism = Math.max(1, Integer.parseInt(configured.trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid SIP creation parallelism '{}', using {}", configured, parallelism);
+      }
+    }
+    return parallelism;
   }
 
   protected void deleteDirectory(Path dir) {
@@ -203,20 +540,168 @@ public abstract class SimpleSipCreator extends Thread {
   }
 
   /**
-   * @return The time remaining estimate of the SIP creator.
+   * Estimates the time needed to create the remaining SIPs, from the bytes of
+   * their files and the throughput of the SIPs created so far.
+   *
+   * @return The time remaining estimate of the SIP creator, in milliseconds, or
+   *         -1 if it can't be estimated yet.
+   */
+  public synchronized double getTimeRemainingEstimate() {
+    return getTimeRemainingEstimate(getTransferedSize(), Instant.now());
+  }
+
+  /*
+   * Estimates the remaining time from the bytes processed at an instant.
+   */
+  synchronized double getTimeRemainingEstimate(long transfered, Instant now) {
+    sampleThroughput(transfered, now);
+    if (throughput <= 0) {
+      return -1;
+    }
+    return Math.max(0, allSipsSize - transfered) / throughput;
+  }
+
+  /**
+   * @return The smoothed throughput of the SIP creation, in bytes per second,
+   *         or -1 if it can't be computed yet.
+   */
+  public synchronized double getThroughput() {
+    sampleThroughput(getTransferedSize(), Instant.now());
+    return throughput < 0 ? -1 : throughput * 1000;
+  }
+
+  /*
+   * Updates the exponentially weighted moving average of the throughput, at
+   * most once per sample time, with the bytes processed at an instant.
+   */
+  private void sampleThroughput(long transfered, Instant now) {
+    if (lastInstant == null) {
+      lastInstant = now;
+      lastTransferedSize = transfered;
+      return;
+    }
+    long elapsed = Duration.between(lastInstant, now).toMillis();
+    if (elapsed >= THROUGHPUT_SAMPLE_TIME) {
+      double sample = (double) (transfered - lastTransferedSize) / elapsed;
+      if (throughput < 0) {
+        // nothing is known before the first bytes are processed
+        throughput = transfered > 0 ? sample : -1;
+      } else {
+        throughput = THROUGHPUT_WEIGHT * sample + (1 - THROUGHPUT_WEIGHT) * throughput;
+      }
+      lastInstant = now;
+      lastTransferedSize = transfered;
+    }
+  }
+
+  /**
+   * @return The bytes of the files of the SIPs already created, plus the bytes
+   *         already read and written of the SIPs being created.
    */
-  public double getTimeRemainingEstimate() {
-    return -1;
+  public long getTransferedSize() {
+    long result = transferedSize.sum();
+    for (SipProgress progress : running) {
+      result += progress.getTransferedSize();
+    }
+    return Math.min(result, allSipsSize);
   }
 
   public void createReport(Map<Path, Object> sips) {
-    InventoryReportCreator reportCreator = new InventoryReportCreator(outputPath);
+    InventoryReportCreator reportCreator = new InventoryReportCreator(outputPath, startedTime);
     reportCreator.start(sips);
+    deleteStaging();
   }
 
+  /**
+   * @param sip
+   *          The SIP
+   * @param sipNameBuilder
+   *          The builder of the names of the SIPs
+   * @return The name given to the SIP before the workers started, or a new
+   *         name if the SIP isn't one of the previews.
+   */
   public String createSipName(Sip sip, SIPNameBuilder sipNameBuilder) {
-    String name = sipNameBuilder.build(sip);
-    return Controller.encodeId(name);
+    String name = sipNames.get(sip);
+    return name != null ? name : buildSipName(sip, sipNameBuilder);
+  }
+
+  private static String buildSipName(Sip sip, SIPNameBuilder sipNameBuilder) {
+    // the builders may keep a serial number
+    synchronized (sipNameBuilder) {
+      return Controller.encodeId(sipNameBuilder.build(sip));
+    }
   }
 
+  /**
+   * The progress of the SIP being created by a worker thread.
+   * <p/>
+   * <p>
+   * The bytes of the SIP's files read by the creator itself, like when their
+   * checksums are computed, are counted as they're read. The SIP builders only
+   * report how many files they processed, so when the creator doesn't read the
+   * files, the bytes read are estimated from the size of the SIP and the
+   * fraction of its files already read (when the representations are
+   * processed). The bytes written are estimated the same way from the fraction
+   * of its files written (when the SIP is packaged).
+   * </p>
+   */
+  protected static final class SipProgress {
+    protected final long size;
+    protected int filesAdded;
+    protected int filesCount;
+    protected int representationSize;
+    protected int representationsCount;
+    protected int representationsProcessed;
+    protected int zipFilesCount;
+    // the fraction of the SIP's files already packaged
+    protected volatile float packaged;
+    // the fractions of the SIP's bytes already read and written
+    protected volatile float read;
+    protected volatile float written;
+    // the bytes of the SIP's files read by the creator itself
+    protected final LongAdder bytesRead = new LongAdder();
+    // the folder of the files generated for the SIP
+    protected Path staging;
+    // shown while the SIP is the oldest being created
+    protected volatile String sipName;
+    protected volatile String action;
+
+    SipProgress(long size) {
+      this.size = size;
+    }
+
+    /**
+     * @param current
+     *          The number of files of the current representation already
+     *          processed.
+     */
+    protected void setRepresentationProcessed(int current) {
+      if (representationsCount > 0 && representationSize > 0) {
+        read = (representationsProcessed + (float) current / representationSize) / representationsCount;
+      }
+    }
+
+    /**
+     * @param current
+     *          The number of files already packaged.
+     */
+    protected void setPackaged(int current) {
+      packaged = ((float) current) / zipFilesCount;
+      written = Math.max(written, packaged);
+    }
+
+    /**
+     * @param bytes
+     *          The bytes of the SIP's files just read by the creator.
+     */
+    protected void addBytesRead(long bytes) {
+      bytesRead.add(bytes);
+    }
+
+    long getTransferedSize() {
+      long counted = bytesRead.sum();
+      float readFraction = counted > 0 ? Math.min(1, (float) counted / size) : read;
+      return (long) (size * Math.min(1, (readFraction + written) / 2));
+    }
+  }
 }
@@ -1,11 +1,8 @@
 package org.roda.rodain.core.creation;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,26 +51,6 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(SipCreator.class.getName());
 
-  /**
-   * Number of files in ZIP.
-   */
-  private int countFilesOfZip;
-
-  /**
-   * Number of SIP's added.
-   */
-  private int currentSIPadded = 0;
-
-  /**
-   * Size of current SIP.
-   */
-  private int currentSIPsize = 0;
-
-  /**
-   * Size of representations processing.
-   */
-  private int repProcessingSize;
-
   /**
    * {@link SIPNameBuilder}.
    */
@@ -136,24 +113,14 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
    */
   @Override
   public void run() {
-    final Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-      final Pair pathSIP = createEarkSip(preview);
-      if (pathSIP != null) {
-        sips.put((Path) pathSIP.getKey(), (SIP) pathSIP.getValue());
-      }
-    }
+    final Map<Path, Object> sips = createSips(sipNameBuilder, this::createEarkSip);
     if (createReport) {
       createReport(sips);
     }
-    currentAction = I18n.t(Constants.I18N_DONE);
+    setCurrentAction(I18n.t(Constants.I18N_DONE));
   }
 
   protected Pair createEarkSip(final Sip descriptionObject) {
-    final Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
     try {
       final org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
         ? ((SipPreview) descriptionObject).getContentType()
@@ -174,9 +141,8 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
         earkSip.setStatus(IPEnums.IPStatus.NEW);
       }
 
-      currentSipProgress = 0;
-      currentSipName = descriptionObject.getTitle();
-      currentAction = actionCopyingMetadata;
+      setCurrentSipName(descriptionObject.getTitle());
+      setCurrentAction(actionCopyingMetadata);
 
       for (DescriptiveMetadata descObjMetadata : descriptionObject.getMetadata()) {
         MetadataType metadataType = new MetadataType(MetadataType.MetadataTypeEnum.OTHER);
@@ -209,7 +175,7 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
           final String content = descriptionObject.getMetadataWithReplaces(descObjMetadata);
           metadataPath = descObjMetadata.getPath();
           if (metadataPath == null) {
-            metadataPath = tempDir.resolve(descObjMetadata.getId());
+            metadataPath = getStagingFolder().resolve(descObjMetadata.getId());
           }
           FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
         }
@@ -221,7 +187,7 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
         earkSip.addDescriptiveMetadata(metadata);
       }
 
-      currentAction = actionCopyingData;
+      setCurrentAction(actionCopyingData);
       if (descriptionObject instanceof SipPreview) {
         final SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -229,15 +195,16 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
           setContentTypeAndContentInformationType(earkSip, rep, sr);
 
           final Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          getSipProgress().filesAdded = 0;
+          getSipProgress().filesCount = 0;
 
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            getSipProgress().filesCount += tn.getFullTreePaths().size();
           }
 
           // add files to representation
+          prepareRepresentationFiles(files);
           for (TreeNode tn : files) {
             addFileToRepresentation(tn, new ArrayList<>(), rep);
           }
@@ -245,7 +212,7 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
           earkSip.addRepresentation(rep);
         }
 
-        currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
+        setCurrentAction(I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION));
         final Set<TreeNode> docs = sip.getDocumentation();
         for (TreeNode tn : docs) {
           addDocToSip(tn, new ArrayList<>(), earkSip);
@@ -258,12 +225,12 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
       earkSip.addAgent(new IPAgent(sipAgentName, "CREATOR", null, METSEnums.CreatorType.INDIVIDUAL, null, sipAgentID,
         IPAgentNoteTypeEnum.IDENTIFICATIONCODE));
 
-      currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
+      setCurrentAction(I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP));
       WriteStrategy writeStrategy = SIPBuilderUtils.getWriteStrategy(WriteStrategyEnum.ZIP, outputPath);
       final Path sipPath = earkSip.build(writeStrategy, createSipName(descriptionObject, sipNameBuilder),
         sipNameBuilder instanceof SIPNameBuilderSIPS ? IPEnums.SipType.EARK2S : IPEnums.SipType.EARK2);
 
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(sipPath, earkSip);
     } catch (final InterruptedException e) {
       canceled = true;
@@ -294,10 +261,25 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
     // 20191028 hsilva: see requiresMETSHeaderInfo()
   }
 
+  /**
+   * Called before the files of a representation are added, so they can be
+   * processed all at once.
+   *
+   * @param files
+   *          the files of the representation.
+   * @throws IOException
+   *           if the files can't be read.
+   * @throws InterruptedException
+   *           if the SIP creation is canceled.
+   */
+  protected void prepareRepresentationFiles(final Set<TreeNode> files) throws IOException, InterruptedException {
+    // do nothing
+  }
+
   protected abstract void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep);
 
   protected void addDocToSip(final TreeNode tn, final List<String> relativePath, final SIP earkSip) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
       // add this directory to the path list
       final List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
@@ -314,23 +296,25 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
 
   @Override
   public void sipBuildRepresentationsProcessingStarted(final int i) {
-    // do nothing
+    getSipProgress().representationsCount = i;
+    getSipProgress().representationsProcessed = 0;
   }
 
   @Override
   public void sipBuildRepresentationProcessingStarted(final int size) {
-    repProcessingSize = size;
+    getSipProgress().representationSize = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(final int i) {
     final String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    setCurrentAction(String.format(format, i, getSipProgress().representationSize));
+    getSipProgress().setRepresentationProcessed(i);
   }
 
   @Override
   public void sipBuildRepresentationProcessingEnded() {
-    // do nothing
+    getSipProgress().representationsProcessed++;
   }
 
   @Override
@@ -340,53 +324,52 @@ public abstract class SipCreator extends SimpleSipCreator implements SIPObserver
 
   @Override
   public void sipBuildPackagingStarted(final int current) {
-    countFilesOfZip = current;
+    getSipProgress().zipFilesCount = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(final int current) {
     final String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    currentAction = String.format(format, current, countFilesOfZip);
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    setCurrentAction(String.format(format, current, getSipProgress().zipFilesCount));
+    getSipProgress().setPackaged(current);
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    setCurrentAction(actionFinalizingSip);
+    getSipProgress().packaged = 0;
   }
 
   public int getCountFilesOfZip() {
-    return countFilesOfZip;
+    return getSipProgress().zipFilesCount;
   }
 
   public void setCountFilesOfZip(final int countFilesOfZip) {
-    this.countFilesOfZip = countFilesOfZip;
+    getSipProgress().zipFilesCount = countFilesOfZip;
   }
 
   public int getCurrentSIPadded() {
-    return currentSIPadded;
+    return getSipProgress().filesAdded;
   }
 
   public void setCurrentSIPadded(final int currentSIPadded) {
-    this.currentSIPadded = currentSIPadded;
+    getSipProgress().filesAdded = currentSIPadded;
   }
 
   public int getCurrentSIPsize() {
-    return currentSIPsize;
+    return getSipProgress().filesCount;
   }
 
   public void setCurrentSIPsize(final int currentSIPsize) {
-    this.currentSIPsize = currentSIPsize;
+    getSipProgress().filesCount = currentSIPsize;
   }
 
   public int getRepProcessingSize() {
-    return repProcessingSize;
+    return getSipProgress().representationSize;
   }
 
   public void setRepProcessingSize(final int repProcessingSize) {
-    this.repProcessingSize = repProcessingSize;
+    getSipProgress().representationSize = repProcessingSize;
   }
 
   public SIPNameBuilder getSipNameBuilder() {
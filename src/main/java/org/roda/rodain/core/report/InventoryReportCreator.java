@@ -4,6 +4,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -15,6 +16,7 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.io.IOUtils;
 import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.source.ChecksumCache;
 import org.roda_project.commons_ip.model.SIP;
 import org.roda_project.commons_ip.utils.METSZipEntryInfo;
 import org.roda_project.commons_ip.utils.ZipEntryInfo;
@@ -40,11 +42,24 @@ public class InventoryReportCreator {
   private static final String CSV_FIELD_SIP_ID = "SIP ID";
 
   private Path outputPath;
+  private long started = Long.MIN_VALUE;
 
   public InventoryReportCreator(Path outputPath) {
     this.outputPath = outputPath;
   }
 
+  /**
+   * @param outputPath
+   *          The path of the output folder of the report.
+   * @param started
+   *          The time when the SIP creation started. The checksums of the files
+   *          not modified since then are added to the {@link ChecksumCache}.
+   */
+  public InventoryReportCreator(Path outputPath, long started) {
+    this.outputPath = outputPath;
+    this.started = started;
+  }
+
   public void start(Map<Path, Object> sips) {
     CSVPrinter csvFilePrinter = null;
     CSVFormat csvFileFormat = CSVFormat.DEFAULT.withRecordSeparator(System.lineSeparator());
@@ -100,16 +115,16 @@ public class InventoryReportCreator {
       if (!(entry instanceof METSZipEntryInfo)) {
         try {
           List<String> line = new ArrayList<String>();
-          // FIXME 20170310 hsilva: the following will fail for temp. files that
-          // were most certainly deleted before getting to this point of sip
-          // generation
-          Long size = Files.size(entry.getFilePath());
+          // the generated files, like the metadata, are kept in the staging
+          // folders of the SIPs until the report is created
+          BasicFileAttributes attrs = Files.readAttributes(entry.getFilePath(), BasicFileAttributes.class);
+          String checksum = getChecksum(entry, attrs);
           line.add(path.getFileName().toString());
           line.add(entry.getName());
           line.add(entry.getFilePath().toString());
           line.add(entry.getChecksumAlgorithm());
-          line.add(entry.getChecksum());
-          line.add(Long.toString(size));
+          line.add(checksum);
+          line.add(Long.toString(attrs.size()));
           lines.add(line);
         } catch (IOException e) {
           LOGGER.debug("Error calculating file size", e);
@@ -119,6 +134,27 @@ public class InventoryReportCreator {
     return lines;
   }
 
+  /*
+   * Uses the cached checksum when the packaging didn't compute one, and caches
+   * the one it computed when the file didn't change since the SIP creation
+   * started, which leaves out the generated files.
+   */
+  private String getChecksum(ZipEntryInfo entry, BasicFileAttributes attrs) {
+    String checksum = entry.getChecksum();
+    String algorithm = entry.getChecksumAlgorithm();
+    if (algorithm == null) {
+      return checksum;
+    }
+    if (checksum == null || checksum.isEmpty()) {
+      String cached = ChecksumCache.get(entry.getFilePath(), attrs, algorithm);
+      return cached != null ? cached : checksum;
+    }
+    if (attrs.lastModifiedTime().toMillis() < started) {
+      ChecksumCache.put(entry.getFilePath(), attrs, algorithm, checksum);
+    }
+    return checksum;
+  }
+
   private List<List<String>> bagToCSVLines(Path path) throws MaliciousPathException, UnparsableVersionException,
     UnsupportedAlgorithmException, InvalidBagitFileFormatException, IOException {
 
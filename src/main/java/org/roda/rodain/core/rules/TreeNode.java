@@ -1,15 +1,20 @@
 package org.roda.rodain.core.rules;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
 
+import org.roda.rodain.core.PathRegistry;
+
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 05-10-2015.
@@ -18,10 +23,37 @@ import java.util.Set;
  *        Used in the Handlers to make a representation of the documents tree in
  *        a SIP
  *        </p>
+ *        <p>
+ *        The node and its children are identified by the ids of their paths in
+ *        the {@link PathRegistry}, the paths are only built when requested.
+ *        Each node keeps its path in the registry until it's released with
+ *        {@link #release()}, when its tree is dropped.
+ *        </p>
+ *        <p>
+ *        The node keeps the type, size, modification time and file key of its
+ *        path, usually from the attributes read when the path was walked, so
+ *        the SIP creation doesn't need to access the disk again. When the node
+ *        is created without them, they are read the first time they are
+ *        needed.
+ *        </p>
  */
 public class TreeNode extends Observable {
-  private Path path;
-  private Map<String, TreeNode> files;
+  private static final byte TYPE_UNKNOWN = 0;
+  private static final byte TYPE_FILE = 1;
+  private static final byte TYPE_DIRECTORY = 2;
+  private static final byte TYPE_MISSING = 3;
+
+  private final int id;
+  private Map<Integer, TreeNode> files;
+  // the path of a released node, whose id may already be of another path
+  private volatile Path releasedPath;
+
+  // written before the type, which is volatile, so they are visible to any
+  // thread that sees the type
+  private long size;
+  private long lastModified;
+  private Object fileKey;
+  private volatile byte type = TYPE_UNKNOWN;
 
   /**
    * Creates a new TreeNode object.
@@ -30,22 +62,40 @@ public class TreeNode extends Observable {
    *          The path to be associated to the TreeNode.
    */
   public TreeNode(Path path) {
-    this.path = path;
+    this.id = PathRegistry.acquire(path);
     files = new HashMap<>();
   }
 
+  /**
+   * Creates a new TreeNode object with the attributes read when the path was
+   * walked.
+   *
+   * @param path
+   *          The path to be associated to the TreeNode.
+   * @param attrs
+   *          The attributes of the path, or null if they haven't been read.
+   */
+  public TreeNode(Path path, BasicFileAttributes attrs) {
+    this(path);
+    // links are followed when the attributes are read here, like
+    // Files.isDirectory() did
+    if (attrs != null && !attrs.isSymbolicLink()) {
+      setAttributes(attrs);
+    }
+  }
+
   /**
    * Flattens the TreeNode, i.e., moves all it's child nodes to one level.
    */
   public void flatten() {
-    Map<String, TreeNode> newFiles = new HashMap<>();
-    for (String file : files.keySet()) {
-      if (Files.isDirectory(Paths.get(file))) {
-        files.get(file).flatten(); // flatten the children
-        newFiles.putAll(files.get(file).getOnlyFiles()); // add its files to the
-        // new Map
+    Map<Integer, TreeNode> newFiles = new HashMap<>();
+    for (TreeNode file : files.values()) {
+      if (file.isDirectory()) {
+        file.flatten(); // flatten the children
+        newFiles.putAll(file.getOnlyFiles()); // add its files to the new Map
+        file.releaseNode(); // only its files are kept
       } else
-        newFiles.put(file, files.get(file));
+        newFiles.put(file.id, file);
     }
     files = newFiles;
 
@@ -58,7 +108,7 @@ public class TreeNode extends Observable {
    */
   public Set<String> getFullTreePaths() {
     Set<String> result = new HashSet<>();
-    result.add(path.toString());
+    result.add(getPath().toString());
     for (TreeNode tn : files.values())
       result.addAll(tn.getFullTreePaths());
     return result;
@@ -70,16 +120,36 @@ public class TreeNode extends Observable {
    */
   public Set<Path> getFullTreePathsAsPaths() {
     Set<Path> result = new HashSet<>();
-    result.add(path);
+    result.add(getPath());
     for (TreeNode tn : files.values())
       result.addAll(tn.getFullTreePathsAsPaths());
     return result;
   }
 
+  /**
+   * @return The paths of the nodes under this one whose parent in the tree
+   *         isn't their parent directory, like the paths added to the tree
+   *         from other places or moved up when it was flattened.
+   */
+  public List<Path> getMovedPaths() {
+    List<Path> result = new ArrayList<>();
+    addMovedPaths(result);
+    return result;
+  }
+
+  private void addMovedPaths(List<Path> result) {
+    for (TreeNode tn : files.values()) {
+      if (PathRegistry.getParent(tn.id) != id) {
+        result.add(tn.getPath());
+      }
+      tn.addMovedPaths(result);
+    }
+  }
+
   /**
    * @return The direct children of the TreeNode.
    */
-  public Map<String, TreeNode> getChildren() {
+  public Map<Integer, TreeNode> getChildren() {
     return files;
   }
 
@@ -87,11 +157,11 @@ public class TreeNode extends Observable {
    * @return The direct children of the TreeNode that are files (not
    *         directories)
    */
-  public Map<String, TreeNode> getOnlyFiles() {
-    Map<String, TreeNode> result = new HashMap<>();
-    for (String file : files.keySet()) {
-      if (!Files.isDirectory(Paths.get(file))) // add to result if it's a file
-        result.put(file, files.get(file));
+  public Map<Integer, TreeNode> getOnlyFiles() {
+    Map<Integer, TreeNode> result = new HashMap<>();
+    for (TreeNode file : files.values()) {
+      if (!file.isDirectory()) // add to result if it's a file
+        result.put(file.id, file);
     }
     return result;
   }
@@ -106,20 +176,30 @@ public class TreeNode extends Observable {
    * @return a Set of all the paths removed
    */
   public Set<String> ignoreContent(Set<Path> paths) {
+    Set<Integer> ids = new HashSet<>();
+    for (Path p : paths) {
+      ids.add(PathRegistry.findId(p));
+    }
+    return ignoreContentIds(ids);
+  }
+
+  private Set<String> ignoreContentIds(Set<Integer> ids) {
     Set<String> result = new HashSet<>();
-    if (paths.contains(path)) {
+    if (ids.contains(id)) {
       // this item and all its children
       result.addAll(getFullTreePaths());
     } else {
-      Set<Path> toRemove = new HashSet<>();
+      Set<Integer> toRemove = new HashSet<>();
       for (TreeNode tn : files.values()) {
-        result.addAll(tn.ignoreContent(paths));
-        if (paths.contains(tn.path))
-          toRemove.add(tn.path);
+        result.addAll(tn.ignoreContentIds(ids));
+        if (ids.contains(tn.id))
+          toRemove.add(tn.id);
       }
       if (!toRemove.isEmpty()) {
-        for (Path p : toRemove)
-          remove(p);
+        for (Integer removed : toRemove) {
+          files.remove(removed).release();
+        }
+        changed();
       }
     }
     return result;
@@ -131,7 +211,7 @@ public class TreeNode extends Observable {
    * @param map
    *          The map with the new TreeNodes
    */
-  public void addAll(Map<String, TreeNode> map) {
+  public void addAll(Map<Integer, TreeNode> map) {
     files.putAll(map);
     changed();
   }
@@ -143,7 +223,7 @@ public class TreeNode extends Observable {
    *          The new TreeNode to be added
    */
   public void add(TreeNode node) {
-    files.put(node.getPath().toString(), node);
+    files.put(node.id, node);
     changed();
   }
 
@@ -155,7 +235,8 @@ public class TreeNode extends Observable {
    *          added, the method creates a new TreeNode with this path.
    */
   public void add(Path node) {
-    files.put(node.toString(), new TreeNode(node));
+    TreeNode treeNode = new TreeNode(node);
+    files.put(treeNode.id, treeNode);
     changed();
   }
 
@@ -167,8 +248,7 @@ public class TreeNode extends Observable {
    * @return The removed TreeNode
    */
   public TreeNode remove(Path path) {
-    TreeNode result = files.get(path.toString());
-    files.remove(path.toString());
+    TreeNode result = files.remove(PathRegistry.findId(path));
     changed();
     return result;
   }
@@ -177,23 +257,82 @@ public class TreeNode extends Observable {
    * @return The node's path
    */
   public Path getPath() {
-    return path;
+    Path released = releasedPath;
+    return released != null ? released : PathRegistry.getPath(id);
+  }
+
+  /**
+   * Gives back the paths of the node and of all its children to the
+   * {@link PathRegistry}, when the tree is dropped. A released node still
+   * returns its path, but can't be added to another tree.
+   */
+  public void release() {
+    for (TreeNode tn : files.values()) {
+      tn.release();
+    }
+    releaseNode();
+  }
+
+  private synchronized void releaseNode() {
+    if (releasedPath == null) {
+      releasedPath = PathRegistry.getPath(id);
+      PathRegistry.release(id);
+    }
+  }
+
+  /**
+   * @return True if the node's path is a directory, false otherwise or if its
+   *         attributes can't be read.
+   */
+  public boolean isDirectory() {
+    return getType() == TYPE_DIRECTORY;
   }
 
   /**
-   * @return A set of the node's children's paths.
+   * @return The size of the node's path, in bytes.
    */
-  public Set<String> getKeys() {
-    return files.keySet();
+  public long getSize() {
+    getType();
+    return size;
   }
 
   /**
-   * @param key
-   *          The path of the TreeNode we want to get.
-   * @return The TreeNode with the path received as parameter
+   * @return The modification time of the node's path, in milliseconds since
+   *         the epoch.
    */
-  public TreeNode get(String key) {
-    return files.get(key);
+  public long getLastModified() {
+    getType();
+    return lastModified;
+  }
+
+  /**
+   * @return The object that identifies the node's file, or null if the file
+   *         system doesn't have one.
+   * @see BasicFileAttributes#fileKey()
+   */
+  public Object getFileKey() {
+    getType();
+    return fileKey;
+  }
+
+  private byte getType() {
+    byte result = type;
+    if (result == TYPE_UNKNOWN) {
+      try {
+        setAttributes(Files.readAttributes(getPath(), BasicFileAttributes.class));
+      } catch (IOException e) {
+        type = TYPE_MISSING;
+      }
+      result = type;
+    }
+    return result;
+  }
+
+  private void setAttributes(BasicFileAttributes attrs) {
+    size = attrs.size();
+    lastModified = attrs.lastModifiedTime().toMillis();
+    fileKey = attrs.fileKey();
+    type = attrs.isDirectory() ? TYPE_DIRECTORY : TYPE_FILE;
   }
 
   private void changed() {
@@ -1,20 +1,29 @@
 package org.roda.rodain.core.rules.filters;
 
-import java.io.File;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.stream.Stream;
 
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.PathCollection;
+import org.roda.rodain.core.PathRegistry;
 
 /**
+ * The ignored and mapped paths are kept as their ids in the
+ * {@link PathRegistry}, so checking the ancestors of a path only follows the
+ * parent ids. The paths are kept in the registry until the filter is released
+ * with {@link #release()}.
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 20-10-2015.
  */
 public class ContentFilter {
-  private HashSet<String> ignored;
-  private HashSet<String> mapped;
+  private HashSet<Integer> ignored;
+  private HashSet<Integer> mapped;
+  private volatile int[] listed = new int[0];
 
   /**
    * Creates a new ContentFilter object
@@ -31,7 +40,8 @@ public class ContentFilter {
    *          The path to be added to the ignored paths list.
    */
   public void addIgnored(String st) {
-    ignored.add(st);
+    add(ignored, st);
+    updateListed();
   }
 
   /**
@@ -41,7 +51,10 @@ public class ContentFilter {
    *          The collection of paths to be added to the ignored paths list.
    */
   public void addAllIgnored(Collection col) {
-    ignored.addAll(col);
+    for (Object st : col) {
+      add(ignored, st.toString());
+    }
+    updateListed();
   }
 
   /**
@@ -51,7 +64,8 @@ public class ContentFilter {
    *          The path to be added to the mapped paths list.
    */
   public void addMapped(String st) {
-    mapped.add(st);
+    add(mapped, st);
+    updateListed();
   }
 
   /**
@@ -61,7 +75,26 @@ public class ContentFilter {
    *          The collection of paths to be added to the mapped paths list.
    */
   public void addAllMapped(Collection col) {
-    mapped.addAll(col);
+    for (Object st : col) {
+      add(mapped, st.toString());
+    }
+    updateListed();
+  }
+
+  /**
+   * Empties the ignored and mapped path lists and gives back their paths to the
+   * {@link PathRegistry}, when the filter is no longer used.
+   */
+  public void release() {
+    for (int id : ignored) {
+      PathRegistry.release(id);
+    }
+    for (int id : mapped) {
+      PathRegistry.release(id);
+    }
+    ignored.clear();
+    mapped.clear();
+    updateListed();
   }
 
   /**
@@ -70,6 +103,7 @@ public class ContentFilter {
    * <p/>
    * <p>
    * Additionally, checks if any ancestor of the path is in one of the lists.
+   * The string is checked as is, without building a path from it.
    * </p>
    *
    * @param path
@@ -77,37 +111,65 @@ public class ContentFilter {
    * @return True if the path or any of its ancestors is in any of the lists, or
    *         if the state of the path in the PathCollection isn't NORMAL, false
    *         otherwise.
+   * @see #filter(Path)
    */
   public boolean filter(String path) {
-    boolean result = false;
-    if (ignored.contains(path) || mapped.contains(path)
-      || PathCollection.getState(Paths.get(path)) != PathState.NORMAL
-      || IgnoredFilter.isIgnored(Paths.get(path))) {
-      result = true;
-    } else if (path.startsWith("\\\\")) {
-      //for UNC paths iterations throw the subs will bring an exception
-      return false;
-    } else {
-      int index = 0, end = path.length(), fromIndex = 0;
-      String separator = File.separator;
+    return isInLists(path) || PathCollection.getState(path) != PathState.NORMAL || IgnoredFilter.isIgnored(path);
+  }
 
-      while (index < end && !result) { // while we still have string to read and
-        // haven't found a matching path
-        index = path.indexOf(separator, fromIndex); // get the path until the
-        // slash we're checking
-        if (index == -1) {
-          break;
-        } else {
-          String sub = path.substring(0, index);
-          fromIndex = index + 1; // move the starting index for the next
-          // iteration so it's after the slash
-          if (ignored.contains(sub) || mapped.contains(sub) || IgnoredFilter.isIgnored(Paths.get(sub))) {
-            result = true;
-          }
-        }
+  /**
+   * Checks the ignored and mapped path lists and the PathCollection to
+   * determine if the path should be filtered.
+   * <p/>
+   * <p>
+   * The ancestors of the path are checked by following their ids in the
+   * {@link PathRegistry}, without building their paths. The ignore rules are
+   * applied to every name in the path, so they also cover the ancestors.
+   * </p>
+   *
+   * @param path
+   *          The path to be filtered
+   * @return True if the path or any of its ancestors is in any of the lists, or
+   *         if the state of the path in the PathCollection isn't NORMAL, false
+   *         otherwise.
+   */
+  public boolean filter(Path path) {
+    return isInLists(path.toString()) || PathCollection.getState(path) != PathState.NORMAL
+      || IgnoredFilter.isIgnored(path);
+  }
+
+  /*
+   * True if the path or any of its ancestors is in the ignored or mapped lists.
+   * Only the paths in the registry can be in the lists, so the check starts in
+   * the deepest of them.
+   */
+  private boolean isInLists(String path) {
+    int[] ids = listed;
+    if (ids.length == 0) {
+      return false;
+    }
+    for (int id = PathRegistry.findClosestId(path); id != PathRegistry.ROOT; id = PathRegistry.getParent(id)) {
+      if (Arrays.binarySearch(ids, id) >= 0) {
+        return true;
       }
     }
-    return result;
+    return false;
+  }
+
+  private static void add(HashSet<Integer> list, String path) {
+    int id = PathRegistry.acquire(Paths.get(path));
+    if (!list.add(id)) {
+      // already kept by the list
+      PathRegistry.release(id);
+    }
   }
 
+  /*
+   * Both lists have the same effect on the filter, so they're merged in a sorted
+   * array that can be searched without boxing the ids.
+   */
+  private void updateListed() {
+    listed = Stream.concat(ignored.stream(), mapped.stream()).mapToInt(Integer::intValue).sorted().distinct()
+      .toArray();
+  }
 }
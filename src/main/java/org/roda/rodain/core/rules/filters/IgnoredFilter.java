@@ -1,28 +1,58 @@
 package org.roda.rodain.core.rules.filters;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
+import org.roda.rodain.core.source.SourceMetadataCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Filters the files and directories whose names match one of the ignore rules
+ * in the configuration of the application.
+ * <p/>
+ * <p>
+ * The rules are regular expressions, but most of them are a file name (e.g.
+ * "Thumbs\.db"), an extension (e.g. ".*\.tmp") or a prefix (e.g.
+ * "\..*"). Those are matched with hash and string lookups, and all the other
+ * rules are compiled into a single pattern. The verdicts of that pattern are
+ * kept for the most recently matched names, in a table indexed by the hash of
+ * the name, so a name already matched is found in the path without building
+ * it.
+ * </p>
+ * <p>
+ * The names of a path are matched in place, in its string, so checking a path
+ * doesn't allocate anything. Whether a directory has a file that isn't ignored
+ * is taken from the {@link ValidFilesIndex} and the
+ * {@link SourceMetadataCache}, and only when neither knows it is the first
+ * entry of the directory read from the disk.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 04-01-2016.
  */
 public class IgnoredFilter {
   private static final Logger LOGGER = LoggerFactory.getLogger(IgnoredFilter.class.getName());
+  private static final int DEFAULT_CACHE_SIZE = 10000;
+  private static final String REGEX_ANY = ".*";
+  private static final String REGEX_METACHARACTERS = ".[]{}()*+?^$|";
 
   private static Set<String> rules = new HashSet<>();
-  private static Map<String, Pattern> rulesPatterns = new HashMap<>();
+  private static int cacheSize = DEFAULT_CACHE_SIZE;
+  private static volatile CompiledRules compiledRules = new CompiledRules(rules, cacheSize);
 
   private IgnoredFilter() {
   }
@@ -33,12 +63,34 @@ public class IgnoredFilter {
    * @param rule
    *          The new ignore rule.
    */
-  public static void addIgnoreRule(String rule) {
+  public static synchronized void addIgnoreRule(String rule) {
+    // fail on invalid rules, like when each rule had its own pattern
+    Pattern.compile(rule);
     if (rules.add(rule)) {
-      rulesPatterns.put(rule, Pattern.compile(rule));
+      compiledRules = new CompiledRules(rules, cacheSize);
+      ValidFilesIndex.rebuild();
     }
   }
 
+  /**
+   * @return True if there's at least one ignore rule, false otherwise.
+   */
+  public static boolean hasRules() {
+    return !compiledRules.isEmpty();
+  }
+
+  /**
+   * Sets how many names have their verdict kept in memory, for the rules that
+   * need a regular expression. It's rounded up to a power of two.
+   *
+   * @param size
+   *          The maximum number of names.
+   */
+  public static synchronized void setCacheSize(int size) {
+    cacheSize = size;
+    compiledRules = new CompiledRules(rules, cacheSize);
+  }
+
   /**
    * Checks if the file/directory matches one of the configured filters
    * 
@@ -47,21 +99,40 @@ public class IgnoredFilter {
    * @return True if the path matches one filter, false otherwise
    */
   public static boolean isIgnored(Path path) {
-    boolean result = false;
-    if (!rules.isEmpty()) {
-      int i = path.getNameCount() - 1;
-      for (; i >= 0; i--) {
-        if (isIgnored(path.getName(i).toString())) {
-          result = true;
-          break;
-        }
-      }
+    return isIgnored(path, null);
+  }
 
-      if (!result) {
-        result = !containsAtLeastOneNotIgnoredFile(path);
-      }
+  /**
+   * Checks if the file/directory matches one of the configured filters
+   *
+   * @param path
+   *          The path to be filtered
+   * @param attrs
+   *          The attributes of the path, when they were already read, or null
+   * @return True if the path matches one filter, false otherwise
+   */
+  public static boolean isIgnored(Path path, BasicFileAttributes attrs) {
+    CompiledRules rules = compiledRules;
+    if (rules.isEmpty()) {
+      return false;
     }
-    return result;
+    String value = path.toString();
+    return hasIgnoredName(rules, value) || !containsAtLeastOneNotIgnoredFile(value, attrs);
+  }
+
+  /**
+   * Checks if the file/directory matches one of the configured filters.
+   *
+   * @param path
+   *          The path to be filtered
+   * @return True if the path matches one filter, false otherwise
+   */
+  public static boolean isIgnored(String path) {
+    CompiledRules rules = compiledRules;
+    if (rules.isEmpty()) {
+      return false;
+    }
+    return hasIgnoredName(rules, path) || !containsAtLeastOneNotIgnoredFile(path, null);
   }
 
   /**
@@ -72,62 +143,244 @@ public class IgnoredFilter {
    *          The value to be filtered
    * @return True if the value is ignored, false otherwise.
    */
-  private static boolean isIgnored(String value) {
-    boolean result = false;
-    for (String rule : rules) {
-      Pattern p = rulesPatterns.get(rule);
-      Matcher m = p.matcher(value);
-      if (m.matches()) {
-        result = true;
-        break;
-      }
-    }
+  static boolean isIgnoredName(String value) {
+    return compiledRules.matches(value, 0, value.length());
+  }
 
-    return result;
+  /**
+   * Checks if the file name of a path has been ignored by a rule set in the
+   * configuration file of the application, without building the name.
+   *
+   * @param path
+   *          The path whose file name is filtered
+   * @return True if the file name is ignored, false otherwise.
+   */
+  static boolean isIgnoredFileName(Path path) {
+    String value = path.toString();
+    int start = value.lastIndexOf(File.separatorChar) + 1;
+    return start < value.length() && compiledRules.matches(value, Math.max(start, rootLength(value)), value.length());
   }
 
   /**
-   * 
+   * Uses the verdict of {@link ValidFilesIndex} when the directory has been
+   * indexed. Otherwise, like before the index, only an empty directory doesn't
+   * have a valid file, which is taken from its listing in the
+   * {@link SourceMetadataCache} or, when it isn't there, from the disk, reading
+   * at most one entry.
+   *
    * @return true if path is not a directory
-   * @return false if path is an empty directory
+   * @return false if path is an empty directory or a directory with only
+   *         ignored files
    */
   public static boolean containsAtLeastOneNotIgnoredFile(Path path) {
-    boolean res = true;
-    if (Files.isDirectory(path)) {
-      try {
-        if (isDirectoryEmpty(path)) {
-          res = false;
-        } else {
-          // FIXME 20170309 hsilva: the following is very expensive to use
-          // ValidFilesCounter visitor = new ValidFilesCounter();
-          // Files.walkFileTree(path, visitor);
-          // int validFiles = visitor.getValidFiles();
-          // if (validFiles == 0) {
-          // res = false;
-          // }
+    return containsAtLeastOneNotIgnoredFile(path.toString(), null);
+  }
+
+  private static boolean containsAtLeastOneNotIgnoredFile(String value, BasicFileAttributes attrs) {
+    if (attrs != null && !attrs.isDirectory()) {
+      return true;
+    }
+    ValidFilesIndex.Verdict verdict = ValidFilesIndex.getVerdict(value);
+    if (verdict != ValidFilesIndex.Verdict.UNKNOWN) {
+      return verdict == ValidFilesIndex.Verdict.VALID;
+    }
+    SourceMetadataCache.Listing listing = SourceMetadataCache.peekListing(value);
+    if (listing != null) {
+      return listing.size() > 0;
+    }
+    return !isEmptyDirectory(Paths.get(value), attrs);
+  }
+
+  /*
+   * True if the path is a directory without entries. A directory that can't be
+   * read isn't empty, like in the index.
+   */
+  private static boolean isEmptyDirectory(Path path, BasicFileAttributes attrs) {
+    if (attrs == null && !Files.isDirectory(path)) {
+      return false;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+      return !stream.iterator().hasNext();
+    } catch (IOException | DirectoryIteratorException e) {
+      LOGGER.debug("Error checking if the directory is empty: {}", path, e);
+      return false;
+    }
+  }
+
+  /*
+   * True if one of the names of the path, after its root, matches the rules.
+   * The empty names between consecutive separators are skipped.
+   */
+  private static boolean hasIgnoredName(CompiledRules rules, String path) {
+    int end = path.length();
+    int stop = rootLength(path);
+    while (end > stop) {
+      int start = Math.max(path.lastIndexOf(File.separatorChar, end - 1) + 1, stop);
+      if (start < end && rules.matches(path, start, end)) {
+        return true;
+      }
+      end = start - 1;
+    }
+    return false;
+  }
+
+  /*
+   * The length of a drive letter root, the separators of the other roots are
+   * skipped like empty names.
+   */
+  private static int rootLength(String path) {
+    return path.length() > 1 && path.charAt(1) == ':' ? 2 : 0;
+  }
+
+  /*
+   * The literal the regular expression matches, or null if it isn't a literal.
+   */
+  private static String toLiteral(String regex) {
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        // only escaped symbols are literals, \d, \Q, etc. are not
+        if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          return null;
         }
-      } catch (Exception e) {
-        LOGGER.debug("Error while checking if directory contains at least on valid file: {}", path, e);
+        literal.append(regex.charAt(++i));
+      } else if (REGEX_METACHARACTERS.indexOf(c) != -1) {
+        return null;
+      } else {
+        literal.append(c);
       }
     }
-    return res;
+    return literal.toString();
+  }
+
+  /**
+   * The verdict of the pattern for a name.
+   */
+  private static final class Verdict {
+    private final String name;
+    private final int hash;
+    private final boolean ignored;
+
+    Verdict(String name, int hash, boolean ignored) {
+      this.name = name;
+      this.hash = hash;
+      this.ignored = ignored;
+    }
+
+    boolean isFor(String value, int start, int end, int hash) {
+      int length = end - start;
+      return this.hash == hash && name.length() == length && name.regionMatches(0, value, start, length);
+    }
   }
 
-  private static boolean isDirectoryEmpty(Path path) {
-    boolean isEmpty = true;
-    Stream<Path> list = null;
-    try {
-      list = Files.list(path);
-      if (list.findFirst().isPresent()) {
-        isEmpty = false;
+  /**
+   * The ignore rules split by the way they are matched. Immutable except for
+   * the cache of verdicts, so it's replaced when the rules change.
+   */
+  private static class CompiledRules {
+    private final Set<String> names = new HashSet<>();
+    // the names sorted by hash code, to find a region of a string without
+    // building it
+    private final int[] nameHashes;
+    private final String[] sortedNames;
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<String> suffixes = new ArrayList<>();
+    private final Pattern pattern;
+    private final ThreadLocal<Matcher> matchers;
+    // a verdict per slot, the last one wins; a slot is read and written without
+    // locking, as a verdict is immutable
+    private final Verdict[] verdicts;
+
+    CompiledRules(Set<String> rules, int cacheSize) {
+      StringBuilder combined = new StringBuilder();
+      for (String rule : rules) {
+        String literal = toLiteral(rule);
+        String suffix = rule.startsWith(REGEX_ANY) ? toLiteral(rule.substring(REGEX_ANY.length())) : null;
+        String prefix = rule.endsWith(REGEX_ANY) ? toLiteral(rule.substring(0, rule.length() - REGEX_ANY.length()))
+          : null;
+        if (literal != null) {
+          names.add(literal);
+        } else if (suffix != null) {
+          suffixes.add(suffix);
+        } else if (prefix != null) {
+          prefixes.add(prefix);
+        } else {
+          if (combined.length() > 0) {
+            combined.append('|');
+          }
+          combined.append("(?:").append(rule).append(')');
+        }
+      }
+      sortedNames = names.toArray(new String[0]);
+      Arrays.sort(sortedNames, (a, b) -> Integer.compare(a.hashCode(), b.hashCode()));
+      nameHashes = new int[sortedNames.length];
+      for (int i = 0; i < sortedNames.length; i++) {
+        nameHashes[i] = sortedNames[i].hashCode();
+      }
+      pattern = combined.length() > 0 ? Pattern.compile(combined.toString()) : null;
+      matchers = ThreadLocal.withInitial(() -> pattern == null ? null : pattern.matcher(""));
+      int slots = 1;
+      while (slots < cacheSize && slots < 1 << 30) {
+        slots <<= 1;
+      }
+      verdicts = new Verdict[pattern == null || cacheSize <= 0 ? 0 : slots];
+    }
+
+    boolean isEmpty() {
+      return names.isEmpty() && prefixes.isEmpty() && suffixes.isEmpty() && pattern == null;
+    }
+
+    /*
+     * Matches the region of the string like a name on its own. The verdicts of
+     * the pattern are found by the hash of the region, and the name is only
+     * built when the pattern is matched. Each thread reuses its matcher.
+     */
+    boolean matches(String value, int start, int end) {
+      int length = end - start;
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + value.charAt(i);
+      }
+      int found = Arrays.binarySearch(nameHashes, hash);
+      if (found >= 0) {
+        // the names with the same hash are next to each other
+        while (found > 0 && nameHashes[found - 1] == hash) {
+          found--;
+        }
+        for (int i = found; i < nameHashes.length && nameHashes[i] == hash; i++) {
+          if (sortedNames[i].length() == length && sortedNames[i].regionMatches(0, value, start, length)) {
+            return true;
+          }
+        }
+      }
+      for (String prefix : prefixes) {
+        if (prefix.length() <= length && value.regionMatches(start, prefix, 0, prefix.length())) {
+          return true;
+        }
+      }
+      for (String suffix : suffixes) {
+        if (suffix.length() <= length && value.regionMatches(end - suffix.length(), suffix, 0, suffix.length())) {
+          return true;
+        }
+      }
+      if (pattern == null) {
+        return false;
+      }
+      int slot = verdicts.length == 0 ? -1 : (hash ^ hash >>> 16) & verdicts.length - 1;
+      if (slot >= 0) {
+        Verdict verdict = verdicts[slot];
+        if (verdict != null && verdict.isFor(value, start, end, hash)) {
+          return verdict.ignored;
+        }
       }
-    } catch (IOException e) {
-      // do nothing
-    } finally {
-      if (list != null) {
-        list.close();
+      Matcher matcher = matchers.get();
+      boolean result = matcher.reset(value).region(start, end).matches();
+      matcher.reset("");
+      if (slot >= 0) {
+        verdicts[slot] = new Verdict(value.substring(start, end), hash, result);
       }
+      return result;
     }
-    return isEmpty;
   }
 }
@@ -0,0 +1,380 @@
+package org.roda.rodain.core.rules.filters;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.roda.rodain.core.PathRegistry;
+import org.roda.rodain.core.source.SourceMetadataCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the directories that have at least one file that isn't ignored
+ * somewhere in their subtree.
+ * <p/>
+ * <p>
+ * The directories are indexed in the background with
+ * {@link #indexInBackground(Collection)}, in parallel and bottom-up: a
+ * directory with a valid file of its own is valid without looking further,
+ * otherwise its sub-directories are indexed and it's valid if one of them is.
+ * Each verdict is kept with the modification time of its directory and the ids
+ * of its sub-directories. Indexing a directory again checks its whole subtree,
+ * one stat per directory, and only lists the directories whose modification
+ * time changed, so a file added deep in the subtree of a directory without
+ * valid files is always seen. When a verdict changes, the verdicts of the
+ * ancestors are dropped, since they may depend on it.
+ * </p>
+ * <p>
+ * {@link #getVerdict(Path)} only looks in the index, so it can be called for
+ * every item shown in the UI. A verdict whose subtree wasn't checked for longer
+ * than {@link SourceMetadataCache}'s maximum age is unknown. The index holds a
+ * maximum number of verdicts and drops the least recently checked ones, which
+ * gives back their paths to the {@link PathRegistry}.
+ * </p>
+ */
+public final class ValidFilesIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ValidFilesIndex.class.getName());
+  private static final int MAX_ENTRIES = 100000;
+
+  /**
+   * The verdict of a directory.
+   */
+  public enum Verdict {
+    VALID, NOT_VALID, UNKNOWN
+  }
+
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  private static final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+  private ValidFilesIndex() {
+  }
+
+  /**
+   * Gets the verdict of a directory, without accessing the disk.
+   *
+   * @param path
+   *          The path of the directory.
+   * @return The verdict of the directory, {@link Verdict#UNKNOWN} if it hasn't
+   *         been indexed or its subtree wasn't checked recently.
+   */
+  public static Verdict getVerdict(Path path) {
+    return getVerdict(path.toString());
+  }
+
+  /**
+   * Gets the verdict of a directory, without accessing the disk.
+   *
+   * @param path
+   *          The path of the directory.
+   * @return The verdict of the directory, {@link Verdict#UNKNOWN} if it hasn't
+   *         been indexed or its subtree wasn't checked recently.
+   */
+  public static Verdict getVerdict(String path) {
+    int id = PathRegistry.findId(path);
+    Entry entry = id == PathRegistry.NO_ID ? null : entries.get(id);
+    if (entry == null || System.currentTimeMillis() - entry.checked >= SourceMetadataCache.getMaxAge() * 1000) {
+      return Verdict.UNKNOWN;
+    }
+    return entry.valid ? Verdict.VALID : Verdict.NOT_VALID;
+  }
+
+  /**
+   * Indexes the directories received as parameter, and the sub-directories
+   * needed to get their verdict, in the background.
+   *
+   * @param directories
+   *          The paths of the directories.
+   * @return A future completed when all the directories are indexed.
+   */
+  public static CompletableFuture<Void> indexInBackground(Collection<Path> directories) {
+    return CompletableFuture.runAsync(() -> index(directories), POOL);
+  }
+
+  /**
+   * Indexes the directories received as parameter, and the sub-directories
+   * needed to get their verdict, waiting until all of them are indexed.
+   * <p/>
+   * <p>
+   * This method accesses the disk, so it shouldn't be called in the JavaFX
+   * thread.
+   * </p>
+   *
+   * @param directories
+   *          The paths of the directories.
+   * @see #indexInBackground(Collection)
+   */
+  public static void index(Collection<Path> directories) {
+    if (directories.isEmpty()) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    List<IndexTask> tasks = new ArrayList<>(directories.size());
+    for (Path directory : directories) {
+      tasks.add(new IndexTask(directory));
+    }
+    POOL.invoke(new RecursiveTask<Void>() {
+      @Override
+      protected Void compute() {
+        invokeAll(tasks);
+        return null;
+      }
+    });
+    evict();
+    LOGGER.debug("Indexed {} directories in {} millis", directories.size(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Removes all the verdicts and indexes again, in the background, the
+   * directories whose verdicts were asked, for example when the ignore rules
+   * change. Nothing is indexed when there are no ignore rules.
+   *
+   * @return A future completed when the directories are indexed again.
+   */
+  public static CompletableFuture<Void> rebuild() {
+    List<Path> indexed = new ArrayList<>();
+    for (Integer id : entries.keySet()) {
+      // the sub-directories are indexed with their ancestors
+      if (!entries.containsKey(PathRegistry.getParent(id))) {
+        try {
+          indexed.add(PathRegistry.getPath(id));
+        } catch (IllegalArgumentException e) {
+          // removed from the index in the meantime
+        }
+      }
+    }
+    clear();
+    if (indexed.isEmpty() || !IgnoredFilter.hasRules()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return indexInBackground(indexed);
+  }
+
+  /**
+   * Removes all the verdicts.
+   */
+  public static void clear() {
+    for (Integer id : entries.keySet()) {
+      remove(id);
+    }
+  }
+
+  /*
+   * Adds the verdict of a directory, whose path and sub-directories were
+   * acquired for it.
+   */
+  private static void put(int id, Entry entry) {
+    Entry previous = entries.put(id, entry);
+    if (previous != null) {
+      release(id, previous);
+      if (previous.valid != entry.valid) {
+        removeWithAncestors(PathRegistry.getParent(id));
+      }
+    }
+  }
+
+  private static void removeWithAncestors(int id) {
+    while (id > PathRegistry.ROOT) {
+      // the parent of a removed path is kept, but it's read before it's removed
+      int parent = PathRegistry.getParent(id);
+      remove(id);
+      id = parent;
+    }
+  }
+
+  private static void remove(int id) {
+    Entry removed = entries.remove(id);
+    if (removed != null) {
+      release(id, removed);
+    }
+  }
+
+  private static void release(int id, Entry entry) {
+    for (int subDirectory : entry.subDirectories) {
+      PathRegistry.release(subDirectory);
+    }
+    PathRegistry.release(id);
+  }
+
+  /*
+   * Drops the least recently checked verdicts when the index is full, down to
+   * three quarters of its maximum size.
+   */
+  private static synchronized void evict() {
+    if (entries.size() <= MAX_ENTRIES) {
+      return;
+    }
+    List<Map.Entry<Integer, Entry>> oldest = new ArrayList<>(entries.entrySet());
+    oldest.sort(Comparator.comparingLong(entry -> entry.getValue().checked));
+    int excess = oldest.size() - MAX_ENTRIES * 3 / 4;
+    for (int i = 0; i < excess; i++) {
+      Map.Entry<Integer, Entry> entry = oldest.get(i);
+      if (entries.remove(entry.getKey(), entry.getValue())) {
+        release(entry.getKey(), entry.getValue());
+      }
+    }
+    LOGGER.debug("Dropped {} verdicts from the valid files index", excess);
+  }
+
+  private static final class Entry {
+    private final long modified;
+    private final boolean valid;
+    // valid because of a file of its own, the sub-directories weren't needed
+    private final boolean ownFile;
+    private final int[] subDirectories;
+    // when the subtree was last checked
+    private volatile long checked;
+
+    Entry(long modified, boolean valid, boolean ownFile, int[] subDirectories) {
+      this.modified = modified;
+      this.valid = valid;
+      this.ownFile = ownFile;
+      this.subDirectories = subDirectories;
+      this.checked = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Computes the verdict of a directory, forking a task for each of its
+   * sub-directories when it doesn't have a valid file of its own. The
+   * sub-directories of a directory that didn't change are taken from its
+   * verdict, without listing it.
+   */
+  private static final class IndexTask extends RecursiveTask<Boolean> {
+    private final Path path;
+
+    IndexTask(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    protected Boolean compute() {
+      long modified;
+      try {
+        modified = Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis();
+      } catch (IOException e) {
+        // like before the index existed, a directory that can't be read isn't
+        // ignored
+        return true;
+      }
+      String pathString = path.toString();
+      int id = PathRegistry.findId(pathString);
+      Entry entry = id == PathRegistry.NO_ID ? null : entries.get(id);
+      if (entry != null && (entry.modified != modified || PathRegistry.findId(pathString) != id)) {
+        // the directory changed, or the verdict was dropped and its id reused
+        entry = null;
+      }
+
+      List<IndexTask> subDirectories = new ArrayList<>();
+      boolean ownFile;
+      if (entry != null && (entry.ownFile || addSubTasks(id, entry, subDirectories))) {
+        ownFile = entry.ownFile;
+      } else {
+        entry = null;
+        try {
+          ownFile = readDirectory(subDirectories);
+        } catch (IOException e) {
+          LOGGER.debug("Error indexing the valid files of {}", path, e);
+          return true;
+        }
+      }
+
+      boolean valid = ownFile;
+      if (!ownFile && !subDirectories.isEmpty()) {
+        // all of them are checked, so the whole subtree is confirmed
+        for (IndexTask task : invokeAll(subDirectories)) {
+          if (task.join()) {
+            valid = true;
+          }
+        }
+      }
+
+      if (entry != null && entry.valid == valid) {
+        entry.checked = System.currentTimeMillis();
+      } else {
+        int[] subDirectoryIds = new int[ownFile ? 0 : subDirectories.size()];
+        for (int i = 0; i < subDirectoryIds.length; i++) {
+          subDirectoryIds[i] = PathRegistry.acquire(subDirectories.get(i).path);
+        }
+        put(PathRegistry.acquire(path), new Entry(modified, valid, ownFile, subDirectoryIds));
+      }
+      return valid;
+    }
+
+    /*
+     * Adds the tasks of the sub-directories of the verdict, false if it was
+     * dropped in the meantime and its ids may be of other paths. While the
+     * verdict is in the index, it keeps the ids of its sub-directories.
+     */
+    private boolean addSubTasks(int id, Entry entry, List<IndexTask> subDirectories) {
+      try {
+        for (int subDirectory : entry.subDirectories) {
+          subDirectories.add(new IndexTask(PathRegistry.getPath(subDirectory)));
+        }
+      } catch (IllegalArgumentException e) {
+        // a sub-directory was removed from the registry
+      }
+      if (subDirectories.size() != entry.subDirectories.length || entries.get(id) != entry) {
+        subDirectories.clear();
+        return false;
+      }
+      return true;
+    }
+
+    /*
+     * Adds a task for each sub-directory that isn't ignored, stopping at the
+     * first valid file. A listing already in the cache is used as is.
+     */
+    private boolean readDirectory(List<IndexTask> subDirectories) throws IOException {
+      SourceMetadataCache.Listing listing = SourceMetadataCache.getCachedListing(path);
+      if (listing != null) {
+        for (int i = 0; i < listing.size(); i++) {
+          if (addEntry(listing.getEntries().get(i), listing.getAttributes().get(i), subDirectories)) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+        for (Path child : stream) {
+          // links aren't followed, so they count as files and can't make cycles
+          if (addEntry(child, SourceMetadataCache.readAttributes(child), subDirectories)) {
+            return true;
+          }
+        }
+      } catch (DirectoryIteratorException e) {
+        throw e.getCause();
+      }
+      return false;
+    }
+
+    private boolean addEntry(Path child, BasicFileAttributes attrs, List<IndexTask> subDirectories)
+      throws IOException {
+      if (child.getFileName() == null || IgnoredFilter.isIgnoredFileName(child)) {
+        return false;
+      }
+      if (attrs == null) {
+        throw new IOException("Unable to read the attributes of " + child);
+      }
+      if (attrs.isDirectory()) {
+        subDirectories.add(new IndexTask(child));
+        return false;
+      }
+      return true;
+    }
+  }
+}
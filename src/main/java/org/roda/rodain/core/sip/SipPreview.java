@@ -1,7 +1,6 @@
 package org.roda.rodain.core.sip;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -61,11 +60,7 @@ public class SipPreview extends Sip implements Observer {
     }
 
     // set paths as mapped
-    for (SipRepresentation sr : representations) {
-      for (TreeNode tn : sr.getFiles()) {
-        PathCollection.addPath(tn.getPath(), PathState.MAPPED);
-      }
-    }
+    PathCollection.addAllPaths(getRootPaths(), PathState.MAPPED);
   }
 
   /**
@@ -96,6 +91,7 @@ public class SipPreview extends Sip implements Observer {
       }
       sr.getFiles().removeAll(toRemove);
     }
+    toRemove.forEach(TreeNode::release);
 
     PathCollection.addPaths(ignored, PathState.NORMAL);
   }
@@ -128,34 +124,46 @@ public class SipPreview extends Sip implements Observer {
 
   /**
    * Removes the SIP, setting its content as NORMAL.
+   * <p/>
+   * <p>
+   * Only the roots of the SIP's trees are set as NORMAL, the PathCollection
+   * stops mapping the paths under them, except the roots mapped by other SIPs.
+   * </p>
    */
   public void removeSIP() {
-    float paths = 0, removedPaths = 0;
-    // prepare
+    PathCollection.addAllPaths(getRootPaths(), PathState.NORMAL);
+    releaseContent();
+    setChanged();
+    notifyObservers(1f);
+    removed = true;
+    setChanged();
+    notifyObservers();
+  }
+
+  /**
+   * @return The paths of the roots of the SIP's trees, and of the nodes in them
+   *         that aren't under their parent directories.
+   */
+  public List<Path> getRootPaths() {
+    List<Path> result = new ArrayList<>();
     for (SipRepresentation sr : representations) {
       for (TreeNode tn : sr.getFiles()) {
-        paths += tn.getFullTreePaths().size();
+        result.add(tn.getPath());
+        result.addAll(tn.getMovedPaths());
       }
     }
-    // remove
-    int update = 0;
+    return result;
+  }
+
+  /**
+   * Gives back the paths of the SIP's content and documentation to the
+   * path registry, once the SIP is removed.
+   */
+  public void releaseContent() {
     for (SipRepresentation sr : representations) {
-      for (TreeNode tn : sr.getFiles()) {
-        for (String path : tn.getFullTreePaths()) {
-          PathCollection.addPath(Paths.get(path), PathState.NORMAL);
-          removedPaths++;
-          update++;
-          if (update >= 10) {
-            update = 0;
-            setChanged();
-            notifyObservers(removedPaths / paths);
-          }
-        }
-      }
+      sr.getFiles().forEach(TreeNode::release);
     }
-    removed = true;
-    setChanged();
-    notifyObservers();
+    documentation.forEach(TreeNode::release);
   }
 
   public void removeFromRule() {
@@ -225,5 +233,6 @@ public class SipPreview extends Sip implements Observer {
         toRemove.add(tn);
     }
     documentation.removeAll(toRemove);
+    toRemove.forEach(TreeNode::release);
   }
 }
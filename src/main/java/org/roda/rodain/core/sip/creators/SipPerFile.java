@@ -1,14 +1,9 @@
 package org.roda.rodain.core.sip.creators;
 
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Set;
 
@@ -50,42 +45,27 @@ public class SipPerFile extends SipPreviewCreator {
     super(id, filters, metadataOption, metadataType, metadataPath, templateType, metadataVersion);
   }
 
+  /**
+   * Skips the directories that are mapped or ignored, since none of their
+   * files can be used to create a SIP.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param attrs
+   *          The attributes of the directory.
+   * @return {@link FileVisitResult#SKIP_SUBTREE} if the directory is mapped or
+   *         ignored, {@link FileVisitResult#CONTINUE} otherwise.
+   */
   @Override
-  public void setStartPath(String path) {
-    try {
-      Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-          if (!filter(file))
-            PathCollection.simpleAddPath(file);
-          return isTerminated();
-        }
-
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-          if (!filter(dir))
-            PathCollection.simpleAddPath(dir);
-          return isTerminated();
-        }
-      });
-    } catch (AccessDeniedException e) {
-      LOGGER.info("Access denied to file", e);
-    } catch (IOException e) {
-      LOGGER.error("Error walking the file tree", e);
-    }
-  }
-
-  private FileVisitResult isTerminated() {
-    // terminate if the thread has been interrupted
-    if (Thread.interrupted() || cancelled) {
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    if (cancelled) {
       return FileVisitResult.TERMINATE;
     }
-    return FileVisitResult.CONTINUE;
+    return super.filter(path) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
   }
 
   /**
-   * This method is empty in this class, but it's defined because of the
-   * TreeVisitor interface.
+   * Marks the directory as mapped, after all its files have been visited.
    *
    * @param path
    *          The path of the directory.
@@ -127,7 +107,7 @@ public class SipPerFile extends SipPreviewCreator {
       return;
     }
 
-    TreeNode node = new TreeNode(path);
+    TreeNode node = new TreeNode(path, attrs);
     createSip(path, node);
 
     long now = System.currentTimeMillis();
@@ -1,6 +1,7 @@
 package org.roda.rodain.core.sip.creators;
 
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -68,13 +69,22 @@ public class SipPerSelection extends SipPreviewCreator {
    *          The path of the directory.
    * @param attrs
    *          The attributes of the directory.
+   * @return {@link FileVisitResult#SKIP_SUBTREE} if the directory is mapped or
+   *         ignored, {@link FileVisitResult#CONTINUE} otherwise.
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled)
-      return;
-    TreeNode newNode = new TreeNode(path);
-    nodes.add(newNode);
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    if (cancelled)
+      return FileVisitResult.TERMINATE;
+    // the template glob only applies to the directory's name, its contents
+    // must still be visited
+    if (super.filter(path))
+      return FileVisitResult.SKIP_SUBTREE;
+    if (!filter(path)) {
+      TreeNode newNode = new TreeNode(path, attrs);
+      nodes.add(newNode);
+    }
+    return FileVisitResult.CONTINUE;
   }
 
   /**
@@ -121,12 +131,12 @@ public class SipPerSelection extends SipPreviewCreator {
     if (filter(path) || cancelled)
       return;
     if (selectedPaths.contains(path.toString())) {
-      createSip(path, new TreeNode(path));
+      createSip(path, new TreeNode(path, attrs));
     } else {
       if (nodes.isEmpty()) {
         nodes.add(new TreeNode(path.getParent()));
       }
-      nodes.peekLast().add(path);
+      nodes.peekLast().add(new TreeNode(path, attrs));
     }
   }
 }
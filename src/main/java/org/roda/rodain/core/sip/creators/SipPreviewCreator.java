@@ -13,6 +13,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -59,6 +60,9 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   protected Path metadataPath;
   protected String templateType, metadataVersion;
   private Map<String, Set<Path>> metadata;
+  // the metadata files found in each walked directory, for SAME_DIRECTORY
+  private Map<Path, Set<Path>> sameDirectoryMetadata;
+  private PathMatcher sameDirectoryMatcher;
 
   protected boolean cancelled = false;
 
@@ -91,6 +95,10 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
     this.metadataVersion = metadataVersion;
     files = new HashSet<>();
     metadata = new HashMap<>();
+    sameDirectoryMetadata = new HashMap<>();
+    if (metadataOption == MetadataOption.SAME_DIRECTORY) {
+      sameDirectoryMatcher = FileSystems.getDefault().getPathMatcher(Constants.MISC_GLOB + templateType);
+    }
 
     if (metadataPath != null && metadataOption == MetadataOption.DIFF_DIRECTORY) {
       try {
@@ -147,9 +155,8 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   protected boolean filter(Path path) {
-    String pathString = path.toString();
     for (ContentFilter cf : filters) {
-      if (cf.filter(pathString))
+      if (cf.filter(path))
         return true;
     }
     return false;
@@ -171,17 +178,45 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   /**
-   * Creates a new TreeNode and adds it to the nodes Deque if the path isn't
-   * mapped or ignored.
+   * This method is empty in this class, but it's defined because of the
+   * TreeVisitor interface.
    *
    * @param path
    *          The path of the directory.
    * @param attrs
    *          The attributes of the directory.
+   * @return {@link FileVisitResult#CONTINUE}, to visit the directory's contents.
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    // do nothing
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    return FileVisitResult.CONTINUE;
+  }
+
+  /**
+   * Keeps the metadata files of the directory when the metadata is in the same
+   * directory as the SIP's content, so the directory isn't listed again when
+   * the SIP is created.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param entries
+   *          The entries of the directory.
+   */
+  @Override
+  public void visitDirectoryEntries(Path path, List<Path> entries) {
+    if (sameDirectoryMatcher == null) {
+      return;
+    }
+    Set<Path> found = Collections.emptySet();
+    for (Path entry : entries) {
+      if (sameDirectoryMatcher.matches(entry.getFileName())) {
+        if (found.isEmpty()) {
+          found = new HashSet<>();
+        }
+        found.add(entry);
+      }
+    }
+    sameDirectoryMetadata.put(path, found);
   }
 
   /**
@@ -245,11 +280,11 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
     // in that case we will jump the folder and add the files to the root of the
     // representation
 
-    if (Files.isDirectory(node.getPath())) {
+    if (node.isDirectory()) {
       onlyFiles = true;
       if (!jumpBaseFolder) {
-        for (String pt : node.getKeys()) {
-          if (Files.isDirectory(Paths.get(pt))) {
+        for (TreeNode child : node.getChildren().values()) {
+          if (child.isDirectory()) {
             onlyFiles = false;
             break;
           }
@@ -315,6 +350,16 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   private Set<Path> searchMetadata(Path sipPath) {
+    // the SIPs are walked directories or files in walked directories, only the
+    // start paths that are files need the directory to be listed here
+    Set<Path> walked = sameDirectoryMetadata.get(sipPath);
+    if (walked == null && sipPath.getParent() != null) {
+      walked = sameDirectoryMetadata.get(sipPath.getParent());
+    }
+    if (walked != null) {
+      return new HashSet<>(walked);
+    }
+
     File dir = sipPath.toFile();
     if (!dir.isDirectory()) {
       dir = sipPath.getParent().toFile();
@@ -1,5 +1,6 @@
 package org.roda.rodain.core.sip.creators;
 
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -48,13 +49,19 @@ public class SipSingle extends SipPreviewCreator {
    *          The path of the directory.
    * @param attrs
    *          The attributes of the directory.
+   * @return {@link FileVisitResult#SKIP_SUBTREE} if the directory is mapped or
+   *         ignored, {@link FileVisitResult#CONTINUE} otherwise.
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled)
-      return;
-    TreeNode newNode = new TreeNode(path);
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    if (cancelled)
+      return FileVisitResult.TERMINATE;
+    // everything under a mapped or ignored directory is filtered too
+    if (filter(path))
+      return FileVisitResult.SKIP_SUBTREE;
+    TreeNode newNode = new TreeNode(path, attrs);
     nodes.add(newNode);
+    return FileVisitResult.CONTINUE;
   }
 
   /**
@@ -91,9 +98,9 @@ public class SipSingle extends SipPreviewCreator {
       return;
     }
     if (nodes.isEmpty())
-      files.add(new TreeNode(path));
+      files.add(new TreeNode(path, attrs));
     else
-      nodes.peekLast().add(path);
+      nodes.peekLast().add(new TreeNode(path, attrs));
   }
 
   /**
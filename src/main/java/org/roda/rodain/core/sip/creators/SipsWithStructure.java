@@ -1,12 +1,7 @@
 package org.roda.rodain.core.sip.creators;
 
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.Deque;
@@ -77,37 +72,21 @@ public class SipsWithStructure extends SipPreviewCreator {
    *          The path of the directory.
    * @param attrs
    *          The attributes of the directory.
+   * @return {@link FileVisitResult#SKIP_SUBTREE} if the directory is mapped or
+   *         ignored, {@link FileVisitResult#CONTINUE} otherwise.
    */
   @Override
-  public void preVisitDirectory(final Path path, final BasicFileAttributes attrs) {
-    if (filter(path) || cancelled) {
-      return;
+  public FileVisitResult preVisitDirectory(final Path path, final BasicFileAttributes attrs) {
+    if (cancelled) {
+      return FileVisitResult.TERMINATE;
     }
-    final Folder newFolder = new Folder(path);
-    folders.add(newFolder);
-  }
-
-  @Override
-  public void setStartPath(String path) {
-    try {
-      Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-          PathCollection.simpleAddPath(file);
-          return isTerminated();
-        }
-
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-          PathCollection.simpleAddPath(dir);
-          return isTerminated();
-        }
-      });
-    } catch (final AccessDeniedException e) {
-      LOGGER.info("Access denied to file", e);
-    } catch (final IOException e) {
-      LOGGER.error("Error walking the file tree", e);
+    // everything under a mapped or ignored directory is filtered too
+    if (filter(path)) {
+      return FileVisitResult.SKIP_SUBTREE;
     }
+    final Folder newFolder = new Folder(path, attrs);
+    folders.add(newFolder);
+    return FileVisitResult.CONTINUE;
   }
 
   /**
@@ -124,17 +103,18 @@ public class SipsWithStructure extends SipPreviewCreator {
     // pop the node of this directory and add it to its parent (if it exists)
     final Folder folder = folders.removeLast();
     if (!folders.isEmpty())
-      folders.peekLast().addItem(folder.getPath());
+      folders.peekLast().addFolder(folder.getPath());
 
-    Set<Path> subFiles, subFolders;
+    Map<Path, BasicFileAttributes> subFiles;
+    Set<Path> subFolders;
     subFiles = folder.getFiles();
     subFolders = folder.getFolders();
 
     // some files and no sub-folders -> single SIP with all the files
     if (!subFiles.isEmpty() && subFolders.isEmpty()) {
-      TreeNode node = new TreeNode(path);
-      for (Path p : subFiles) {
-        TreeNode fileNode = new TreeNode(p);
+      TreeNode node = new TreeNode(path, folder.getAttributes());
+      for (Map.Entry<Path, BasicFileAttributes> file : subFiles.entrySet()) {
+        TreeNode fileNode = new TreeNode(file.getKey(), file.getValue());
         node.add(fileNode);
       }
       PseudoSIP pseudoSIP = new PseudoSIP(node, getMetadataPath(path));
@@ -144,8 +124,9 @@ public class SipsWithStructure extends SipPreviewCreator {
       }
     } else {
       // each file will be a SIP
-      for (Path p : subFiles) {
-        record.put(p, new PseudoSIP(new TreeNode(p), getMetadataPath(p)));
+      for (Map.Entry<Path, BasicFileAttributes> file : subFiles.entrySet()) {
+        Path p = file.getKey();
+        record.put(p, new PseudoSIP(new TreeNode(p, file.getValue()), getMetadataPath(p)));
       }
 
       // make this node a description object
@@ -187,7 +168,7 @@ public class SipsWithStructure extends SipPreviewCreator {
       }
 
       // construct the tree
-      Set<Path> children = new HashSet<>(subFiles);
+      Set<Path> children = new HashSet<>(subFiles.keySet());
       children.addAll(subFolders);
 
       final PseudoDescriptionObject pdo = new PseudoDescriptionObject(path);
@@ -227,11 +208,11 @@ public class SipsWithStructure extends SipPreviewCreator {
       return;
     }
     if (folders.isEmpty()) {
-      PseudoSIP pseudoSIP = new PseudoSIP(new TreeNode(path), getMetadataPath(path));
+      PseudoSIP pseudoSIP = new PseudoSIP(new TreeNode(path, attrs), getMetadataPath(path));
       record.put(path, pseudoSIP);
       tree.add(pseudoSIP);
     } else {
-      folders.peekLast().addItem(path);
+      folders.peekLast().addFile(path, attrs);
     }
   }
 
@@ -246,21 +227,20 @@ public class SipsWithStructure extends SipPreviewCreator {
       notifyObservers(Constants.EVENT_FINISHED);
       return;
     }
-    Set<PseudoDescriptionObject> descObjs = new HashSet<>();
+    Set<Path> descObjs = new HashSet<>();
     record.forEach((path, pseudoItem) -> {
       if (pseudoItem instanceof PseudoSIP) {
         PseudoSIP pseudoSIP = (PseudoSIP) pseudoItem;
         createSip(pseudoSIP.getNode());
       }
       if (pseudoItem instanceof PseudoDescriptionObject) {
-        descObjs.add((PseudoDescriptionObject) pseudoItem);
+        descObjs.add(((PseudoDescriptionObject) pseudoItem).getPath());
       }
     });
 
     // Map the paths of the description objects only AFTER the SIPs are created
     // to avoid unwanted filtering
-    descObjs
-      .forEach(pseudoDescriptionObject -> PathCollection.addPath(pseudoDescriptionObject.getPath(), PathState.MAPPED));
+    PathCollection.addAllPaths(descObjs, PathState.MAPPED);
     setChanged();
     notifyObservers(Constants.EVENT_FINISHED);
   }
@@ -287,21 +267,17 @@ public class SipsWithStructure extends SipPreviewCreator {
     return sipPreviewMap;
   }
 
-  private FileVisitResult isTerminated() {
-    // terminate if the thread has been interrupted
-    if (Thread.interrupted() || cancelled) {
-      return FileVisitResult.TERMINATE;
-    }
-    return FileVisitResult.CONTINUE;
-  }
-
   class Folder {
     private Path path;
-    private Set<Path> files, folders;
+    private BasicFileAttributes attributes;
+    // the attributes read in the walk, kept until the TreeNodes are created
+    private Map<Path, BasicFileAttributes> files;
+    private Set<Path> folders;
 
-    public Folder(Path path) {
+    public Folder(Path path, BasicFileAttributes attributes) {
       this.path = path;
-      files = new HashSet<>();
+      this.attributes = attributes;
+      files = new HashMap<>();
       folders = new HashSet<>();
     }
 
@@ -309,7 +285,11 @@ public class SipsWithStructure extends SipPreviewCreator {
       return path;
     }
 
-    public Set<Path> getFiles() {
+    public BasicFileAttributes getAttributes() {
+      return attributes;
+    }
+
+    public Map<Path, BasicFileAttributes> getFiles() {
       return files;
     }
 
@@ -317,11 +297,12 @@ public class SipsWithStructure extends SipPreviewCreator {
       return folders;
     }
 
-    public void addItem(Path path) {
-      if (Files.isDirectory(path)) {
-        folders.add(path);
-      } else
-        files.add(path);
+    public void addFolder(Path path) {
+      folders.add(path);
+    }
+
+    public void addFile(Path path, BasicFileAttributes attrs) {
+      files.put(path, attrs);
     }
   }
 }
@@ -0,0 +1,408 @@
+package org.roda.rodain.core.source;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of the checksums of the source files kept on disk, so the files that
+ * didn't change aren't read again when they're exported again.
+ * <p/>
+ * <p>
+ * A checksum is kept with the size, modification time and file key of its file
+ * and is only used while the file still has them. The checksums are appended
+ * to a log file in the application's folder, the last checksum of a file and
+ * algorithm replaces the previous ones. The log is rewritten with only the
+ * current checksums when it's opened and most of its records are outdated.
+ * </p>
+ * <p>
+ * Only the checksums of the files used most recently are kept, up to the
+ * configured number of files. The others are dropped from memory and, when the
+ * log is rewritten, from the disk, and are computed again when needed.
+ * </p>
+ * <p>
+ * All the disk writes are made by a single background thread, in order.
+ * </p>
+ */
+public final class ChecksumCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumCache.class.getName());
+  private static final int MAGIC = 0x52444353; // "RDCS"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final String LOG_FILE = "checksums.log";
+  private static final long COMPACTION_MIN_SIZE = 16L * 1024 * 1024;
+  private static final int DEFAULT_MAX_FILES = 100000;
+
+  private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "checksum-cache");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // in access order, the least recently used file is the first
+  private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private static int maxFiles = DEFAULT_MAX_FILES;
+  private static volatile boolean opened = false;
+  private static Path folder;
+
+  // only used by the writer thread
+  private static DataOutputStream log;
+  private static long records = 0;
+
+  private ChecksumCache() {
+  }
+
+  /**
+   * Opens the cache in the application's folder, in the background, unless it's
+   * disabled in the configuration. Until it's opened, the cache has no
+   * checksums.
+   */
+  public static void open() {
+    String enabled = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_CHECKSUM_CACHE_ENABLED);
+    if (enabled != null && !Boolean.parseBoolean(enabled.trim())) {
+      return;
+    }
+    open(ConfigurationManager.getRodainPath().resolve(Constants.FOLDER_CHECKSUM_CACHE),
+      (int) SourceMetadataCache.getConfig(Constants.CONF_K_APP_CHECKSUM_CACHE_MAX_FILES, DEFAULT_MAX_FILES));
+  }
+
+  /**
+   * Opens the cache in a folder, in the background.
+   *
+   * @param cacheFolder
+   *          The folder of the cache's log.
+   * @param maxCachedFiles
+   *          The maximum number of files whose checksums are kept.
+   * @return Completes when the cache is opened, or failed to open.
+   */
+  static Future<?> open(Path cacheFolder, int maxCachedFiles) {
+    folder = cacheFolder;
+    synchronized (ChecksumCache.class) {
+      maxFiles = Math.max(1, maxCachedFiles);
+    }
+    return WRITER.submit(() -> {
+      try {
+        Files.createDirectories(folder);
+        long start = System.currentTimeMillis();
+        Path logFile = folder.resolve(LOG_FILE);
+        if (Files.exists(logFile)) {
+          load(logFile);
+        }
+        if (Files.exists(logFile) && Files.size(logFile) > COMPACTION_MIN_SIZE && records > 2 * countChecksums()) {
+          compact(logFile);
+        } else {
+          openLog(logFile);
+        }
+        opened = true;
+        LOGGER.info("Opened the checksum cache with {} files in {} millis", countFiles(),
+          System.currentTimeMillis() - start);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to open the checksum cache, the checksums won't be kept between sessions", e);
+      }
+    });
+  }
+
+  /**
+   * Writes the pending checksums and closes the log file.
+   */
+  public static void close() {
+    opened = false;
+    WRITER.submit(ChecksumCache::closeLog);
+    WRITER.shutdown();
+    try {
+      WRITER.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the checksum of a file, if it's in the cache and the file didn't
+   * change since it was computed.
+   *
+   * @param path
+   *          The path of the file.
+   * @param attrs
+   *          The current attributes of the file.
+   * @param algorithm
+   *          The checksum algorithm, for example SHA-256.
+   * @return The checksum, or null.
+   */
+  public static String get(Path path, BasicFileAttributes attrs, String algorithm) {
+    if (!opened) {
+      return null;
+    }
+    Entry entry = lookup(path.toAbsolutePath().toString());
+    if (entry == null || !entry.matches(attrs)) {
+      return null;
+    }
+    return entry.checksums.get(algorithm);
+  }
+
+  /**
+   * Gets the checksum of a file, if it's in the cache and the file didn't
+   * change since it was computed.
+   *
+   * @param path
+   *          The path of the file.
+   * @param algorithm
+   *          The checksum algorithm, for example SHA-256.
+   * @return The checksum, or null.
+   */
+  public static String get(Path path, String algorithm) {
+    if (!opened) {
+      return null;
+    }
+    try {
+      return get(path, Files.readAttributes(path, BasicFileAttributes.class), algorithm);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Adds the checksum of a file to the cache. The attributes must be the ones
+   * the file had before it was read, so a file changed while it was read isn't
+   * kept with a wrong checksum.
+   *
+   * @param path
+   *          The path of the file.
+   * @param attrs
+   *          The attributes of the file before its checksum was computed.
+   * @param algorithm
+   *          The checksum algorithm.
+   * @param checksum
+   *          The checksum.
+   */
+  public static void put(Path path, BasicFileAttributes attrs, String algorithm, String checksum) {
+    if (!opened || checksum == null || !attrs.isRegularFile()) {
+      return;
+    }
+    String key = path.toAbsolutePath().toString();
+    Entry created = new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), fileKey(attrs));
+    Entry entry = store(key, created);
+    if (checksum.equals(entry.checksums.put(algorithm, checksum))) {
+      return;
+    }
+    try {
+      WRITER.submit(() -> {
+        try {
+          if (log != null) {
+            write(log, key, entry, algorithm, checksum);
+            log.flush();
+          }
+        } catch (IOException e) {
+          LOGGER.debug("Unable to cache the checksum of {}", key, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the cache was closed in the meantime
+    }
+  }
+
+  private static synchronized Entry lookup(String key) {
+    return entries.get(key);
+  }
+
+  /*
+   * Keeps the entry of a file, unless the one kept is of the same version of the
+   * file, and drops the least recently used files over the maximum. Returns the
+   * entry kept.
+   */
+  private static synchronized Entry store(String key, Entry entry) {
+    Entry previous = entries.get(key);
+    if (previous != null && previous.matches(entry)) {
+      return previous;
+    }
+    entries.put(key, entry);
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (entries.size() > maxFiles) {
+      eldest.next();
+      eldest.remove();
+    }
+    return entry;
+  }
+
+  /*
+   * Reads the checksums of the log, the last checksum of a file and algorithm
+   * replaces the previous ones, as does the first checksum of a file that
+   * changed. A checksum that wasn't fully written is cut from the log. Only
+   * the last files of the log, up to the maximum, are kept.
+   */
+  private static void load(Path logFile) throws IOException {
+    long offset = 0;
+    try (InputStream input = Files.newInputStream(logFile);
+      DataInputStream data = new DataInputStream(new BufferedInputStream(input))) {
+      if (data.readInt() == MAGIC && data.readInt() == VERSION) {
+        offset = HEADER_SIZE;
+      } else {
+        LOGGER.info("Dropping checksum cache with an unknown format: {}", logFile);
+      }
+      while (offset > 0) {
+        byte[] record;
+        try {
+          record = new byte[data.readInt()];
+          data.readFully(record);
+        } catch (EOFException e) {
+          // the end of the log, or a checksum that wasn't fully written
+          break;
+        }
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+        String key = fields.readUTF();
+        Entry read = new Entry(fields.readLong(), fields.readLong(), fields.readUTF());
+        Entry entry = store(key, read);
+        entry.checksums.put(fields.readUTF(), fields.readUTF());
+        records++;
+        offset += Integer.BYTES + record.length;
+      }
+    } catch (EOFException e) {
+      // a log without a header
+      offset = 0;
+    }
+    if (offset == 0) {
+      Files.delete(logFile);
+    } else if (offset < Files.size(logFile)) {
+      try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+        channel.truncate(offset);
+      }
+    }
+  }
+
+  /*
+   * Writes the current checksums to a new log, which replaces the old one.
+   */
+  private static void compact(Path logFile) throws IOException {
+    Path compacted = folder.resolve(LOG_FILE + ".tmp");
+    try (OutputStream output = Files.newOutputStream(compacted);
+      DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output))) {
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+      records = 0;
+      List<Map.Entry<String, Entry>> current;
+      synchronized (ChecksumCache.class) {
+        current = new ArrayList<>(entries.entrySet());
+      }
+      // in the same order, the least recently used first
+      for (Map.Entry<String, Entry> entry : current) {
+        for (Map.Entry<String, String> checksum : entry.getValue().checksums.entrySet()) {
+          write(data, entry.getKey(), entry.getValue(), checksum.getKey(), checksum.getValue());
+          records++;
+        }
+      }
+    }
+    Files.move(compacted, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOGGER.info("Compacted the checksum cache to {} checksums", records);
+    openLog(logFile);
+  }
+
+  private static void openLog(Path logFile) throws IOException {
+    boolean created = !Files.exists(logFile) || Files.size(logFile) == 0;
+    log = new DataOutputStream(new BufferedOutputStream(
+      Files.newOutputStream(logFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    if (created) {
+      log.writeInt(MAGIC);
+      log.writeInt(VERSION);
+      log.flush();
+    }
+  }
+
+  private static void closeLog() {
+    try {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Error closing the checksum cache", e);
+    }
+  }
+
+  /*
+   * Writes a whole record at once, after its length, so a record is either
+   * fully written or cut at the end of the log.
+   */
+  private static void write(DataOutputStream output, String key, Entry entry, String algorithm, String checksum)
+    throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + 160);
+    DataOutputStream data = new DataOutputStream(bytes);
+    data.writeUTF(key);
+    data.writeLong(entry.size);
+    data.writeLong(entry.modified);
+    data.writeUTF(entry.fileKey);
+    data.writeUTF(algorithm);
+    data.writeUTF(checksum);
+    data.flush();
+    output.writeInt(bytes.size());
+    bytes.writeTo(output);
+  }
+
+  private static synchronized long countChecksums() {
+    long result = 0;
+    for (Entry entry : entries.values()) {
+      result += entry.checksums.size();
+    }
+    return result;
+  }
+
+  static synchronized int countFiles() {
+    return entries.size();
+  }
+
+  private static String fileKey(BasicFileAttributes attrs) {
+    return attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+  }
+
+  /**
+   * The checksums of a version of a file, by algorithm.
+   */
+  private static final class Entry {
+    private final long size;
+    private final long modified;
+    private final String fileKey;
+    private final Map<String, String> checksums = new ConcurrentHashMap<>(2);
+
+    Entry(long size, long modified, String fileKey) {
+      this.size = size;
+      this.modified = modified;
+      this.fileKey = fileKey;
+    }
+
+    boolean matches(Entry other) {
+      return size == other.size && modified == other.modified && fileKey.equals(other.fileKey);
+    }
+
+    boolean matches(BasicFileAttributes attrs) {
+      return size == attrs.size() && modified == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+        && fileKey.equals(fileKey(attrs));
+    }
+  }
+}
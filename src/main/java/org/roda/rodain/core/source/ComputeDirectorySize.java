@@ -1,86 +1,121 @@
 package org.roda.rodain.core.source;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.roda.rodain.core.utils.TreeVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Computes the number of files, directories and bytes of a set of paths, using
+ * the sizes in {@link DirectorySizes}. The observers are notified periodically
+ * while the sizes are computed, and at the end.
+ * <p/>
+ * <p>
+ * A path under another path of the set is only counted once.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 24-09-2015.
  */
-public class ComputeDirectorySize extends Observable implements TreeVisitor {
+public class ComputeDirectorySize extends Observable implements Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ComputeDirectorySize.class.getName());
   private static final int UPDATE_FREQUENCY = 500; // in milliseconds
-  private long filesCount = 0, directoryCount, size = 0;
-  private long lastUIUpdate = 0;
+  private final Set<String> paths;
+  private final DirectorySizes.Counters counters = new DirectorySizes.Counters();
 
   /**
    * Creates a new ComputeDirectorySize object.
+   *
+   * @param paths
+   *          The paths of the files and directories.
    */
-  public ComputeDirectorySize() {
+  public ComputeDirectorySize(Set<String> paths) {
+    this.paths = paths;
   }
 
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-  }
-
-  @Override
-  public void postVisitDirectory(Path path) {
-    directoryCount++;
-    update();
-  }
-
-  @Override
-  public void visitFile(Path path, BasicFileAttributes attrs) {
-    size += attrs.size();
-    filesCount++;
-    update();
-  }
-
-  @Override
-  public void visitFileFailed(Path path) {
-    /*
-     * This FileVisitor doesn't need to need to do anything if the visit failed
-     */
-  }
+  public void run() {
+    List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+    for (Path path : removeNested(paths)) {
+      BasicFileAttributes attrs = SourceMetadataCache.readAttributes(path);
+      if (attrs == null) {
+        continue;
+      }
+      if (attrs.isDirectory()) {
+        tasks.add(DirectorySizes.submit(path, counters));
+      } else {
+        counters.addFile(attrs);
+      }
+    }
 
-  @Override
-  public void end() {
-    setChanged();
-    notifyObservers();
+    for (ForkJoinTask<Void> task : tasks) {
+      while (!counters.isCancelled()) {
+        try {
+          task.get(UPDATE_FREQUENCY, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException e) {
+          setChanged();
+          notifyObservers();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          cancel();
+        } catch (ExecutionException e) {
+          LOGGER.debug("Error computing the size of the selected paths", e);
+          break;
+        }
+      }
+    }
+    if (!counters.isCancelled()) {
+      setChanged();
+      notifyObservers();
+    }
   }
 
-  @Override
-  public void setStartPath(String st) {
-    /*
-     * This FileVisitor does not need this method to do anything
-     */
+  /**
+   * Stops the computation, the observers won't be notified again.
+   */
+  public void cancel() {
+    counters.cancel();
   }
 
-  private void update() {
-    long now = System.currentTimeMillis();
-    if (now - lastUIUpdate > UPDATE_FREQUENCY) {
-      setChanged();
-      notifyObservers();
-      lastUIUpdate = now;
+  /*
+   * The paths that aren't under another path of the set.
+   */
+  private static List<Path> removeNested(Set<String> paths) {
+    List<Path> sorted = new ArrayList<>();
+    for (String path : paths) {
+      sorted.add(Paths.get(path));
+    }
+    // an ancestor is always sorted before its descendants
+    sorted.sort(null);
+    List<Path> result = new ArrayList<>();
+    for (Path path : sorted) {
+      if (result.stream().noneMatch(path::startsWith)) {
+        result.add(path);
+      }
     }
+    return result;
   }
 
   public long getFilesCount() {
-    return filesCount;
+    return counters.getFiles();
   }
 
   public long getDirectoryCount() {
-    return directoryCount;
+    return counters.getDirectories();
   }
 
   public long getSize() {
-    return size;
-  }
-
-  @Override
-  public String getId() {
-    return "dirSize";
+    return counters.getBytes();
   }
 }
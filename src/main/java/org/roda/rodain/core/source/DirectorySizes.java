@@ -0,0 +1,365 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.roda.rodain.core.PathRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of the number of files, directories and bytes under each source
+ * directory.
+ * <p/>
+ * <p>
+ * The sizes are computed in parallel and bottom-up: the size of a directory is
+ * the size of its own files plus the sizes of its sub-directories. Each size is
+ * kept with the modification time of its directory and with the ids of its
+ * sub-directories, so computing it again only needs one stat per directory of
+ * the subtree, and only the directories that changed are listed again. When
+ * the size of a directory changes, the sizes of its ancestors are dropped. A
+ * size keeps its directory and sub-directories in the {@link PathRegistry}
+ * until it's dropped.
+ * </p>
+ * <p>
+ * The cache keeps as many paths, summed over all its sizes, as the
+ * {@link SourceMetadataCache} keeps entries, and drops the least recently used
+ * sizes when it's full. The size of a dropped directory is computed again the
+ * next time, the sizes of its ancestors are kept.
+ * </p>
+ * <p>
+ * A size checked less than {@link SourceMetadataCache}'s maximum age ago is
+ * used without checking its subtree, like the cached listings.
+ * </p>
+ */
+public final class DirectorySizes {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySizes.class.getName());
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  // in access order, the least recently used size is the first
+  private static final Map<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private static long keptPaths = 0;
+  private static int maxPaths = -1;
+
+  private DirectorySizes() {
+  }
+
+  /**
+   * Submits the computation of the size of a directory. The files, directories
+   * and bytes are added to the counters while the subtree is computed, so they
+   * can be shown before the computation ends.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @param counters
+   *          The counters where the sizes are added.
+   * @return The task computing the size, to wait for it.
+   */
+  public static ForkJoinTask<Void> submit(Path dir, Counters counters) {
+    return POOL.submit(new SizeTask(dir, counters));
+  }
+
+  /**
+   * Removes the size of a directory and of its ancestors, for example when an
+   * entry is created or deleted in it.
+   *
+   * @param dir
+   *          The path of the directory.
+   */
+  public static synchronized void invalidate(Path dir) {
+    removeWithAncestors(PathRegistry.findId(dir.toString()));
+  }
+
+  /**
+   * Removes all the sizes.
+   */
+  public static synchronized void clear() {
+    for (Integer id : new ArrayList<>(entries.keySet())) {
+      remove(id);
+    }
+  }
+
+  /**
+   * Sets the maximum number of paths kept by the sizes, dropping the least
+   * recently used sizes over it.
+   *
+   * @param max
+   *          The maximum number of paths.
+   */
+  static synchronized void setMaxPaths(int max) {
+    maxPaths = max;
+    dropEldest();
+  }
+
+  private static synchronized Entry getEntry(int id) {
+    return entries.get(id);
+  }
+
+  /*
+   * Adds the size of a directory, whose path and sub-directories were acquired
+   * for it.
+   */
+  private static synchronized void put(int id, Entry entry) {
+    if (maxPaths < 0) {
+      maxPaths = SourceMetadataCache.getMaxEntries();
+    }
+    if (entry.paths() > maxPaths) {
+      release(id, entry);
+      return;
+    }
+    Entry previous = entries.put(id, entry);
+    keptPaths += entry.paths();
+    if (previous != null) {
+      keptPaths -= previous.paths();
+      release(id, previous);
+      if (previous.files != entry.files || previous.directories != entry.directories
+        || previous.bytes != entry.bytes) {
+        removeWithAncestors(PathRegistry.getParent(id));
+      }
+    }
+    dropEldest();
+  }
+
+  /*
+   * Drops the least recently used sizes, the ancestors of a dropped size keep
+   * theirs.
+   */
+  private static void dropEldest() {
+    Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+    while (keptPaths > maxPaths && maxPaths >= 0) {
+      Map.Entry<Integer, Entry> dropped = eldest.next();
+      eldest.remove();
+      keptPaths -= dropped.getValue().paths();
+      release(dropped.getKey(), dropped.getValue());
+    }
+  }
+
+  private static void removeWithAncestors(int id) {
+    while (id > PathRegistry.ROOT) {
+      // the parent of a removed path is kept, but it's read before it's removed
+      int parent = PathRegistry.getParent(id);
+      remove(id);
+      id = parent;
+    }
+  }
+
+  private static void remove(int id) {
+    Entry removed = entries.remove(id);
+    if (removed != null) {
+      keptPaths -= removed.paths();
+      release(id, removed);
+    }
+  }
+
+  private static void release(int id, Entry entry) {
+    for (int subDirectory : entry.subDirectories) {
+      PathRegistry.release(subDirectory);
+    }
+    PathRegistry.release(id);
+  }
+
+  /**
+   * The number of files, directories and bytes added while a computation runs.
+   * Can be read from any thread.
+   */
+  public static final class Counters {
+    private final LongAdder files = new LongAdder();
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Stops the computations using these counters. The sizes already computed
+     * are kept in the cache.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Adds a file that isn't in a computed directory.
+     *
+     * @param attrs
+     *          The attributes of the file.
+     */
+    public void addFile(BasicFileAttributes attrs) {
+      files.increment();
+      bytes.add(attrs.size());
+    }
+
+    public long getFiles() {
+      return files.sum();
+    }
+
+    public long getDirectories() {
+      return directories.sum();
+    }
+
+    public long getBytes() {
+      return bytes.sum();
+    }
+  }
+
+  private static final class Entry {
+    private final long modified;
+    private final long checked;
+    private final long ownFiles, ownBytes;
+    private final long files, directories, bytes;
+    private final int[] subDirectories;
+
+    Entry(long modified, long ownFiles, long ownBytes, long files, long directories, long bytes,
+      int[] subDirectories) {
+      this.modified = modified;
+      this.checked = System.currentTimeMillis();
+      this.ownFiles = ownFiles;
+      this.ownBytes = ownBytes;
+      this.files = files;
+      this.directories = directories;
+      this.bytes = bytes;
+      this.subDirectories = subDirectories;
+    }
+
+    /*
+     * The number of paths the size keeps in the registry.
+     */
+    int paths() {
+      return 1 + subDirectories.length;
+    }
+  }
+
+  /**
+   * Computes the size of a directory, forking a task for each of its
+   * sub-directories. The sizes of the directories that didn't change aren't
+   * read again.
+   */
+  private static final class SizeTask extends RecursiveAction {
+    private final Path path;
+    private final Counters counters;
+    private long files, directories, bytes;
+
+    SizeTask(Path path, Counters counters) {
+      this.path = path;
+      this.counters = counters;
+    }
+
+    @Override
+    protected void compute() {
+      if (counters.isCancelled()) {
+        return;
+      }
+      int id = PathRegistry.findId(path.toString());
+      Entry entry = id == PathRegistry.NO_ID ? null : getEntry(id);
+      if (entry != null && PathRegistry.findId(path.toString()) != id) {
+        // the size was dropped and its id reused in the meantime
+        entry = null;
+      }
+      if (entry != null && System.currentTimeMillis() - entry.checked < SourceMetadataCache.getMaxAge() * 1000) {
+        add(entry.files, entry.directories, entry.bytes);
+        return;
+      }
+
+      long modified;
+      try {
+        modified = Files.getLastModifiedTime(path).toMillis();
+      } catch (IOException e) {
+        // like a walk, a directory that can't be read counts as a directory
+        add(0, 1, 0);
+        return;
+      }
+
+      long ownFiles = 0, ownBytes = 0;
+      List<SizeTask> subTasks = new ArrayList<>();
+      if (entry != null && entry.modified == modified && addSubTasks(id, entry, subTasks)) {
+        ownFiles = entry.ownFiles;
+        ownBytes = entry.ownBytes;
+      } else {
+        try {
+          SourceMetadataCache.Listing listing = SourceMetadataCache.getListing(path);
+          for (int i = 0; i < listing.size(); i++) {
+            BasicFileAttributes attrs = listing.getAttributes().get(i);
+            if (attrs == null) {
+              continue;
+            }
+            if (attrs.isDirectory()) {
+              subTasks.add(new SizeTask(listing.getEntries().get(i), counters));
+            } else {
+              ownFiles++;
+              ownBytes += attrs.size();
+            }
+          }
+        } catch (IOException e) {
+          LOGGER.debug("Error computing the size of {}", path, e);
+          add(0, 1, 0);
+          return;
+        }
+      }
+      add(ownFiles, 1, ownBytes);
+
+      invokeAll(subTasks);
+      if (counters.isCancelled()) {
+        return;
+      }
+      int[] subDirectories = new int[subTasks.size()];
+      long totalFiles = ownFiles, totalDirectories = 1, totalBytes = ownBytes;
+      for (int i = 0; i < subTasks.size(); i++) {
+        SizeTask subTask = subTasks.get(i);
+        subDirectories[i] = PathRegistry.acquire(subTask.path);
+        totalFiles += subTask.files;
+        totalDirectories += subTask.directories;
+        totalBytes += subTask.bytes;
+      }
+      files = totalFiles;
+      directories = totalDirectories;
+      bytes = totalBytes;
+      put(PathRegistry.acquire(path),
+        new Entry(modified, ownFiles, ownBytes, totalFiles, totalDirectories, totalBytes, subDirectories));
+    }
+
+    /*
+     * Adds the tasks of the sub-directories of the size, false if it was
+     * dropped in the meantime and its ids may be of other paths. While the size
+     * is in the cache, it keeps the ids of its sub-directories.
+     */
+    private boolean addSubTasks(int id, Entry entry, List<SizeTask> subTasks) {
+      try {
+        for (int subDirectory : entry.subDirectories) {
+          subTasks.add(new SizeTask(PathRegistry.getPath(subDirectory), counters));
+        }
+      } catch (IllegalArgumentException e) {
+        // a sub-directory was removed from the registry
+      }
+      if (subTasks.size() != entry.subDirectories.length || getEntry(id) != entry) {
+        subTasks.clear();
+        return false;
+      }
+      return true;
+    }
+
+    /*
+     * Adds to the counters as soon as possible, so the UI shows the progress,
+     * and to the totals of this task.
+     */
+    private void add(long addedFiles, long addedDirectories, long addedBytes) {
+      counters.files.add(addedFiles);
+      counters.directories.add(addedDirectories);
+      counters.bytes.add(addedBytes);
+      files += addedFiles;
+      directories += addedDirectories;
+      bytes += addedBytes;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+import org.apache.commons.codec.binary.Hex;
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the checksums of files, reading each file once for all the
+ * algorithms.
+ * <p/>
+ * <p>
+ * The files are read to a direct buffer of each thread, reused for all the
+ * files, and each read is given to all the digests, so neither the heap nor
+ * the mapped memory grows with the size of the files. The checksums in the
+ * {@link ChecksumCache} are used, and only the missing ones are computed and
+ * added to it.
+ * </p>
+ * <p>
+ * The files of {@link #digestAll(Collection, Set)} are read in parallel, by a
+ * pool shared by all the callers, so the number of files read at the same time
+ * doesn't grow with the number of SIPs being created.
+ * </p>
+ * <p>
+ * The callers may be told the bytes read, as they're read, for example to
+ * measure the throughput of the SIP creation. The files whose checksums are
+ * all in the cache count with their whole size, since they're done.
+ * </p>
+ */
+public final class FileDigests {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileDigests.class.getName());
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final int MAX_DEFAULT_PARALLELISM = 4;
+  private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal
+    .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+  private static ExecutorService pool;
+
+  private FileDigests() {
+  }
+
+  /**
+   * Gets the checksums of a file, reading it once for all the algorithms whose
+   * checksum isn't in the cache.
+   *
+   * @param file
+   *          The path of the file.
+   * @param algorithms
+   *          The checksum algorithms, for example SHA-256 and MD5.
+   * @return The checksums, by algorithm.
+   * @throws IOException
+   *           If the file can't be read.
+   * @throws NoSuchAlgorithmException
+   *           If an algorithm isn't supported.
+   */
+  public static Map<String, String> digest(Path file, Set<String> algorithms)
+    throws IOException, NoSuchAlgorithmException {
+    return digest(file, algorithms, null);
+  }
+
+  /**
+   * Gets the checksums of a file, like {@link #digest(Path, Set)}, telling the
+   * bytes read.
+   *
+   * @param file
+   *          The path of the file.
+   * @param algorithms
+   *          The checksum algorithms, for example SHA-256 and MD5.
+   * @param bytesRead
+   *          Told the bytes of the file read, or null.
+   * @return The checksums, by algorithm.
+   * @throws IOException
+   *           If the file can't be read.
+   * @throws NoSuchAlgorithmException
+   *           If an algorithm isn't supported.
+   */
+  public static Map<String, String> digest(Path file, Set<String> algorithms, LongConsumer bytesRead)
+    throws IOException, NoSuchAlgorithmException {
+    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    Map<String, String> result = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String algorithm : algorithms) {
+      String cached = ChecksumCache.get(file, attrs, algorithm);
+      if (cached != null) {
+        result.put(algorithm, cached);
+      } else {
+        missing.add(algorithm);
+      }
+    }
+    if (!missing.isEmpty()) {
+      Map<String, String> computed = compute(file, missing, bytesRead);
+      for (Map.Entry<String, String> checksum : computed.entrySet()) {
+        ChecksumCache.put(file, attrs, checksum.getKey(), checksum.getValue());
+      }
+      result.putAll(computed);
+    } else if (bytesRead != null) {
+      bytesRead.accept(attrs.size());
+    }
+    return result;
+  }
+
+  /**
+   * Gets the checksums of several files, reading them in parallel. When a file
+   * can't be read, the files not read yet are skipped and the ones being read
+   * are waited for before the error is thrown.
+   *
+   * @param files
+   *          The paths of the files.
+   * @param algorithms
+   *          The checksum algorithms.
+   * @return The checksums of each file, by algorithm.
+   * @throws IOException
+   *           If a file can't be read.
+   * @throws NoSuchAlgorithmException
+   *           If an algorithm isn't supported.
+   * @throws InterruptedException
+   *           If the thread is interrupted while waiting for the checksums.
+   */
+  public static Map<Path, Map<String, String>> digestAll(Collection<Path> files, Set<String> algorithms)
+    throws IOException, NoSuchAlgorithmException, InterruptedException {
+    return digestAll(files, algorithms, null);
+  }
+
+  /**
+   * Gets the checksums of several files, like
+   * {@link #digestAll(Collection, Set)}, telling the bytes read.
+   *
+   * @param files
+   *          The paths of the files.
+   * @param algorithms
+   *          The checksum algorithms.
+   * @param bytesRead
+   *          Told the bytes of the files read, from the threads of the pool, or
+   *          null.
+   * @return The checksums of each file, by algorithm.
+   * @throws IOException
+   *           If a file can't be read.
+   * @throws NoSuchAlgorithmException
+   *           If an algorithm isn't supported.
+   * @throws InterruptedException
+   *           If the thread is interrupted while waiting for the checksums.
+   */
+  public static Map<Path, Map<String, String>> digestAll(Collection<Path> files, Set<String> algorithms,
+    LongConsumer bytesRead) throws IOException, NoSuchAlgorithmException, InterruptedException {
+    Map<Path, Map<String, String>> result = new ConcurrentHashMap<>();
+    AtomicBoolean failed = new AtomicBoolean(false);
+    List<Future<Void>> futures = new ArrayList<>(files.size());
+    for (Path file : files) {
+      futures.add(getPool().submit(() -> {
+        if (!failed.get()) {
+          try {
+            result.put(file, digest(file, algorithms, bytesRead));
+          } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+            failed.set(true);
+            throw e;
+          }
+        }
+        return null;
+      }));
+    }
+    ExecutionException failure = null;
+    try {
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      failed.set(true);
+      futures.forEach(future -> future.cancel(true));
+      throw e;
+    }
+    if (failure != null) {
+      Throwable cause = failure.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof NoSuchAlgorithmException) {
+        throw (NoSuchAlgorithmException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+    return result;
+  }
+
+  private static Map<String, String> compute(Path file, List<String> algorithms, LongConsumer bytesRead)
+    throws IOException, NoSuchAlgorithmException {
+    List<MessageDigest> digests = new ArrayList<>(algorithms.size());
+    for (String algorithm : algorithms) {
+      digests.add(MessageDigest.getInstance(algorithm));
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = BUFFERS.get();
+      buffer.clear();
+      int read;
+      while ((read = channel.read(buffer)) >= 0) {
+        buffer.flip();
+        update(digests, buffer);
+        buffer.clear();
+        if (bytesRead != null && read > 0) {
+          bytesRead.accept(read);
+        }
+      }
+    }
+    Map<String, String> result = new HashMap<>();
+    for (int i = 0; i < algorithms.size(); i++) {
+      result.put(algorithms.get(i), Hex.encodeHexString(digests.get(i).digest()));
+    }
+    return result;
+  }
+
+  private static void update(List<MessageDigest> digests, ByteBuffer buffer) {
+    for (MessageDigest digest : digests) {
+      // each digest reads the whole buffer
+      digest.update(buffer.duplicate());
+    }
+  }
+
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      int parallelism = Math.min(MAX_DEFAULT_PARALLELISM, Runtime.getRuntime().availableProcessors());
+      String configured = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_CHECKSUMS_PARALLELISM);
+      if (configured != null && !configured.trim().isEmpty()) {
+        try {
+          parallelism = Math.max(1, Integer.parseInt(configured.trim()));
+        } catch (NumberFormatException e) {
+          LOGGER.warn("Invalid checksums parallelism '{}', using {}", configured, parallelism);
+        }
+      }
+      pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+        Thread thread = new Thread(runnable, "file-digests");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return pool;
+  }
+}
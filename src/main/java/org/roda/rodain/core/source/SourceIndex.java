@@ -0,0 +1,673 @@
+package org.roda.rodain.core.source;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.PathRegistry;
+import org.roda.rodain.core.source.SourceMetadataCache.Listing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the source directories kept on disk, so the listings read in one
+ * session can be used in the next ones.
+ * <p/>
+ * <p>
+ * The index is a set of segment files where the listings are appended, in a
+ * compact binary format: the path and modification time of the directory and,
+ * for each entry, its name, type, size, modification time and file key. Only
+ * the position of the last listing of each directory is kept in memory, the
+ * listings are read from the segments when they are needed.
+ * </p>
+ * <p>
+ * An indexed listing is served with the indexed attributes, so a directory
+ * that didn't change isn't read at all. The attributes of the entries change
+ * without changing their directory, so each time a listing is served its
+ * entries are checked in the background with the same size, modification time
+ * and file key the {@link ChecksumCache} uses. A listing with a changed entry
+ * is dropped from the index and from the {@link SourceMetadataCache}, and its
+ * directory is read again the next time it's used.
+ * </p>
+ * <p>
+ * When the index is opened, the modification time of every indexed directory
+ * is checked in the background and the directories that changed are dropped.
+ * A listing is also checked against the directory's modification time each
+ * time it's used, so the index never hides a change to a directory's entries.
+ * The segments are compacted when most of their listings are outdated. The
+ * indexed directories are kept in the {@link PathRegistry} until their
+ * listings are dropped.
+ * </p>
+ * <p>
+ * All the disk writes are made by a single background thread, in order. The
+ * listings are read from the segments without interruptible channels.
+ * </p>
+ */
+public final class SourceIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SourceIndex.class.getName());
+  private static final int MAGIC = 0x52444958; // "RDIX"
+  private static final int VERSION = 3;
+  private static final int HEADER_SIZE = 8;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".idx";
+  private static final long SEGMENT_MAX_SIZE = 64L * 1024 * 1024;
+  private static final long COMPACTION_MIN_SIZE = 16L * 1024 * 1024;
+  private static final int OFFSET_BITS = 40;
+  private static final long DEFAULT_MAX_AGE = 24; // in hours
+  private static final int MAX_RECONCILE_THREADS = 4;
+  private static final int RECONCILE_BATCH_SIZE = 256;
+  private static final int MAX_PENDING_CHECKS = 1024;
+
+  private static final byte TYPE_UNREADABLE = -1;
+  private static final byte TYPE_FILE = 0;
+  private static final byte TYPE_DIRECTORY = 1;
+  private static final byte TYPE_LINK = 2;
+  private static final byte TYPE_OTHER = 3;
+
+  private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "source-index");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // when too many listings wait to be checked, the thread that finds the
+  // listing checks it
+  private static final ExecutorService CHECKER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+    new ArrayBlockingQueue<>(MAX_PENDING_CHECKS), runnable -> {
+      Thread thread = new Thread(runnable, "source-index-check");
+      thread.setDaemon(true);
+      return thread;
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+  // the segment and offset of the last listing of each directory, by id, each
+  // location keeps its directory in the registry
+  private static final Map<Integer, Long> locations = new ConcurrentHashMap<>();
+  private static volatile Map<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+  // the locations of the listings being checked
+  private static final Set<Long> checking = ConcurrentHashMap.newKeySet();
+  private static volatile boolean opened = false;
+  private static Path folder;
+  private static long maxAge;
+
+  // only used by the writer thread
+  private static FileChannel current;
+  private static int currentSegment;
+  private static long liveBytes = 0, totalBytes = 0;
+
+  private SourceIndex() {
+  }
+
+  /**
+   * Opens the index in the application's folder, in the background, unless it's
+   * disabled in the configuration. Until it's opened, the index has no
+   * listings.
+   */
+  public static void open() {
+    String enabled = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_SOURCE_INDEX_ENABLED);
+    if (enabled != null && !Boolean.parseBoolean(enabled.trim())) {
+      return;
+    }
+    open(ConfigurationManager.getRodainPath().resolve(Constants.FOLDER_SOURCE_INDEX));
+  }
+
+  /**
+   * Opens the index in a folder, in the background.
+   *
+   * @param indexFolder
+   *          The folder of the index's segments.
+   * @return Completes when the index is opened, or failed to open.
+   */
+  static Future<?> open(Path indexFolder) {
+    folder = indexFolder;
+    maxAge = SourceMetadataCache.getConfig(Constants.CONF_K_APP_SOURCE_INDEX_MAX_AGE, DEFAULT_MAX_AGE) * 3600 * 1000;
+    return WRITER.submit(() -> {
+      try {
+        Files.createDirectories(folder);
+        long start = System.currentTimeMillis();
+        Map<Integer, Long> modifiedTimes = load();
+        reconcile(modifiedTimes);
+        if (totalBytes > COMPACTION_MIN_SIZE && totalBytes > 2 * liveBytes) {
+          compact();
+        }
+        startSegment(segments.isEmpty() ? 0 : currentSegment + 1);
+        opened = true;
+        LOGGER.info("Opened the source index with {} directories in {} millis", locations.size(),
+          System.currentTimeMillis() - start);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to open the source index, the listings won't be kept between sessions", e);
+      }
+    });
+  }
+
+  /**
+   * Writes the pending listings and closes the segment files.
+   */
+  public static void close() {
+    opened = false;
+    WRITER.submit(SourceIndex::closeChannels);
+    WRITER.shutdown();
+    try {
+      WRITER.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the listing of a directory, if it's in the index and the directory's
+   * modification time didn't change. The listing has the indexed attributes,
+   * its entries are checked in the background.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @param modified
+   *          The current modification time of the directory.
+   * @return The listing, or null.
+   */
+  static Listing find(Path dir, FileTime modified) {
+    if (!opened) {
+      return null;
+    }
+    int id = PathRegistry.findId(dir.toString());
+    Long location = id == PathRegistry.NO_ID ? null : locations.get(id);
+    if (location == null) {
+      return null;
+    }
+    try {
+      Listing listing = read(readRecord(location), dir, modified);
+      if (listing != null) {
+        if (checking.add(location)) {
+          CHECKER.execute(() -> check(dir, id, location, listing));
+        }
+        return listing;
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.debug("Unable to read the indexed listing of {}", dir, e);
+    }
+    drop(id, location);
+    return null;
+  }
+
+  /*
+   * Drops the listing of a directory if any of its entries changed since it was
+   * indexed.
+   */
+  private static void check(Path dir, int id, long location, Listing listing) {
+    try {
+      List<BasicFileAttributes> current = SourceMetadataCache.readAttributes(listing.getEntries());
+      if (current == null) {
+        // interrupted, it's checked the next time it's found
+        return;
+      }
+      for (int i = 0; i < current.size(); i++) {
+        IndexedAttributes indexed = (IndexedAttributes) listing.getAttributes().get(i);
+        if (indexed == null ? current.get(i) != null : !indexed.matches(current.get(i))) {
+          drop(id, location);
+          SourceMetadataCache.invalidate(dir);
+          return;
+        }
+      }
+    } finally {
+      checking.remove(location);
+    }
+  }
+
+  /*
+   * Only if the id still has the location read, it may be of another path or
+   * have a newer listing.
+   */
+  private static void drop(int id, long location) {
+    if (locations.remove(id, location)) {
+      PathRegistry.release(id);
+    }
+  }
+
+  /**
+   * Adds the listing of a directory to the index, in the background.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @param listing
+   *          The complete listing of the directory.
+   */
+  static void add(Path dir, Listing listing) {
+    if (!opened) {
+      return;
+    }
+    try {
+      WRITER.submit(() -> {
+        try {
+          if (current != null) {
+            byte[] record = write(dir, listing);
+            append(PathRegistry.acquire(dir), record);
+          }
+        } catch (IOException e) {
+          LOGGER.debug("Unable to index the listing of {}", dir, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the index was closed in the meantime
+    }
+  }
+
+  /*
+   * Reads a record through a file of its own instead of the shared segment
+   * channel. The listings are found in threads that may be interrupted, for
+   * example by a walk that stops reading ahead, and an interrupted read closes
+   * a file channel for all the threads.
+   */
+  private static byte[] readRecord(long location) throws IOException {
+    try (RandomAccessFile segment = new RandomAccessFile(segmentPath((int) (location >>> OFFSET_BITS)).toFile(),
+      "r")) {
+      segment.seek(location & ((1L << OFFSET_BITS) - 1));
+      byte[] record = new byte[segment.readInt()];
+      segment.readFully(record);
+      return record;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+  }
+
+  /*
+   * Reads the locations of the listings in all the segments, the last listing
+   * of a directory replaces the previous ones. Returns the modification times
+   * of the indexed directories.
+   */
+  private static Map<Integer, Long> load() throws IOException {
+    Map<Integer, Path> segmentFiles = new TreeMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path segmentFile : stream) {
+        String name = segmentFile.getFileName().toString();
+        try {
+          segmentFiles.put(
+            Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())),
+            segmentFile);
+        } catch (NumberFormatException e) {
+          LOGGER.debug("Ignoring unknown file in the source index: {}", segmentFile);
+        }
+      }
+    }
+
+    Map<Integer, Long> modifiedTimes = new ConcurrentHashMap<>();
+    for (Map.Entry<Integer, Path> segmentFile : segmentFiles.entrySet()) {
+      int segment = segmentFile.getKey();
+      FileChannel channel = FileChannel.open(segmentFile.getValue(), StandardOpenOption.READ);
+      segments.put(segment, channel);
+      try (InputStream input = Files.newInputStream(segmentFile.getValue());
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input))) {
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+          LOGGER.info("Dropping source index segment with an unknown format: {}", segmentFile.getValue());
+          segments.remove(segment).close();
+          Files.delete(segmentFile.getValue());
+          continue;
+        }
+        long offset = HEADER_SIZE;
+        while (true) {
+          int length;
+          byte[] record;
+          try {
+            length = data.readInt();
+            record = new byte[length];
+            data.readFully(record);
+          } catch (EOFException e) {
+            // the end of the segment, or a listing that wasn't fully written
+            break;
+          }
+          DataInputStream header = new DataInputStream(new ByteArrayInputStream(record));
+          int id = PathRegistry.acquire(Paths.get(header.readUTF()));
+          modifiedTimes.put(id, header.readLong());
+          Long previous = locations.put(id, location(segment, offset));
+          if (previous != null) {
+            liveBytes -= recordLength(previous);
+            PathRegistry.release(id);
+          }
+          liveBytes += Integer.BYTES + length;
+          totalBytes += Integer.BYTES + length;
+          offset += Integer.BYTES + length;
+        }
+        if (offset == HEADER_SIZE) {
+          // a session that didn't index anything
+          segments.remove(segment).close();
+          Files.delete(segmentFile.getValue());
+          continue;
+        }
+      }
+      currentSegment = segment;
+    }
+    return modifiedTimes;
+  }
+
+  /*
+   * Drops the directories whose modification time changed since they were
+   * indexed, checking them in batches in a few threads of its own.
+   */
+  private static void reconcile(Map<Integer, Long> modifiedTimes) {
+    int threads = Math.min(MAX_RECONCILE_THREADS, Runtime.getRuntime().availableProcessors());
+    ExecutorService checkers = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "source-index-reconcile");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Map.Entry<Integer, Long>> indexed = new ArrayList<>(modifiedTimes.entrySet());
+      List<Future<?>> batches = new ArrayList<>();
+      for (int from = 0; from < indexed.size(); from += RECONCILE_BATCH_SIZE) {
+        List<Map.Entry<Integer, Long>> batch = indexed.subList(from,
+          Math.min(from + RECONCILE_BATCH_SIZE, indexed.size()));
+        batches.add(checkers.submit(() -> batch.forEach(SourceIndex::reconcile)));
+      }
+      for (Future<?> batch : batches) {
+        batch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOGGER.debug("Error checking the indexed directories", e);
+    } finally {
+      checkers.shutdownNow();
+    }
+  }
+
+  private static void reconcile(Map.Entry<Integer, Long> entry) {
+    long now;
+    try {
+      now = Files.getLastModifiedTime(PathRegistry.getPath(entry.getKey())).to(TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      now = Long.MIN_VALUE;
+    }
+    if (now != entry.getValue()) {
+      Long location = locations.remove(entry.getKey());
+      if (location != null) {
+        synchronized (SourceIndex.class) {
+          liveBytes -= recordLength(location);
+        }
+        PathRegistry.release(entry.getKey());
+      }
+    }
+  }
+
+  /*
+   * Copies the live listings to new segments and deletes the old ones.
+   */
+  private static void compact() throws IOException {
+    Map<Integer, FileChannel> oldSegments = segments;
+    Map<Integer, Long> oldLocations = new TreeMap<>(locations);
+    segments = new ConcurrentHashMap<>();
+    liveBytes = 0;
+    totalBytes = 0;
+    startSegment(currentSegment + 1);
+    for (Map.Entry<Integer, Long> entry : oldLocations.entrySet()) {
+      long location = entry.getValue();
+      FileChannel channel = oldSegments.get((int) (location >>> OFFSET_BITS));
+      long offset = location & ((1L << OFFSET_BITS) - 1);
+      ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+      readFully(channel, length, offset);
+      ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+      readFully(channel, record, offset + Integer.BYTES);
+      // the new location replaces the old one, which keeps the directory
+      PathRegistry.acquire(entry.getKey());
+      append(entry.getKey(), record.array());
+    }
+    for (Map.Entry<Integer, FileChannel> segment : oldSegments.entrySet()) {
+      segment.getValue().close();
+      Files.deleteIfExists(segmentPath(segment.getKey()));
+    }
+    LOGGER.info("Compacted the source index to {} bytes", totalBytes);
+  }
+
+  private static void startSegment(int segment) throws IOException {
+    if (current != null) {
+      current.close();
+    }
+    Path segmentFile = segmentPath(segment);
+    current = FileChannel.open(segmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).flip();
+    while (header.hasRemaining()) {
+      current.write(header);
+    }
+    currentSegment = segment;
+    segments.put(segment, FileChannel.open(segmentFile, StandardOpenOption.READ));
+  }
+
+  /*
+   * Appends a listing of the directory with the id, which was acquired for the
+   * new location and is released if it isn't kept by it.
+   */
+  private static void append(int id, byte[] record) throws IOException {
+    long offset;
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length);
+    buffer.putInt(record.length).put(record).flip();
+    try {
+      if (current.position() > SEGMENT_MAX_SIZE) {
+        startSegment(currentSegment + 1);
+      }
+      offset = current.position();
+      while (buffer.hasRemaining()) {
+        current.write(buffer);
+      }
+    } catch (IOException e) {
+      PathRegistry.release(id);
+      throw e;
+    }
+    Long previous = locations.put(id, location(currentSegment, offset));
+    if (previous != null) {
+      liveBytes -= recordLength(previous);
+      PathRegistry.release(id);
+    }
+    liveBytes += buffer.capacity();
+    totalBytes += buffer.capacity();
+  }
+
+  private static void closeChannels() {
+    try {
+      if (current != null) {
+        current.close();
+        current = null;
+      }
+      for (FileChannel channel : segments.values()) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Error closing the source index", e);
+    }
+  }
+
+  private static Path segmentPath(int segment) {
+    return folder.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+  }
+
+  private static long location(int segment, long offset) {
+    return ((long) segment << OFFSET_BITS) | offset;
+  }
+
+  /*
+   * The length of a record isn't kept in memory, an estimate is enough to
+   * decide when to compact, so the record is read again.
+   */
+  private static long recordLength(long location) {
+    FileChannel channel = segments.get((int) (location >>> OFFSET_BITS));
+    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    try {
+      readFully(channel, length, location & ((1L << OFFSET_BITS) - 1));
+      return Integer.BYTES + length.getInt(0);
+    } catch (IOException | RuntimeException e) {
+      return 0;
+    }
+  }
+
+  private static byte[] write(Path dir, Listing listing) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + listing.size() * 48);
+    DataOutputStream data = new DataOutputStream(bytes);
+    data.writeUTF(dir.toString());
+    data.writeLong(listing.getModified().to(TimeUnit.NANOSECONDS));
+    data.writeLong(listing.getRead());
+    data.writeInt(listing.size());
+    for (int i = 0; i < listing.size(); i++) {
+      BasicFileAttributes attrs = listing.getAttributes().get(i);
+      data.writeUTF(listing.getEntries().get(i).getFileName().toString());
+      if (attrs == null) {
+        data.writeByte(TYPE_UNREADABLE);
+        continue;
+      }
+      data.writeByte(type(attrs));
+      data.writeLong(attrs.size());
+      data.writeLong(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+      data.writeUTF(fileKey(attrs));
+    }
+    data.flush();
+    return bytes.toByteArray();
+  }
+
+  private static byte type(BasicFileAttributes attrs) {
+    return attrs.isDirectory() ? TYPE_DIRECTORY
+      : attrs.isSymbolicLink() ? TYPE_LINK : attrs.isRegularFile() ? TYPE_FILE : TYPE_OTHER;
+  }
+
+  private static String fileKey(BasicFileAttributes attrs) {
+    return attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+  }
+
+  /*
+   * The indexed listing, or null if the directory changed or the listing is too
+   * old.
+   */
+  private static Listing read(byte[] record, Path dir, FileTime current) throws IOException {
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+    if (!data.readUTF().equals(dir.toString())) {
+      throw new IOException("The indexed listing isn't of " + dir);
+    }
+    FileTime modified = FileTime.from(data.readLong(), TimeUnit.NANOSECONDS);
+    long read = data.readLong();
+    if (!modified.equals(current) || read + maxAge <= System.currentTimeMillis()) {
+      return null;
+    }
+    int count = data.readInt();
+    List<Path> entries = new ArrayList<>(count);
+    List<BasicFileAttributes> attributes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      entries.add(dir.resolve(data.readUTF()));
+      byte type = data.readByte();
+      if (type == TYPE_UNREADABLE) {
+        attributes.add(null);
+      } else {
+        long size = data.readLong();
+        long lastModified = data.readLong();
+        attributes.add(new IndexedAttributes(type, size, lastModified, data.readUTF()));
+      }
+    }
+    // in memory, the listing expires like the ones read from the directory
+    return new Listing(modified, read, System.currentTimeMillis() + SourceMetadataCache.getMaxAge() * 1000, entries,
+      attributes);
+  }
+
+  /**
+   * The attributes of an indexed entry. The file key is the string of the
+   * original key, like the ones the {@link ChecksumCache} keeps.
+   */
+  private static final class IndexedAttributes implements BasicFileAttributes {
+    private final byte type;
+    private final long size;
+    private final long modified;
+    private final String fileKey;
+
+    IndexedAttributes(byte type, long size, long modified, String fileKey) {
+      this.type = type;
+      this.size = size;
+      this.modified = modified;
+      this.fileKey = fileKey;
+    }
+
+    /*
+     * If the entry still has the type, size, modification time and file key it
+     * had when it was indexed.
+     */
+    boolean matches(BasicFileAttributes attrs) {
+      return attrs != null && type == type(attrs) && size == attrs.size()
+        && modified == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+        && fileKey.equals(SourceIndex.fileKey(attrs));
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+      return FileTime.from(modified, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+      return lastModifiedTime();
+    }
+
+    @Override
+    public FileTime creationTime() {
+      return lastModifiedTime();
+    }
+
+    @Override
+    public boolean isRegularFile() {
+      return type == TYPE_FILE;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return type == TYPE_DIRECTORY;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return type == TYPE_LINK;
+    }
+
+    @Override
+    public boolean isOther() {
+      return type == TYPE_OTHER;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public Object fileKey() {
+      return fileKey.isEmpty() ? null : fileKey;
+    }
+  }
+}
@@ -0,0 +1,406 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.PathRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of the listings of the source directories and of the attributes of
+ * their entries, shared by the file explorer, the rules and the SIP creation.
+ * <p/>
+ * <p>
+ * A listing is kept with the modification time its directory had when it was
+ * read and is only used while the directory keeps that time, so entries added,
+ * removed or renamed are always seen. Changes to the content of a file don't
+ * change its directory, so the listings also expire after a maximum age.
+ * </p>
+ * <p>
+ * The cache holds a maximum number of entries, summed over all its listings,
+ * and drops the least recently used listings when it's full. The entries'
+ * attributes are read without following links. The directories of the cached
+ * listings are kept in the {@link PathRegistry} until their listings are
+ * dropped.
+ * </p>
+ * <p>
+ * The complete listings are also added to the {@link SourceIndex}, so a
+ * directory that didn't change since a previous session isn't read again.
+ * </p>
+ */
+public final class SourceMetadataCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SourceMetadataCache.class.getName());
+  private static final int DEFAULT_MAX_ENTRIES = 200000;
+  private static final long DEFAULT_MAX_AGE = 300; // in seconds
+
+  private static Map<Integer, Listing> listings;
+  private static long cachedEntries = 0;
+  private static int maxEntries;
+  private static long maxAge;
+  private static ExecutorService attributeReaders;
+
+  private SourceMetadataCache() {
+  }
+
+  /**
+   * Gets the listing of a directory, reading it if it isn't in the cache or if
+   * the directory changed since it was read.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @return The listing of the directory. If an error happens while reading the
+   *         directory, the listing has the entries read before the error and
+   *         isn't cached.
+   * @throws IOException
+   *           If the directory can't be opened, or the thread was interrupted
+   *           while the attributes of its entries were read.
+   */
+  public static Listing getListing(Path dir) throws IOException {
+    FileTime modified = Files.getLastModifiedTime(dir);
+    Listing listing = getValid(dir, modified);
+    if (listing != null) {
+      return listing;
+    }
+
+    List<Path> entries = new ArrayList<>();
+    boolean complete = true;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path entry : stream) {
+        entries.add(entry);
+      }
+    } catch (DirectoryIteratorException e) {
+      LOGGER.debug("Error listing directory {}", dir, e);
+      complete = false;
+    }
+    List<BasicFileAttributes> attributes = readAttributes(entries);
+    if (attributes == null) {
+      // a partial listing would be kept as if its entries were unreadable
+      throw new InterruptedIOException("Interrupted while listing " + dir);
+    }
+    listing = new Listing(modified, entries, attributes);
+    if (complete) {
+      put(dir, listing);
+      SourceIndex.add(dir, listing);
+    }
+    return listing;
+  }
+
+  /**
+   * Gets the listing of a directory only if it's in the cache and the directory
+   * didn't change since it was read.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @return The listing of the directory, or null.
+   */
+  public static Listing getCachedListing(Path dir) {
+    try {
+      return getValid(dir, Files.getLastModifiedTime(dir));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets the listing of a directory only if it's in memory, without checking if
+   * the directory changed since it was read, so it doesn't access the disk. The
+   * listing may be outdated by up to the maximum age of the cache.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @return The cached listing of the directory, or null.
+   */
+  public static Listing peekListing(String dir) {
+    return peekListing(PathRegistry.findId(dir));
+  }
+
+  /**
+   * Gets the listing of a directory only if it's in memory, like
+   * {@link #peekListing(String)}, by the id of its path in the
+   * {@link PathRegistry}.
+   *
+   * @param id
+   *          The id of the path of the directory.
+   * @return The cached listing of the directory, or null.
+   */
+  public static synchronized Listing peekListing(int id) {
+    Listing listing = id == PathRegistry.NO_ID || listings == null ? null : listings.get(id);
+    return listing != null && System.currentTimeMillis() < listing.expires ? listing : null;
+  }
+
+  /**
+   * Adds the listing of a directory read somewhere else, for example one page
+   * at a time.
+   *
+   * @param dir
+   *          The path of the directory.
+   * @param modified
+   *          The modification time of the directory before it started being
+   *          read.
+   * @param entries
+   *          All the entries of the directory.
+   * @param attributes
+   *          The attributes of each entry, read without following links, or
+   *          null when they couldn't be read.
+   */
+  public static void putListing(Path dir, FileTime modified, List<Path> entries,
+    List<BasicFileAttributes> attributes) {
+    Listing listing = new Listing(modified, entries, attributes);
+    put(dir, listing);
+    SourceIndex.add(dir, listing);
+  }
+
+  /**
+   * Reads the attributes of an entry the same way as the cached ones.
+   *
+   * @param entry
+   *          The path of the entry.
+   * @return The attributes of the entry, or null if they can't be read.
+   */
+  public static BasicFileAttributes readAttributes(Path entry) {
+    try {
+      return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads the attributes of several entries the same way as the cached ones.
+   * When the application is configured with more than one concurrent read, for
+   * sources in network mounts where each read waits for the server, the
+   * attributes are read at the same time in a bounded pool.
+   *
+   * @param entries
+   *          The paths of the entries.
+   * @return The attributes of each entry, in the same order, or null when they
+   *         can't be read. Returns null instead of the list if the thread is
+   *         interrupted while they're read concurrently, the reads not finished
+   *         yet are cancelled.
+   */
+  public static List<BasicFileAttributes> readAttributes(List<Path> entries) {
+    List<BasicFileAttributes> result = new ArrayList<>(entries.size());
+    ExecutorService readers = getAttributeReaders();
+    if (readers == null || entries.size() < 2) {
+      for (Path entry : entries) {
+        result.add(readAttributes(entry));
+      }
+      return result;
+    }
+
+    List<Future<BasicFileAttributes>> reads = new ArrayList<>(entries.size());
+    for (Path entry : entries) {
+      reads.add(readers.submit(() -> readAttributes(entry)));
+    }
+    for (Future<BasicFileAttributes> read : reads) {
+      try {
+        result.add(read.get());
+      } catch (InterruptedException e) {
+        for (Future<BasicFileAttributes> pending : reads) {
+          pending.cancel(false);
+        }
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException e) {
+        result.add(null);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes the listing of a directory from the cache.
+   *
+   * @param dir
+   *          The path of the directory.
+   */
+  public static synchronized void invalidate(Path dir) {
+    int id = PathRegistry.findId(dir.toString());
+    if (listings != null && id != PathRegistry.NO_ID) {
+      remove(id);
+    }
+  }
+
+  private static Listing getValid(Path dir, FileTime modified) {
+    synchronized (SourceMetadataCache.class) {
+      int id = PathRegistry.findId(dir.toString());
+      Listing listing = id == PathRegistry.NO_ID ? null : getListings().get(id);
+      if (listing != null) {
+        if (listing.modified.equals(modified) && System.currentTimeMillis() < listing.expires) {
+          return listing;
+        }
+        remove(id);
+      }
+    }
+
+    // read outside of the lock, the index may have to access the disk
+    Listing indexed = SourceIndex.find(dir, modified);
+    if (indexed != null) {
+      put(dir, indexed);
+    }
+    return indexed;
+  }
+
+  private static synchronized void put(Path dir, Listing listing) {
+    if (listing.size() > getMaxEntries()) {
+      return;
+    }
+    int id = PathRegistry.acquire(dir);
+    Listing previous = listings.put(id, listing);
+    if (previous != null) {
+      cachedEntries -= previous.size();
+      // the directory was already kept by the previous listing
+      PathRegistry.release(id);
+    }
+    cachedEntries += listing.size();
+
+    // drop the least recently used listings, the new one is the last
+    Iterator<Map.Entry<Integer, Listing>> eldest = listings.entrySet().iterator();
+    while (cachedEntries > maxEntries) {
+      Map.Entry<Integer, Listing> dropped = eldest.next();
+      cachedEntries -= dropped.getValue().size();
+      eldest.remove();
+      PathRegistry.release(dropped.getKey());
+    }
+  }
+
+  private static void remove(int id) {
+    Listing removed = listings.remove(id);
+    if (removed != null) {
+      cachedEntries -= removed.size();
+      PathRegistry.release(id);
+    }
+  }
+
+  private static synchronized ExecutorService getAttributeReaders() {
+    if (attributeReaders == null) {
+      int concurrency = (int) getConfig(Constants.CONF_K_APP_SOURCE_CACHE_CONCURRENT_READS, 1);
+      if (concurrency <= 1) {
+        return null;
+      }
+      attributeReaders = Executors.newFixedThreadPool(concurrency, runnable -> {
+        Thread thread = new Thread(runnable, "source-attributes");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return attributeReaders;
+  }
+
+  /**
+   * @return The maximum number of entries of the cached listings.
+   */
+  static synchronized int getMaxEntries() {
+    getListings();
+    return maxEntries;
+  }
+
+  /**
+   * @return The maximum age of a cached listing, in seconds.
+   */
+  public static synchronized long getMaxAge() {
+    getListings();
+    return maxAge;
+  }
+
+  private static Map<Integer, Listing> getListings() {
+    if (listings == null) {
+      maxEntries = (int) getConfig(Constants.CONF_K_APP_SOURCE_CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+      maxAge = getConfig(Constants.CONF_K_APP_SOURCE_CACHE_MAX_AGE, DEFAULT_MAX_AGE);
+      // in access order, the least recently used listing is the first
+      listings = new LinkedHashMap<>(16, 0.75f, true);
+    }
+    return listings;
+  }
+
+  static long getConfig(String key, long defaultValue) {
+    String configured = ConfigurationManager.getAppConfig(key);
+    if (configured != null && !configured.trim().isEmpty()) {
+      try {
+        return Long.parseLong(configured.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid value '{}' for {}, using {}", configured, key, defaultValue);
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * The entries of a directory and their attributes, in the order they were
+   * listed. Immutable.
+   */
+  public static final class Listing {
+    private final FileTime modified;
+    private final long read;
+    private final long expires;
+    private final List<Path> entries;
+    private final List<BasicFileAttributes> attributes;
+
+    Listing(FileTime modified, List<Path> entries, List<BasicFileAttributes> attributes) {
+      this(modified, System.currentTimeMillis(), System.currentTimeMillis() + getMaxAge() * 1000, entries,
+        attributes);
+    }
+
+    Listing(FileTime modified, long read, long expires, List<Path> entries, List<BasicFileAttributes> attributes) {
+      this.modified = modified;
+      this.read = read;
+      this.expires = expires;
+      this.entries = Collections.unmodifiableList(entries);
+      this.attributes = Collections.unmodifiableList(attributes);
+    }
+
+    FileTime getModified() {
+      return modified;
+    }
+
+    long getRead() {
+      return read;
+    }
+
+    long getExpires() {
+      return expires;
+    }
+
+    /**
+     * @return The paths of the entries.
+     */
+    public List<Path> getEntries() {
+      return entries;
+    }
+
+    /**
+     * @return The attributes of each entry, read without following links, or
+     *         null when they couldn't be read.
+     */
+    public List<BasicFileAttributes> getAttributes() {
+      return attributes;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+      return entries.size();
+    }
+  }
+}
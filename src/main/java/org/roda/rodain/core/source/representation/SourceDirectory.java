@@ -5,26 +5,68 @@ import java.nio.file.AccessDeniedException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.source.SourceMetadataCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * A source directory whose children are loaded one page at a time.
+ * <p/>
+ * <p>
+ * The size of the pages adapts to how long they take to load: the pages that
+ * load fast are followed by bigger ones, up to {@link #MAX_LOADING_SIZE}, and
+ * the slow ones by smaller ones. After a page is loaded, the entries of the
+ * next one are read in the background, so they're ready when they're asked
+ * for. When the application is configured to keep only the last page, the
+ * children of the previous pages aren't kept, and neither is the listing.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 17-09-2015.
  */
 public class SourceDirectory implements SourceItem {
   private static final Logger LOGGER = LoggerFactory.getLogger(SourceDirectory.class.getName());
   private static final int LOADING_SIZE = 100;
+  private static final int MAX_LOADING_SIZE = 5000;
+  private static final long PAGE_TIME = 250; // in milliseconds
+  private static final ExecutorService PREFETCH = Executors.newFixedThreadPool(2, runnable -> {
+    Thread thread = new Thread(runnable, "source-directory-prefetch");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static Boolean keepOnlyLastPage;
   private Path path;
-  private int itemsToLoad = 0;
+  private int pageSize = LOADING_SIZE;
   private TreeMap<String, SourceItem> children;
   private DirectoryStream<Path> directoryStream;
   private Iterator<Path> iterator;
   private boolean showFiles;
+  private volatile boolean streamOpen = true;
+  // the entries read in the background for the next page
+  private final Deque<Entry> prefetched = new ArrayDeque<>();
+  private Future<?> prefetch;
+  // the attributes of the entries, when the listing comes from the cache
+  private Iterator<BasicFileAttributes> cachedAttributes;
+  // the entries read from the directory stream, added to the cache when the
+  // stream ends
+  private FileTime modified;
+  private List<Path> readEntries;
+  private List<BasicFileAttributes> readAttributes;
 
   /**
    * Creates a new SourceDirectory object.
@@ -78,8 +120,9 @@ public class SourceDirectory implements SourceItem {
    *         directory.
    */
   public SourceDirectory getChildDirectory(Path p) {
-    if (Files.isDirectory(p))
-      return (SourceDirectory) children.get(p.toString());
+    SourceItem child = children.get(p.toString());
+    if (child instanceof SourceDirectory)
+      return (SourceDirectory) child;
     return null;
   }
 
@@ -87,7 +130,7 @@ public class SourceDirectory implements SourceItem {
    * @return True if the iterator isn't closed, false otherwise.
    */
   public boolean isStreamOpen() {
-    return iterator.hasNext();
+    return iterator != null && streamOpen;
   }
 
   /**
@@ -102,6 +145,16 @@ public class SourceDirectory implements SourceItem {
     children.put(p.toString(), item);
   }
 
+  /**
+   * Removes a child from the map, for example when it's deleted.
+   *
+   * @param p
+   *          The path of the child
+   */
+  public void removeChild(Path p) {
+    children.remove(p.toString());
+  }
+
   /**
    * Closes the directory stream if it hasn't been closed yet.
    */
@@ -115,12 +168,24 @@ public class SourceDirectory implements SourceItem {
   }
 
   private void startDirectoryStream() {
-    if (directoryStream != null)
+    if (iterator != null)
       return;
 
+    SourceMetadataCache.Listing listing = SourceMetadataCache.getCachedListing(path);
+    if (listing != null) {
+      iterator = listing.getEntries().iterator();
+      cachedAttributes = listing.getAttributes().iterator();
+      return;
+    }
+
     try {
+      modified = Files.getLastModifiedTime(path);
       directoryStream = Files.newDirectoryStream(path);
       iterator = directoryStream.iterator();
+      if (!isKeepOnlyLastPage()) {
+        readEntries = new ArrayList<>();
+        readAttributes = new ArrayList<>();
+      }
     } catch (AccessDeniedException e) {
       LOGGER.info("No access to file", e);
     } catch (IOException e) {
@@ -141,38 +206,177 @@ public class SourceDirectory implements SourceItem {
    *
    * @return The map with the newly added items
    */
-  public SortedMap<String, SourceItem> loadMore() {
+  public synchronized SortedMap<String, SourceItem> loadMore() {
     startDirectoryStream();
-    int loaded = 0, childrenSize = children.size();
     TreeMap<String, SourceItem> result = new TreeMap<>();
     if (iterator != null) {
-      itemsToLoad += LOADING_SIZE;
-      while (iterator.hasNext() && (childrenSize + loaded < itemsToLoad)) {
-        Path file = iterator.next();
-        if (!showFiles && !Files.isDirectory(file))
+      // a prefetch that didn't start yet isn't needed, one that started
+      // already ended since it holds this object's lock
+      if (prefetch != null) {
+        prefetch.cancel(false);
+      }
+      if (isKeepOnlyLastPage()) {
+        children.clear();
+      }
+      long start = System.currentTimeMillis();
+      int loaded = 0;
+      while (loaded < pageSize && hasNextEntry()) {
+        Entry entry = nextEntry();
+        boolean directory = isDirectory(entry.path, entry.attributes);
+        if (!showFiles && !directory)
           continue;
-        SourceItem added = loadChild(file);
-        result.put(file.toString(), added);
+        SourceItem added = loadChild(entry.path, directory);
+        result.put(entry.path.toString(), added);
         loaded++;
       }
+      adaptPageSize(loaded, System.currentTimeMillis() - start);
+
       // we can close the directory stream if there's no more files to load in
       // the iterator
-      if (!iterator.hasNext())
+      if (!hasNextEntry()) {
+        streamOpen = false;
         closeDirectoryStream();
+        if (readEntries != null) {
+          SourceMetadataCache.putListing(path, modified, readEntries, readAttributes);
+          readEntries = null;
+          readAttributes = null;
+        }
+      } else {
+        prefetch = PREFETCH.submit(this::prefetch);
+      }
     }
     return result;
   }
 
-  public SourceItem loadChild(Path file) {
-    SourceItem item;
-    if (Files.isDirectory(file)) {
-      item = new SourceDirectory(file, showFiles);
-      addChild(file, item);
+  /*
+   * Pages that load fast are followed by bigger ones, slow pages by smaller
+   * ones.
+   */
+  private void adaptPageSize(int loaded, long time) {
+    if (loaded < pageSize) {
+      return;
+    }
+    if (time < PAGE_TIME / 2) {
+      pageSize = Math.min(MAX_LOADING_SIZE, pageSize * 2);
+    } else if (time > PAGE_TIME * 2) {
+      pageSize = Math.max(LOADING_SIZE, pageSize / 2);
+    }
+  }
+
+  private synchronized void prefetch() {
+    if (streamOpen) {
+      fill(pageSize - prefetched.size());
+    }
+  }
+
+  private boolean hasNextEntry() {
+    return !prefetched.isEmpty() || iterator.hasNext();
+  }
+
+  private Entry nextEntry() {
+    if (prefetched.isEmpty()) {
+      fill(pageSize);
+    }
+    return prefetched.poll();
+  }
+
+  /*
+   * Reads the next entries of the stream and then their attributes, so the
+   * attributes can be read at the same time.
+   */
+  private void fill(int count) {
+    List<Path> files = new ArrayList<>();
+    while (files.size() < count && iterator.hasNext()) {
+      files.add(iterator.next());
+    }
+    List<BasicFileAttributes> attributes;
+    if (cachedAttributes != null) {
+      attributes = new ArrayList<>(files.size());
+      for (int i = 0; i < files.size(); i++) {
+        attributes.add(cachedAttributes.next());
+      }
+    } else {
+      attributes = SourceMetadataCache.readAttributes(files);
+      if (attributes == null) {
+        // interrupted, the page is read again one entry at a time
+        attributes = new ArrayList<>(files.size());
+        for (Path file : files) {
+          attributes.add(SourceMetadataCache.readAttributes(file));
+        }
+      }
+      if (readEntries != null) {
+        readEntries.addAll(files);
+        readAttributes.addAll(attributes);
+      }
+    }
+    for (int i = 0; i < files.size(); i++) {
+      prefetched.add(new Entry(files.get(i), attributes.get(i)));
+    }
+  }
+
+  private static synchronized boolean isKeepOnlyLastPage() {
+    if (keepOnlyLastPage == null) {
+      keepOnlyLastPage = Boolean
+        .parseBoolean(ConfigurationManager.getAppConfig(Constants.CONF_K_APP_SOURCE_DIRECTORY_KEEP_ONLY_LAST_PAGE));
+    }
+    return keepOnlyLastPage;
+  }
+
+  private static boolean isDirectory(Path file, BasicFileAttributes attrs) {
+    if (attrs == null) {
+      return false;
+    }
+    // the links to directories are shown as directories
+    return attrs.isSymbolicLink() ? Files.isDirectory(file) : attrs.isDirectory();
+  }
+
+  /**
+   * Creates the object of an entry of the directory, without adding it to the
+   * children. Accesses the disk to know if the entry is a directory.
+   *
+   * @param file
+   *          The path of the entry
+   * @return The object of the entry
+   */
+  public SourceItem createChild(Path file) {
+    return createChild(file, Files.isDirectory(file));
+  }
 
+  /**
+   * Creates the object of an entry of the directory, without adding it to the
+   * children.
+   *
+   * @param file
+   *          The path of the entry
+   * @param attrs
+   *          The attributes of the entry, read without following links
+   * @return The object of the entry
+   */
+  public SourceItem createChild(Path file, BasicFileAttributes attrs) {
+    return createChild(file, isDirectory(file, attrs));
+  }
+
+  private SourceItem createChild(Path file, boolean directory) {
+    if (directory) {
+      return new SourceDirectory(file, showFiles);
     } else {
-      item = new SourceFile(file);
-      addChild(file, item);
+      return new SourceFile(file);
     }
+  }
+
+  private SourceItem loadChild(Path file, boolean directory) {
+    SourceItem item = createChild(file, directory);
+    addChild(file, item);
     return item;
   }
+
+  private static final class Entry {
+    private final Path path;
+    private final BasicFileAttributes attributes;
+
+    Entry(Path path, BasicFileAttributes attributes) {
+      this.path = path;
+      this.attributes = attributes;
+    }
+  }
 }
@@ -0,0 +1,219 @@
+package org.roda.rodain.core.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * A map with non-negative int keys that doesn't box them, for the maps keyed
+ * by the ids of the {@link org.roda.rodain.core.PathRegistry}.
+ * <p/>
+ * <p>
+ * The entries are kept in two arrays with open addressing. A removed entry
+ * leaves a mark in its slot, so the entries can be removed while the values are
+ * iterated, and the marks are dropped when the arrays grow. Not thread safe.
+ * </p>
+ *
+ * @param <V>
+ *          The type of the values.
+ */
+public final class IntMap<V> {
+  private static final int FREE = -1;
+  private static final int REMOVED = -2;
+  private static final int INITIAL_CAPACITY = 4;
+
+  private int[] keys;
+  private Object[] values;
+  private int size = 0;
+  // the slots that aren't free, removed ones included
+  private int used = 0;
+
+  public IntMap() {
+    keys = new int[INITIAL_CAPACITY];
+    values = new Object[INITIAL_CAPACITY];
+    Arrays.fill(keys, FREE);
+  }
+
+  /**
+   * @param key
+   *          The key.
+   * @return The value of the key, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    int slot = find(key);
+    return slot == FREE ? null : (V) values[slot];
+  }
+
+  /**
+   * Gets the value of a key, adding the value created by the function if the
+   * key isn't in the map.
+   *
+   * @param key
+   *          The key, not negative.
+   * @param function
+   *          Creates the value of the key.
+   * @return The value of the key.
+   */
+  public V computeIfAbsent(int key, IntFunction<V> function) {
+    V value = get(key);
+    if (value == null) {
+      value = function.apply(key);
+      put(key, value);
+    }
+    return value;
+  }
+
+  /**
+   * @param key
+   *          The key, not negative.
+   * @param value
+   *          The value, not null.
+   * @return The previous value of the key, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int key, V value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Negative key: " + key);
+    }
+    int slot = find(key);
+    if (slot != FREE) {
+      V previous = (V) values[slot];
+      values[slot] = value;
+      return previous;
+    }
+    if ((used + 1) * 4 > keys.length * 3) {
+      resize(size + 1);
+    }
+    int mask = keys.length - 1;
+    slot = hash(key) & mask;
+    while (keys[slot] >= 0) {
+      slot = (slot + 1) & mask;
+    }
+    if (keys[slot] == FREE) {
+      used++;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    return null;
+  }
+
+  /**
+   * @param key
+   *          The key.
+   * @return The removed value, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(int key) {
+    int slot = find(key);
+    if (slot == FREE) {
+      return null;
+    }
+    V previous = (V) values[slot];
+    keys[slot] = REMOVED;
+    values[slot] = null;
+    size--;
+    return previous;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return The values, in no particular order. The iterator can remove the
+   *         entry of the last value returned.
+   */
+  public Iterable<V> values() {
+    return ValuesIterator::new;
+  }
+
+  private int find(int key) {
+    if (key < 0) {
+      return FREE;
+    }
+    int mask = keys.length - 1;
+    for (int slot = hash(key) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+    }
+    return FREE;
+  }
+
+  private void resize(int minSize) {
+    int capacity = INITIAL_CAPACITY;
+    while (minSize * 2 > capacity) {
+      capacity *= 2;
+    }
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new int[capacity];
+    values = new Object[capacity];
+    Arrays.fill(keys, FREE);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] >= 0) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (keys[slot] != FREE) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+    used = size;
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private final class ValuesIterator implements Iterator<V> {
+    private int next = -1;
+    private int last = -1;
+
+    ValuesIterator() {
+      advance();
+    }
+
+    private void advance() {
+      do {
+        next++;
+      } while (next < keys.length && keys[next] < 0);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < keys.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      advance();
+      return (V) values[last];
+    }
+
+    @Override
+    public void remove() {
+      if (last == -1 || keys[last] < 0) {
+        throw new IllegalStateException();
+      }
+      keys[last] = REMOVED;
+      values[last] = null;
+      size--;
+    }
+  }
+}
@@ -1,7 +1,9 @@
 package org.roda.rodain.core.utils;
 
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
 
 /**
  * @author Andre Pereira apereira@keep.pt
@@ -10,10 +12,32 @@ import java.nio.file.attribute.BasicFileAttributes;
 public interface TreeVisitor {
   /**
    * Method called before visiting a directory.
+   * <p/>
+   * <p>
+   * The returned verdict tells the walk whether to descend into the directory.
+   * When it's {@link FileVisitResult#SKIP_SUBTREE}, none of the directory's
+   * contents are visited and {@link #postVisitDirectory(Path)} isn't called
+   * for it.
+   * </p>
+   *
    * @param path The path of the directory
    * @param attrs The attributes of the directory
+   * @return {@link FileVisitResult#CONTINUE} to visit the directory's contents,
+   *         {@link FileVisitResult#SKIP_SUBTREE} to skip them or
+   *         {@link FileVisitResult#TERMINATE} to stop the walk.
    */
-  void preVisitDirectory(Path path, BasicFileAttributes attrs);
+  FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs);
+
+  /**
+   * Method called with the entries of a directory, after
+   * {@link #preVisitDirectory(Path, BasicFileAttributes)} and before any of
+   * them is visited. The entries come from the same listing used by the walk,
+   * so the visitor doesn't need to read the directory again.
+   *
+   * @param path The path of the directory
+   * @param entries The paths of the files and directories in the directory
+   */
+  void visitDirectoryEntries(Path path, List<Path> entries);
 
   /**
    * Method called after visiting a directory
@@ -38,7 +38,7 @@ public class ValidFilesCounter implements FileVisitor<Path> {
   @Override
   public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
     LOGGER.debug("visitFile '{}'", file);
-    if (!IgnoredFilter.isIgnored(file)) {
+    if (!IgnoredFilter.isIgnored(file, attrs)) {
       validFiles++;
       return FileVisitResult.TERMINATE;
     }
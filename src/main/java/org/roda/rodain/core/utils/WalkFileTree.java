@@ -6,24 +6,64 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.source.SourceMetadataCache;
+import org.roda.rodain.core.source.SourceMetadataCache.Listing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Walks the file trees of a set of paths, telling a {@link TreeVisitor} about
+ * each directory and file.
+ * <p/>
+ * <p>
+ * Only the listings of the directories are read in parallel, ahead of the
+ * walk. The handler stays single-threaded: it's called from the walking thread
+ * alone, in the order of Files.walkFileTree(). The visitors, like
+ * {@link org.roda.rodain.core.sip.creators.SipsWithStructure}, rely on each
+ * preVisitDirectory being followed by the visits of its entries and then by
+ * its postVisitDirectory, keeping the directory being visited in their own
+ * state, and they aren't thread-safe.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 01-10-2015.
  */
 public class WalkFileTree extends Thread {
   private static final Logger LOGGER = LoggerFactory.getLogger(WalkFileTree.class.getName());
+  // how many listings each walk reads ahead, per thread of the pool
+  private static final int LOOKAHEAD_PER_THREAD = 4;
+  private static final long CANCEL_CHECK_MILLIS = 100;
+  private static ExecutorService pool;
+  private static int parallelism;
+
   private Set<String> paths;
   private TreeVisitor handler;
-  private boolean cancelled = false;
+  private volatile boolean cancelled = false;
+
+  private volatile int processedFiles = 0, processedDirs = 0;
 
-  private int processedFiles = 0, processedDirs = 0;
+  // only used by the walking thread: the directories being walked, the
+  // deepest first, and the listings read ahead
+  private final Deque<Level> levels = new ArrayDeque<>();
+  private Semaphore lookahead;
 
   /**
    * Creates a new WalkFileTree object.
@@ -40,52 +80,62 @@ public class WalkFileTree extends Thread {
   }
 
   /**
-   * Iterates the paths received in the constructor and uses each one in
-   * Files.walkFileTree().
+   * Iterates the paths received in the constructor and walks the file tree of
+   * each one, in the same order as Files.walkFileTree().
+   * <p/>
+   * <p>
+   * The handler is always called from this thread, but the directories are
+   * read ahead in a pool shared by all the walks, through the
+   * {@link SourceMetadataCache}. Each walk reads a bounded number of listings
+   * ahead, the ones it will visit next: the next sub-directories of the
+   * directory being visited, then of its parent, and so on up to the next
+   * start directories. The listings that won't be visited and weren't started
+   * yet are cancelled, the ones being read are left to finish, so they're
+   * cached, since interrupting them would leave partial listings.
+   * </p>
    */
   @Override
   public void run() {
+    lookahead = new Semaphore(LOOKAHEAD_PER_THREAD * getParallelism());
+    List<Path> startDirectories = new ArrayList<>();
     for (String startPath : paths) {
-      handler.setStartPath(startPath);
-      final Path path = Paths.get(startPath);
-      // walkFileTree doesn't work if the start path is a file, so we call the
-      // method directly
-      try {
-        if (!Files.isDirectory(path)) {
-          handler.visitFile(path, Files.readAttributes(path, BasicFileAttributes.class));
-        } else {
-          Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-              processedFiles++;
-              handler.visitFile(file, attrs);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-              handler.preVisitDirectory(dir, attrs);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-              processedDirs++;
-              handler.postVisitDirectory(dir);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-              handler.visitFileFailed(file);
-              return isTerminated();
-            }
-          });
+      Path path = Paths.get(startPath);
+      if (Files.isDirectory(path)) {
+        startDirectories.add(path);
+      }
+    }
+    Level startLevel = new Level(startDirectories);
+    levels.push(startLevel);
+
+    try {
+      for (String startPath : paths) {
+        if (cancelled) {
+          break;
         }
-      } catch (AccessDeniedException e) {
-        LOGGER.info("Access denied to file", e);
-      } catch (IOException e) {
-        LOGGER.error("Error walking the file tree", e);
+        handler.setStartPath(startPath);
+        final Path path = Paths.get(startPath);
+        // a start path that's a file has no tree to walk, so we call the method
+        // directly
+        try {
+          if (!startDirectories.contains(path)) {
+            handler.visitFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+          } else {
+            Listing listing = take(startLevel, path);
+            walkDirectory(path, Files.readAttributes(path, BasicFileAttributes.class), listing);
+          }
+        } catch (AccessDeniedException e) {
+          LOGGER.info("Access denied to file", e);
+        } catch (IOException e) {
+          LOGGER.error("Error walking the file tree", e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    } finally {
+      // the levels left by a walk that was stopped
+      while (!levels.isEmpty()) {
+        cancelReadAhead(levels.pop());
       }
     }
 
@@ -113,6 +163,171 @@ public class WalkFileTree extends Thread {
     return processedFiles;
   }
 
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+      String configured = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_WALK_PARALLELISM);
+      if (configured != null && !configured.trim().isEmpty()) {
+        try {
+          parallelism = Math.max(1, Integer.parseInt(configured.trim()));
+        } catch (NumberFormatException e) {
+          LOGGER.warn("Invalid walk parallelism '{}', using {}", configured, parallelism);
+        }
+      }
+      pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+        Thread thread = new Thread(runnable, "walk-file-tree");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return pool;
+  }
+
+  private static synchronized int getParallelism() {
+    getPool();
+    return parallelism;
+  }
+
+  /*
+   * Reads ahead the listings of the next directories to visit, while there are
+   * permits, starting in the deepest level since it's visited first.
+   */
+  private void readAhead() {
+    for (Level level : levels) {
+      while (level.next < level.directories.size()) {
+        if (cancelled || !lookahead.tryAcquire()) {
+          return;
+        }
+        Path dir = level.directories.get(level.next++);
+        level.pending.put(dir, getPool().submit(() -> cancelled ? null : SourceMetadataCache.getListing(dir)));
+      }
+    }
+  }
+
+  /*
+   * Gets the listing of the next directory of the level, read ahead or, if it
+   * wasn't yet, read now. Returns null if the directory can't be listed or the
+   * walk was stopped.
+   */
+  private Listing take(Level level, Path dir) throws InterruptedException {
+    level.visited++;
+    Future<Listing> pending = level.pending.remove(dir);
+    if (pending == null) {
+      // the directories before it were read ahead, but not this one
+      level.next = Math.max(level.next, level.visited);
+      readAhead();
+      try {
+        return SourceMetadataCache.getListing(dir);
+      } catch (IOException e) {
+        LOGGER.debug("Error listing directory {}", dir, e);
+        return null;
+      }
+    }
+    try {
+      while (true) {
+        try {
+          return pending.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          if (cancelled) {
+            pending.cancel(false);
+            return null;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      pending.cancel(false);
+      throw e;
+    } catch (ExecutionException e) {
+      LOGGER.debug("Error listing directory {}", dir, e);
+      return null;
+    } finally {
+      lookahead.release();
+    }
+  }
+
+  private void cancelReadAhead(Level level) {
+    for (Future<Listing> pending : level.pending.values()) {
+      pending.cancel(false);
+      lookahead.release();
+    }
+    level.pending.clear();
+  }
+
+  /*
+   * Visits a directory and its contents. The listing of the directory has
+   * already been read, usually ahead while its previous siblings were visited.
+   */
+  private FileVisitResult walkDirectory(Path dir, BasicFileAttributes attrs, Listing listing) {
+    if (cancelled) {
+      return FileVisitResult.TERMINATE;
+    }
+    if (listing == null) {
+      // like Files.walkFileTree, a directory that can't be opened isn't visited
+      handler.visitFileFailed(dir);
+      return isTerminated();
+    }
+
+    FileVisitResult verdict = handler.preVisitDirectory(dir, attrs);
+    if (isTerminated() == FileVisitResult.TERMINATE || verdict == FileVisitResult.TERMINATE) {
+      return FileVisitResult.TERMINATE;
+    }
+    if (verdict != FileVisitResult.CONTINUE) {
+      // the directory isn't post visited, so count it now
+      processedDirs++;
+      return verdict;
+    }
+
+    List<Path> entries = listing.getEntries();
+    handler.visitDirectoryEntries(dir, entries);
+
+    List<BasicFileAttributes> entriesAttrs = listing.getAttributes();
+    List<Path> subDirectories = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) {
+      BasicFileAttributes entryAttrs = entriesAttrs.get(i);
+      if (entryAttrs != null && entryAttrs.isDirectory()) {
+        subDirectories.add(entries.get(i));
+      }
+    }
+    Level level = new Level(subDirectories);
+    levels.push(level);
+
+    FileVisitResult result = FileVisitResult.CONTINUE;
+    try {
+      readAhead();
+      for (int i = 0; i < entries.size() && result == FileVisitResult.CONTINUE; i++) {
+        Path entry = entries.get(i);
+        BasicFileAttributes entryAttrs = entriesAttrs.get(i);
+        if (entryAttrs == null) {
+          handler.visitFileFailed(entry);
+          result = isTerminated();
+        } else if (entryAttrs.isDirectory()) {
+          result = walkDirectory(entry, entryAttrs, take(level, entry));
+          if (result == FileVisitResult.SKIP_SUBTREE) {
+            result = FileVisitResult.CONTINUE;
+          }
+        } else {
+          processedFiles++;
+          handler.visitFile(entry, entryAttrs);
+          result = isTerminated();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result = FileVisitResult.TERMINATE;
+    } finally {
+      // the sub-directories that won't be visited
+      levels.remove(level);
+      cancelReadAhead(level);
+    }
+    if (result == FileVisitResult.TERMINATE) {
+      return result;
+    }
+
+    processedDirs++;
+    handler.postVisitDirectory(dir);
+    return isTerminated();
+  }
+
   private FileVisitResult isTerminated() {
     // terminate if the thread has been interrupted
     if (Thread.interrupted() || cancelled) {
@@ -120,4 +335,20 @@ public class WalkFileTree extends Thread {
     }
     return FileVisitResult.CONTINUE;
   }
+
+  /**
+   * The sub-directories of a directory being walked, in the order they're
+   * visited, and their listings read ahead.
+   */
+  private static final class Level {
+    private final List<Path> directories;
+    private final Map<Path, Future<Listing>> pending = new HashMap<>();
+    // the index of the next directory to read ahead, and how many were visited
+    private int next = 0;
+    private int visited = 0;
+
+    Level(List<Path> directories) {
+      this.directories = directories;
+    }
+  }
 }
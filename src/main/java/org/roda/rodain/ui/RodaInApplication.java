@@ -43,6 +43,8 @@ import org.roda.rodain.core.I18n;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.SipRepresentation;
+import org.roda.rodain.core.source.ChecksumCache;
+import org.roda.rodain.core.source.SourceIndex;
 import org.roda.rodain.core.utils.OpenPathInExplorer;
 import org.roda.rodain.ui.creation.CreationModalPreparation;
 import org.roda.rodain.ui.creation.CreationModalStage;
@@ -172,9 +174,10 @@ public class RodaInApplication extends Application {
   private static void closeApp() {
     Controller.exportClassificationScheme(schemePane.getSchemaNodes(),
             ConfigurationManager.getRodainPath().resolve(".plan.temp").toString());
-    // 20170308 hsilva: disabled watchservice
-    // fileExplorer.closeWatcher();
+    fileExplorer.closeWatcher();
     VisitorStack.end();
+    SourceIndex.close();
+    ChecksumCache.close();
     Footer.getInstance().cancelMemoryAutoUpdater();
     Platform.exit();
   }
@@ -332,6 +335,8 @@ public class RodaInApplication extends Application {
 
         ConfigurationManager.initialize();
         LOGGER.info("Done initializing RODA-in folders & properties");
+        SourceIndex.open();
+        ChecksumCache.open();
 
         // load the custom fonts
         Font.loadFont(ClassLoader.getSystemResource("fonts/Ubuntu-Regular.ttf").toExternalForm(), 10);
@@ -8,6 +8,7 @@ import java.util.TimerTask;
 
 import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.Controller;
 import org.roda.rodain.core.I18n;
 import org.roda.rodain.core.creation.CreateSips;
 import org.roda.rodain.core.schema.Sip;
@@ -200,7 +201,7 @@ public class CreationModalProcessing extends BorderPane {
             int errors = creator.getErrorCount();
             double etaDouble = creator.getTimeRemainingEstimate();
             long startedTime = creator.getStartedTime();
-            updateETA(etaDouble);
+            updateETA(etaDouble, creator.getThroughput());
             double prog = creator.getProgress();
 
             if (errors > 0) {
@@ -233,14 +234,15 @@ public class CreationModalProcessing extends BorderPane {
     timer.schedule(updater, 0, 200);
   }
 
-  private void updateETA(double etaDouble) {
+  private void updateETA(double etaDouble, double throughput) {
     if (etaDouble >= 0) {
       if (etaBox.getChildren().isEmpty()) {
         etaBox.getChildren().addAll(etaLabel, eta);
       }
       int second = (int) ((etaDouble / 1000) % 60);
       int minute = (int) ((etaDouble / (1000 * 60)) % 60);
-      int hour = (int) ((etaDouble / (1000 * 60 * 60)) % 24);
+      // long exports can take more than a day
+      int hour = (int) (etaDouble / (1000 * 60 * 60));
       String result;
       if (hour > 0) {
         if (hour == 1)
@@ -256,6 +258,9 @@ public class CreationModalProcessing extends BorderPane {
         result = etaFormatLessMin;
       } else
         result = etaFormatLess30;
+      if (throughput > 0) {
+        result = result.trim() + String.format(" (%s/s)", Controller.formatSize((long) throughput));
+      }
       eta.setText(result);
     } else {
       etaBox.getChildren().clear();
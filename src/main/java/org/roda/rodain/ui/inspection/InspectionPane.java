@@ -1476,13 +1476,13 @@ public class InspectionPane extends BorderPane {
   private TreeItem<Object> recCreateSipContent(TreeNode node, TreeItem parent) {
     SipContentDirectory result;
     Path path = node.getPath();
-    if (Files.isDirectory(path))
+    if (node.isDirectory())
       result = new SipContentDirectory(node, parent);
     else
       return new SipContentFile(path, parent);
 
-    for (String key : node.getKeys()) {
-      TreeItem<Object> temp = recCreateSipContent(node.get(key), result);
+    for (TreeNode child : node.getChildren().values()) {
+      TreeItem<Object> temp = recCreateSipContent(child, result);
       result.getChildren().add(temp);
     }
     result.sortChildren();
@@ -2183,9 +2183,11 @@ public class InspectionPane extends BorderPane {
     Set<TreeNode> result = dc.start();
 
     // Set paths as mapped
+    Set<Path> mappedPaths = new HashSet<>();
     for (TreeNode tn : result) {
-      PathCollection.addPath(tn.getPath(), PathState.MAPPED);
+      mappedPaths.add(tn.getPath());
     }
+    PathCollection.addAllPaths(mappedPaths, PathState.MAPPED);
 
     // Add to the SIP, either to a Directory or to a Representation
     // Also add to the tree
@@ -1,29 +1,26 @@
 package org.roda.rodain.ui.inspection.trees;
 
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Observable;
 import java.util.Set;
 
 import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.rules.filters.ContentFilter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.roda.rodain.core.utils.TreeVisitor;
+import org.roda.rodain.core.utils.WalkFileTree;
 
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 08-03-2016.
  */
-public class ContentCreator extends Observable {
-  private static final Logger LOGGER = LoggerFactory.getLogger(ContentCreator.class.getName());
+public class ContentCreator extends Observable implements TreeVisitor {
   private Deque<TreeNode> nodes;
   private Set<TreeNode> files;
   private Set<Path> paths;
@@ -45,57 +42,24 @@ public class ContentCreator extends Observable {
     files = new HashSet<>();
   }
 
+  /**
+   * Walks the paths in the calling thread, sharing the listings already read
+   * by the explorer and the rules.
+   *
+   * @return The TreeNodes of the paths that aren't filtered.
+   */
   public Set<TreeNode> start() {
+    Set<String> startPaths = new LinkedHashSet<>();
     for (Path path : paths) {
-      // walkFileTree doesn't work if the start path is a file, so we call the
-      // method directly
-      if (!Files.isDirectory(path)) {
-        visitFile(path, null);
-      } else {
-        try {
-          ContentCreator refToThis = this;
-          Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-              refToThis.visitFile(file, attrs);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-              refToThis.preVisitDirectory(dir, attrs);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-              refToThis.postVisitDirectory(dir);
-              return isTerminated();
-            }
-          });
-        } catch (AccessDeniedException e) {
-          LOGGER.info("Access denied to file", e);
-        } catch (IOException e) {
-          LOGGER.error("Error walking the file tree", e);
-        }
-      }
+      startPaths.add(path.toString());
     }
-    end();
+    new WalkFileTree(startPaths, this).run();
     return files;
   }
 
-  private FileVisitResult isTerminated() {
-    // terminate if the thread has been interrupted
-    if (Thread.interrupted() || cancelled) {
-      return FileVisitResult.TERMINATE;
-    }
-    return FileVisitResult.CONTINUE;
-  }
-
   private boolean filter(Path path) {
-    String pathString = path.toString();
     for (ContentFilter cf : filters) {
-      if (cf.filter(pathString))
+      if (cf.filter(path))
         return true;
     }
     return false;
@@ -109,12 +73,32 @@ public class ContentCreator extends Observable {
    *          The path of the directory.
    * @param attrs
    *          The attributes of the directory.
+   * @return {@link FileVisitResult#SKIP_SUBTREE} if the directory is mapped or
+   *         ignored, {@link FileVisitResult#CONTINUE} otherwise.
    */
-  private void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled)
-      return;
-    TreeNode newNode = new TreeNode(path);
+  @Override
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    if (cancelled)
+      return FileVisitResult.TERMINATE;
+    if (filter(path))
+      return FileVisitResult.SKIP_SUBTREE;
+    TreeNode newNode = new TreeNode(path, attrs);
     nodes.add(newNode);
+    return FileVisitResult.CONTINUE;
+  }
+
+  /**
+   * This method is empty in this class, but it's defined because of the
+   * TreeVisitor interface.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param entries
+   *          The entries of the directory.
+   */
+  @Override
+  public void visitDirectoryEntries(Path path, List<Path> entries) {
+    // do nothing
   }
 
   /**
@@ -124,7 +108,8 @@ public class ContentCreator extends Observable {
    * @param path
    *          The path of the directory.
    */
-  private void postVisitDirectory(Path path) {
+  @Override
+  public void postVisitDirectory(Path path) {
     if (filter(path) || cancelled)
       return;
     // pop the node of this directory and add it to its parent (if it exists)
@@ -144,25 +129,56 @@ public class ContentCreator extends Observable {
    * @param attrs
    *          The attributes of the visited file
    */
-  private void visitFile(Path path, BasicFileAttributes attrs) {
+  @Override
+  public void visitFile(Path path, BasicFileAttributes attrs) {
     if (filter(path) || cancelled) {
       return;
     }
     if (nodes.isEmpty())
-      files.add(new TreeNode(path));
+      files.add(new TreeNode(path, attrs));
     else
-      nodes.peekLast().add(path);
+      nodes.peekLast().add(new TreeNode(path, attrs));
   }
 
   /**
    * Ends the tree visit, creating the SIP with all the files added during the
    * visit and notifying the observers.
    */
-  private void end() {
+  @Override
+  public void end() {
     setChanged();
     notifyObservers();
   }
 
+  /**
+   * This method is empty in this class, but it's defined because of the
+   * TreeVisitor interface.
+   *
+   * @param path
+   *          The path of the file.
+   */
+  @Override
+  public void visitFileFailed(Path path) {
+    // do nothing
+  }
+
+  /**
+   * This method is empty in this class, but it's defined because of the
+   * TreeVisitor interface.
+   *
+   * @param path
+   *          The starting path.
+   */
+  @Override
+  public void setStartPath(String path) {
+    // do nothing
+  }
+
+  @Override
+  public String getId() {
+    return "content";
+  }
+
   public Set<TreeNode> getFiles() {
     return files;
   }
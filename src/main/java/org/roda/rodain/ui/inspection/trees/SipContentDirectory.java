@@ -1,7 +1,6 @@
 package org.roda.rodain.ui.inspection.trees;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -143,8 +142,8 @@ public class SipContentDirectory extends TreeItem<Object> implements InspectionT
   public void flatten() {
     treeNode.flatten();
     getChildren().clear();
-    for (String path : treeNode.getKeys()) {
-      SipContentFile file = new SipContentFile(Paths.get(path), this);
+    for (TreeNode child : treeNode.getChildren().values()) {
+      SipContentFile file = new SipContentFile(child.getPath(), this);
       getChildren().add(file);
     }
     sortChildren();
@@ -1,11 +1,12 @@
 package org.roda.rodain.ui.rules;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
@@ -18,14 +19,12 @@ import org.roda.rodain.core.Constants.MetadataOption;
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.Constants.RuleType;
 import org.roda.rodain.core.PathCollection;
-import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.rules.filters.ContentFilter;
 import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.PseudoDescriptionObject;
 import org.roda.rodain.core.sip.PseudoItem;
 import org.roda.rodain.core.sip.PseudoSIP;
 import org.roda.rodain.core.sip.SipPreview;
-import org.roda.rodain.core.sip.SipRepresentation;
 import org.roda.rodain.core.sip.creators.SipPerFile;
 import org.roda.rodain.core.sip.creators.SipPerSelection;
 import org.roda.rodain.core.sip.creators.SipPreviewCreator;
@@ -50,6 +49,8 @@ import javafx.scene.paint.Color;
 public class Rule extends Observable implements Observer, Comparable {
   // this ruleCount is used to determine the ID of each rule
   private static int ruleCount = 0;
+  // the number of SIP roots set as NORMAL at a time when the rule is removed
+  private static final int REMOVE_BATCH_SIZE = 1000;
 
   private Set<SourceTreeItem> source;
   private String templateType, metadataVersion, parentID;
@@ -370,30 +371,25 @@ public class Rule extends Observable implements Observer, Comparable {
     Task<Void> task = new Task<Void>() {
       @Override
       protected Void call() throws Exception {
-        int paths = 0, removedPaths = 0;
+        // only the roots of the SIPs' trees are set as NORMAL
+        List<Path> roots = new ArrayList<>();
         for (SipPreview sip : sips.values()) {
           sip.setRemoved();
-          for (SipRepresentation sr : sip.getRepresentations()) {
-            for (TreeNode tn : sr.getFiles()) {
-              paths += tn.getFullTreePaths().size();
-            }
-          }
+          roots.addAll(sip.getRootPaths());
         }
 
         sipNodes.clear();
+        for (int from = 0; from < roots.size(); from += REMOVE_BATCH_SIZE) {
+          int to = Math.min(from + REMOVE_BATCH_SIZE, roots.size());
+          PathCollection.addAllPaths(roots.subList(from, to), PathState.NORMAL);
+          float result = (float) to / roots.size();
+          setChanged();
+          notifyObservers(result);
+        }
         for (SipPreview sip : sips.values()) {
-          for (SipRepresentation sr : sip.getRepresentations()) {
-            for (TreeNode tn : sr.getFiles()) {
-              for (String path : tn.getFullTreePaths()) {
-                PathCollection.addPath(Paths.get(path), PathState.NORMAL);
-                removedPaths++;
-                float result = (float) removedPaths / paths;
-                setChanged();
-                notifyObservers(result);
-              }
-            }
-          }
+          sip.releaseContent();
         }
+        filters.forEach(ContentFilter::release);
         sips.clear();
         schemaNodes.clear();
         return null;
@@ -1,12 +1,22 @@
 package org.roda.rodain.ui.rules;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Observable;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.VisitorState;
 import org.roda.rodain.core.utils.TreeVisitor;
 import org.roda.rodain.core.utils.WalkFileTree;
@@ -16,21 +26,50 @@ import org.slf4j.LoggerFactory;
 import javafx.concurrent.Task;
 
 /**
+ * Runs the TreeVisitors created by the rules, several at the same time.
+ * <p/>
+ * <p>
+ * A visitor only starts when none of its paths is the same as, or is under or
+ * above, a path of a visitor that is running or that was added before it and
+ * is still waiting. So the visitors of rules applied to disjoint folders run in
+ * parallel, up to the configured number, and the visitors of overlapping rules
+ * still run one at a time, in the order they were added.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 06-10-2015.
  */
 public class VisitorStack extends Observable {
   private static final Logger LOGGER = LoggerFactory.getLogger(VisitorStack.class.getName());
+  private static final int DEFAULT_CONCURRENCY = 2;
   private static ExecutorService visitors;
   private HashMap<String, Future> futures;
-  private String runningTask;
+  private Set<String> runningTasks;
+  private final int concurrency;
+  // the visitors waiting to start, in the order they were added, and the ones
+  // that started and haven't finished
+  private final List<Admission> waiting = new ArrayList<>();
+  private final List<Admission> admitted = new ArrayList<>();
 
   /**
    * Creates a new VisitorStack object.
    */
   public VisitorStack() {
-    visitors = Executors.newSingleThreadExecutor();
+    this(getConcurrency());
+  }
+
+  private VisitorStack(int concurrency) {
+    this(concurrency, Executors.newFixedThreadPool(concurrency));
+  }
+
+  /*
+   * Runs up to the number of visitors at the same time in the executor.
+   */
+  VisitorStack(int concurrency, ExecutorService executor) {
+    this.concurrency = concurrency;
+    visitors = executor;
     futures = new HashMap<>();
+    runningTasks = Collections.newSetFromMap(new ConcurrentHashMap<>());
   }
 
   /**
@@ -38,7 +77,8 @@ public class VisitorStack extends Observable {
    * <p/>
    * <p>
    * Creates a new WalkFileTree with the set of paths and TreeVisitor received
-   * as parameter. Wraps it in a Task and adds the Task to an ExecutorService.
+   * as parameter. Wraps it in a Task and adds the Task to an ExecutorService
+   * when no running or previous visitor has overlapping paths.
    * </p>
    *
    * @param paths
@@ -51,9 +91,11 @@ public class VisitorStack extends Observable {
   public WalkFileTree add(Set<String> paths, TreeVisitor vis) {
     final WalkFileTree walker = new WalkFileTree(paths, vis);
     final String id = vis.getId();
+    final Admission admission = new Admission(paths);
     Task toRun = new Task<Void>() {
       @Override
       public Void call() {
+        runningTasks.add(id);
         update();
         walker.start();
         try {
@@ -64,28 +106,94 @@ public class VisitorStack extends Observable {
         }
         return null;
       }
+
+      // also called when the task is cancelled before it runs, while waiting
+      // for a thread of the executor
+      @Override
+      protected void done() {
+        super.done();
+        runningTasks.remove(id);
+        finished(admission);
+      }
     };
-    toRun.setOnRunning(event -> {
-      runningTask = id;
-      update();
-    });
+    admission.task = toRun;
+    toRun.setOnRunning(event -> update());
     // notify the observers when the task finishes
-    toRun.setOnSucceeded(event -> {
-      runningTask = null;
-      update();
-    });
+    toRun.setOnSucceeded(event -> update());
 
     toRun.setOnCancelled(event -> {
       walker.interrupt();
       update();
     });
 
-    Future fut = visitors.submit(toRun);
-    futures.put(vis.getId(), fut);
+    futures.put(vis.getId(), toRun);
+    synchronized (this) {
+      waiting.add(admission);
+      admit();
+    }
     update();
     return walker;
   }
 
+  /*
+   * Starts the waiting visitors whose paths don't overlap the paths of the
+   * running visitors or of the visitors waiting before them.
+   */
+  private synchronized void admit() {
+    for (Admission next : admit(waiting, admitted, concurrency)) {
+      visitors.execute(next.task);
+    }
+  }
+
+  /*
+   * Moves the waiting visitors, in order, whose paths don't overlap the paths
+   * of the admitted visitors or of the visitors waiting before them, to the
+   * admitted visitors, up to the concurrency. The cancelled visitors are
+   * dropped. Returns the visitors to start.
+   */
+  static List<Admission> admit(List<Admission> waiting, List<Admission> admitted, int concurrency) {
+    List<Admission> result = new ArrayList<>();
+    List<Admission> blocking = new ArrayList<>(admitted);
+    Iterator<Admission> iterator = waiting.iterator();
+    while (iterator.hasNext() && admitted.size() < concurrency) {
+      Admission next = iterator.next();
+      if (next.task.isCancelled()) {
+        iterator.remove();
+        continue;
+      }
+      if (blocking.stream().noneMatch(next::overlaps)) {
+        iterator.remove();
+        admitted.add(next);
+        result.add(next);
+      }
+      blocking.add(next);
+    }
+    return result;
+  }
+
+  /*
+   * Lets the visitors waiting for a visitor that ended or was cancelled start.
+   */
+  private synchronized void finished(Admission admission) {
+    admitted.remove(admission);
+    if (!visitors.isShutdown()) {
+      admit();
+    }
+  }
+
+  private static int getConcurrency() {
+    int result = DEFAULT_CONCURRENCY;
+    String configured = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_VISITOR_STACK_CONCURRENCY);
+    if (configured != null && !configured.trim().isEmpty()) {
+      try {
+        result = Math.max(1, Integer.parseInt(configured.trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid number of concurrent rules '{}', using {}", configured, result);
+      }
+    }
+    return result;
+  }
+
   private void update() {
     setChanged();
     notifyObservers();
@@ -101,7 +209,7 @@ public class VisitorStack extends Observable {
     Future fut = futures.get(visitorId);
     if (fut == null)
       return VisitorState.VISITOR_NOTSUBMITTED;
-    if (runningTask != null && visitorId.equals(runningTask))
+    if (runningTasks.contains(visitorId))
       return VisitorState.VISITOR_RUNNING;
     if (fut.isDone())
       return VisitorState.VISITOR_DONE;
@@ -122,6 +230,7 @@ public class VisitorStack extends Observable {
   public boolean cancel(TreeVisitor vis) {
     boolean result = false;
     if (vis != null && futures.containsKey(vis.getId())) {
+      // a visitor that was waiting lets others start when its task is done
       result = futures.get(vis.getId()).cancel(true);
     }
     return result;
@@ -136,4 +245,29 @@ public class VisitorStack extends Observable {
     if (visitors != null)
       visitors.shutdownNow();
   }
+
+  /**
+   * A visitor's task and the paths it visits.
+   */
+  static final class Admission {
+    private final List<Path> paths = new ArrayList<>();
+    FutureTask<?> task;
+
+    Admission(Set<String> paths) {
+      for (String path : paths) {
+        this.paths.add(Paths.get(path));
+      }
+    }
+
+    boolean overlaps(Admission other) {
+      for (Path path : paths) {
+        for (Path otherPath : other.paths) {
+          if (path.startsWith(otherPath) || otherPath.startsWith(path)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
 }
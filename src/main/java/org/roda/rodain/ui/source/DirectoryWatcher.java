@@ -1,75 +1,505 @@
 package org.roda.rodain.ui.source;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.source.DirectorySizes;
+import org.roda.rodain.core.source.SourceMetadataCache;
+import org.roda.rodain.core.source.representation.SourceDirectory;
+import org.roda.rodain.core.source.representation.SourceItem;
+import org.roda.rodain.ui.source.items.SourceTreeDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.application.Platform;
+
 /**
- * FIXME 20170310 hsilva: this class will/should/must be removed
- * 
+ * Watches the directories loaded in the file explorer and updates their
+ * children when entries are created or deleted, without loading them again.
+ * <p/>
+ * <p>
+ * The directories are registered in a {@link WatchService} when they're
+ * expanded and unregistered when they're collapsed, up to a maximum number per
+ * root of the file explorer. The directories past that maximum, the ones that
+ * can't be registered and the ones in network file systems, where the
+ * WatchService doesn't see the changes made by other machines, are polled
+ * instead: their modification time is checked periodically, less often while it
+ * doesn't change, and they're listed again when it changes. Only a maximum
+ * number of directories are polled, the ones registered longest ago stop being
+ * polled first.
+ * </p>
+ * <p>
+ * A directory expanded again is listed again, as it wasn't watched while it was
+ * collapsed. The directories are registered and unregistered, listed, and the
+ * created entries read, in the watcher's thread, so the JavaFX thread only
+ * queues the requests and updates the tree, and a slow or unresponsive mount
+ * never blocks it. The queued requests are handled in order, at least every
+ * second.
+ * </p>
+ * <p>
+ * The events signalled during a short window are coalesced by directory and
+ * applied to the tree in a single batch. When the WatchService loses events
+ * (an OVERFLOW), only the directory where they were lost is listed again.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 29-08-2016.
  */
-@Deprecated
 public class DirectoryWatcher extends Thread {
   private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryWatcher.class.getName());
+  private static final long BATCH_WINDOW = 300; // in milliseconds
+  private static final long MAX_WAIT = 1000; // in milliseconds
+  private static final int DEFAULT_MAX_PER_ROOT = 4096;
+  private static final int DEFAULT_MAX_POLLED = 512;
+  private static final long DEFAULT_POLL_INTERVAL = 10; // in seconds
+  // a directory that doesn't change is polled up to 8 times less often
+  private static final int MAX_POLL_BACKOFF = 8;
+  private static final Set<String> NETWORK_FILE_SYSTEMS = new HashSet<>(
+    Arrays.asList("nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "fuse.sshfs", "afpfs", "webdav"));
+
+  private static DirectoryWatcher instance;
+
+  private final WatchService watchService;
+  private final int maxPerRoot;
+  private final int maxPolled;
+  private final long pollInterval;
+  private final Map<WatchKey, SourceTreeDirectory> keys = new ConcurrentHashMap<>();
+  private final Map<Path, WatchKey> watched = new ConcurrentHashMap<>();
+  // in the order they were registered, guarded by itself
+  private final Map<Path, Polled> polled = new LinkedHashMap<>();
+  // the root of each registered directory
+  private final Map<Path, Path> registered = new ConcurrentHashMap<>();
+  private final Map<Path, AtomicInteger> watchedPerRoot = new ConcurrentHashMap<>();
+  // the directories expanded again, to be listed again
+  private final Map<Path, SourceTreeDirectory> expandedAgain = new ConcurrentHashMap<>();
+  // the registrations and unregistrations, handled by the watcher's thread
+  private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed = false;
+
+  private DirectoryWatcher(WatchService watchService) {
+    super("directory-watcher");
+    setDaemon(true);
+    this.watchService = watchService;
+    maxPerRoot = (int) getConfig(Constants.CONF_K_APP_DIRECTORY_WATCHER_MAX_PER_ROOT, DEFAULT_MAX_PER_ROOT);
+    maxPolled = (int) getConfig(Constants.CONF_K_APP_DIRECTORY_WATCHER_MAX_POLLED, DEFAULT_MAX_POLLED);
+    pollInterval = getConfig(Constants.CONF_K_APP_DIRECTORY_WATCHER_POLL_INTERVAL, DEFAULT_POLL_INTERVAL) * 1000;
+  }
+
+  /**
+   * Starts watching a directory of the file explorer, if it isn't watched
+   * yet.
+   *
+   * @param item
+   *          The item of the directory.
+   */
+  public static void register(SourceTreeDirectory item) {
+    DirectoryWatcher watcher = getInstance();
+    if (watcher != null) {
+      Path dir = Paths.get(item.getPath());
+      Path root = getRoot(item);
+      boolean loaded = item.getDirectory() != null && item.getDirectory().isFirstLoaded();
+      long queued = System.currentTimeMillis();
+      watcher.requests.add(() -> watcher.add(item, dir, root, loaded, queued));
+    }
+  }
+
+  /**
+   * Stops watching a directory of the file explorer, for example when it's
+   * collapsed.
+   *
+   * @param item
+   *          The item of the directory.
+   */
+  public static void unregister(SourceTreeDirectory item) {
+    DirectoryWatcher watcher = instance;
+    if (watcher != null && item.getPath() != null && !item.getPath().isEmpty()) {
+      Path dir = Paths.get(item.getPath());
+      watcher.requests.add(() -> watcher.remove(dir));
+    }
+  }
+
+  /**
+   * Stops watching the directories under a root of the file explorer.
+   *
+   * @param root
+   *          The path of the root.
+   */
+  public static void unregisterRoot(Path root) {
+    DirectoryWatcher watcher = instance;
+    if (watcher != null) {
+      watcher.requests.add(() -> watcher.removeRoot(root));
+    }
+  }
+
+  /**
+   * Stops watching all the directories.
+   */
+  public static synchronized void close() {
+    if (instance != null) {
+      instance.closed = true;
+      instance.interrupt();
+      try {
+        if (instance.watchService != null) {
+          instance.watchService.close();
+        }
+      } catch (IOException e) {
+        LOGGER.debug("Error closing file explorer watcher", e);
+      }
+    }
+  }
+
+  private static synchronized DirectoryWatcher getInstance() {
+    if (instance == null) {
+      String enabled = ConfigurationManager.getAppConfig(Constants.CONF_K_APP_DIRECTORY_WATCHER_ENABLED);
+      if (enabled != null && !Boolean.parseBoolean(enabled.trim())) {
+        return null;
+      }
+      WatchService watchService = null;
+      try {
+        watchService = FileSystems.getDefault().newWatchService();
+      } catch (IOException | UnsupportedOperationException e) {
+        LOGGER.warn("Can't create a WatchService, the file explorer's directories will be polled", e);
+      }
+      instance = new DirectoryWatcher(watchService);
+      instance.start();
+    }
+    return instance;
+  }
+
+  private void add(SourceTreeDirectory item, Path dir, Path root, boolean loaded, long queued) {
+    if (closed || registered.putIfAbsent(dir, root) != null) {
+      return;
+    }
+    if (loaded || modifiedSince(dir, queued)) {
+      // it may have changed before it was watched
+      expandedAgain.put(dir, item);
+    }
+    if (watchService != null && !isNetworkFileSystem(dir)) {
+      AtomicInteger count = watchedPerRoot.computeIfAbsent(root, path -> new AtomicInteger());
+      if (count.incrementAndGet() <= maxPerRoot) {
+        try {
+          WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+          keys.put(key, item);
+          watched.put(dir, key);
+          return;
+        } catch (IOException | UnsupportedOperationException e) {
+          LOGGER.debug("Can't register {} in the WatchService, it will be polled", dir, e);
+        }
+      }
+      count.decrementAndGet();
+    }
+    try {
+      Polled polledDir = new Polled(item, Files.getLastModifiedTime(dir), System.currentTimeMillis() + pollInterval);
+      synchronized (polled) {
+        polled.put(dir, polledDir);
+        if (polled.size() > maxPolled) {
+          Path oldest = polled.keySet().iterator().next();
+          LOGGER.debug("Polling too many directories, {} won't be updated", oldest);
+          remove(oldest);
+        }
+      }
+    } catch (IOException e) {
+      registered.remove(dir);
+      LOGGER.debug("Can't poll {}, it won't be updated", dir, e);
+    }
+  }
+
+  private static boolean modifiedSince(Path dir, long time) {
+    try {
+      return Files.getLastModifiedTime(dir).toMillis() >= time;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void remove(Path dir) {
+    Path root = registered.remove(dir);
+    if (root == null) {
+      return;
+    }
+    expandedAgain.remove(dir);
+    WatchKey key = watched.remove(dir);
+    if (key != null) {
+      key.cancel();
+      keys.remove(key);
+      AtomicInteger count = watchedPerRoot.get(root);
+      if (count != null) {
+        count.decrementAndGet();
+      }
+    }
+    synchronized (polled) {
+      polled.remove(dir);
+    }
+  }
+
+  private void removeRoot(Path root) {
+    for (Path dir : new ArrayList<>(registered.keySet())) {
+      if (dir.startsWith(root)) {
+        remove(dir);
+      }
+    }
+    watchedPerRoot.remove(root);
+  }
 
   @Override
   public void run() {
-    // 20170308 hsilva: disabled watchservice
-    // for (;;) {
-    //
-    // // wait for key to be signaled
-    // WatchKey key;
-    // try {
-    // key = watcher.take();
-    // } catch (InterruptedException | ClosedWatchServiceException x) {
-    // return;
-    // }
-    //
-    // // WatchKey watchable returns the calling Path object of Path.register
-    // Path watchedPath = (Path) key.watchable();
-    //
-    // for (WatchEvent<?> event : key.pollEvents()) {
-    // WatchEvent.Kind<?> kind = event.kind();
-    //
-    // // This key is registered only
-    // // for ENTRY_CREATE and ENTRY_DELETE events,
-    // // but an OVERFLOW event can
-    // // occur regardless if events
-    // // are lost or discarded.
-    // if (kind == OVERFLOW) {
-    // continue;
-    // }
-    //
-    // // The filename is the
-    // // context of the event.
-    // WatchEvent<Path> ev = (WatchEvent<Path>) event;
-    // Path filename = ev.context();
-    //
-    // String fullPath = watchedPath.resolve(filename).toString();
-    // SourceTreeItem sourceTreeItem = PathCollection.getItem(watchedPath);
-    // if (sourceTreeItem instanceof SourceTreeDirectory) {
-    // SourceTreeDirectory directory = ((SourceTreeDirectory) sourceTreeItem);
-    // if (kind == ENTRY_CREATE) {
-    // directory.addChild(fullPath);
-    // } else if (kind == ENTRY_DELETE) {
-    // SourceTreeItem itemToDelete =
-    // PathCollection.getItem(Paths.get(fullPath));
-    // if (itemToDelete != null) {
-    // directory.removeChild(itemToDelete);
-    // }
-    // PathCollection.removePathAndItem(Paths.get(fullPath));
-    // }
-    // }
-    // }
-    //
-    // // Reset the key -- this step is critical if you want to
-    // // receive further watch events. If the key is no longer valid,
-    // // the directory is inaccessible so exit the loop.
-    // boolean valid = key.reset();
-    // if (!valid) {
-    // break;
-    // }
-    // }
+    long nextPoll = System.currentTimeMillis() + pollInterval;
+    while (!closed) {
+      Map<Path, Changes> batch = new LinkedHashMap<>();
+      try {
+        // wakes up at least every MAX_WAIT for the directories expanded again
+        long timeout = Math.max(1, Math.min(MAX_WAIT, nextPoll - System.currentTimeMillis()));
+        WatchKey key;
+        if (watchService == null) {
+          Thread.sleep(timeout);
+          key = null;
+        } else {
+          key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+        if (key != null) {
+          // coalesce the events signalled in a short window
+          long end = System.currentTimeMillis() + BATCH_WINDOW;
+          do {
+            collect(key, batch);
+            key = watchService.poll(Math.max(1, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+          } while (key != null);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      for (Runnable request = requests.poll(); request != null; request = requests.poll()) {
+        request.run();
+      }
+      if (System.currentTimeMillis() >= nextPoll) {
+        poll(batch);
+        nextPoll = System.currentTimeMillis() + pollInterval;
+      }
+      for (Path dir : expandedAgain.keySet()) {
+        SourceTreeDirectory item = expandedAgain.remove(dir);
+        if (item != null) {
+          // its cached listing is still used if the directory didn't change
+          batch.computeIfAbsent(dir, path -> new Changes(item, false)).rescan = true;
+        }
+      }
+      if (!batch.isEmpty()) {
+        apply(batch);
+      }
+    }
+  }
+
+  private void collect(WatchKey key, Map<Path, Changes> batch) {
+    SourceTreeDirectory item = keys.get(key);
+    Path dir = (Path) key.watchable();
+    if (item != null) {
+      Changes changes = batch.computeIfAbsent(dir, path -> new Changes(item, true));
+      for (WatchEvent<?> event : key.pollEvents()) {
+        changes.add(dir, event);
+      }
+    }
+    // the key is invalid when the directory can no longer be watched, for
+    // example because it was deleted
+    if (!key.reset() && watched.get(dir) == key) {
+      remove(dir);
+    }
+  }
+
+  /*
+   * Checks the polled directories that are due, without holding the lock while
+   * accessing the disk.
+   */
+  private void poll(Map<Path, Changes> batch) {
+    long now = System.currentTimeMillis();
+    Map<Path, Polled> due = new LinkedHashMap<>();
+    synchronized (polled) {
+      for (Map.Entry<Path, Polled> entry : polled.entrySet()) {
+        if (entry.getValue().next <= now) {
+          due.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    for (Map.Entry<Path, Polled> entry : due.entrySet()) {
+      Polled polledDir = entry.getValue();
+      try {
+        FileTime modified = Files.getLastModifiedTime(entry.getKey());
+        if (!modified.equals(polledDir.modified)) {
+          polledDir.modified = modified;
+          polledDir.backoff = 1;
+          batch.computeIfAbsent(entry.getKey(), path -> new Changes(polledDir.item, true)).rescan = true;
+        } else {
+          polledDir.backoff = Math.min(MAX_POLL_BACKOFF, polledDir.backoff * 2);
+        }
+        polledDir.next = now + polledDir.backoff * pollInterval;
+      } catch (IOException e) {
+        // deleted, its parent's changes remove it from the tree
+        synchronized (polled) {
+          if (polled.get(entry.getKey()) == polledDir) {
+            remove(entry.getKey());
+          }
+        }
+      }
+    }
+  }
+
+  /*
+   * Drops the cached information of the changed directories and reads their
+   * changes, then applies them to the tree in a single update of the UI.
+   */
+  private void apply(Map<Path, Changes> batch) {
+    List<Runnable> updates = new ArrayList<>();
+    for (Map.Entry<Path, Changes> entry : batch.entrySet()) {
+      Path dir = entry.getKey();
+      Changes changes = entry.getValue();
+      SourceDirectory directory = changes.item.getDirectory();
+      if (changes.changed) {
+        SourceMetadataCache.invalidate(dir);
+        DirectorySizes.invalidate(dir);
+      }
+      if (changes.rescan) {
+        Map<Path, SourceItem> entries = list(directory, dir);
+        if (entries != null) {
+          updates.add(() -> changes.item.applyListing(entries));
+        }
+      } else if (!changes.created.isEmpty() || !changes.deleted.isEmpty()) {
+        Map<Path, SourceItem> created = new HashMap<>();
+        for (Path path : changes.created) {
+          created.put(path, directory.createChild(path));
+        }
+        updates.add(() -> changes.item.applyChanges(created, changes.deleted));
+      }
+    }
+    if (!updates.isEmpty()) {
+      LOGGER.debug("Applying the changes of {} directories", updates.size());
+      Platform.runLater(() -> updates.forEach(Runnable::run));
+    }
+  }
+
+  private static Map<Path, SourceItem> list(SourceDirectory directory, Path dir) {
+    try {
+      SourceMetadataCache.Listing listing = SourceMetadataCache.getListing(dir);
+      Map<Path, SourceItem> entries = new HashMap<>();
+      for (int i = 0; i < listing.size(); i++) {
+        Path entry = listing.getEntries().get(i);
+        entries.put(entry, directory.createChild(entry, listing.getAttributes().get(i)));
+      }
+      return entries;
+    } catch (IOException e) {
+      LOGGER.debug("Can't list {} again", dir, e);
+      return null;
+    }
+  }
+
+  private static Path getRoot(SourceTreeDirectory item) {
+    SourceTreeDirectory root = item;
+    while (root.getParentDir() != null && root.getParentDir().getPath() != null
+      && !root.getParentDir().getPath().isEmpty()) {
+      root = root.getParentDir();
+    }
+    return Paths.get(root.getPath());
+  }
+
+  private static boolean isNetworkFileSystem(Path dir) {
+    try {
+      return isNetworkFileSystemType(Files.getFileStore(dir).type());
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  static boolean isNetworkFileSystemType(String type) {
+    return NETWORK_FILE_SYSTEMS.contains(type.toLowerCase(Locale.ROOT));
+  }
+
+  private static long getConfig(String key, long defaultValue) {
+    String configured = ConfigurationManager.getAppConfig(key);
+    if (configured != null && !configured.trim().isEmpty()) {
+      try {
+        return Long.parseLong(configured.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid value '{}' for {}, using {}", configured, key, defaultValue);
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * A polled directory, with its last modification time and when it's checked
+   * next. Only used by the watcher's thread once added.
+   */
+  private static final class Polled {
+    private final SourceTreeDirectory item;
+    private FileTime modified;
+    private long next;
+    private int backoff = 1;
+
+    Polled(SourceTreeDirectory item, FileTime modified, long next) {
+      this.item = item;
+      this.modified = modified;
+      this.next = next;
+    }
+  }
+
+  /**
+   * The entries created and deleted in a directory during a batch, or whether
+   * the directory must be listed again. A directory that was only expanded
+   * again isn't known to have changed.
+   */
+  static final class Changes {
+    private final SourceTreeDirectory item;
+    private final boolean changed;
+    final Set<Path> created = new HashSet<>();
+    final Set<Path> deleted = new HashSet<>();
+    boolean rescan = false;
+
+    Changes(SourceTreeDirectory item, boolean changed) {
+      this.item = item;
+      this.changed = changed;
+    }
+
+    /*
+     * Folds an event of the directory into the changes, the last event of an
+     * entry wins. An overflow lists the directory again.
+     */
+    void add(Path dir, WatchEvent<?> event) {
+      if (event.kind() == OVERFLOW) {
+        rescan = true;
+        return;
+      }
+      Path entry = dir.resolve((Path) event.context());
+      if (event.kind() == ENTRY_CREATE) {
+        deleted.remove(entry);
+        created.add(entry);
+      } else if (event.kind() == ENTRY_DELETE) {
+        created.remove(entry);
+        deleted.add(entry);
+      }
+    }
   }
 }
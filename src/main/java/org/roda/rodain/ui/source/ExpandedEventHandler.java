@@ -25,6 +25,9 @@ public class ExpandedEventHandler implements EventHandler<TreeItem.TreeModificat
     // We only load new items if this hasn't been done before
     if (!source.getDirectory().isFirstLoaded()) {
       source.loadMore();
+    } else {
+      // it wasn't watched while collapsed
+      DirectoryWatcher.register(source);
     }
   }
 }
@@ -22,7 +22,6 @@ import org.roda.rodain.core.I18n;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.source.ComputeDirectorySize;
 import org.roda.rodain.core.source.representation.SourceDirectory;
-import org.roda.rodain.core.utils.WalkFileTree;
 import org.roda.rodain.ui.Footer;
 import org.roda.rodain.ui.RodaInApplication;
 import org.roda.rodain.ui.source.items.SourceTreeDirectory;
@@ -30,6 +29,7 @@ import org.roda.rodain.ui.source.items.SourceTreeItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
@@ -55,6 +55,7 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import javafx.util.Duration;
 
 /**
  * @author Andre Pereira apereira@keep.pt
@@ -62,8 +63,6 @@ import javafx.stage.StageStyle;
  */
 public class FileExplorerPane extends BorderPane implements Observer {
   private static final Logger LOGGER = LoggerFactory.getLogger(FileExplorerPane.class.getName());
-  // 20170308 hsilva: disabled watchservice
-  // public static final WatchService watcher = createWatcher();
   private Stage stage;
   private HBox top;
   private StackPane fileExplorer;
@@ -79,16 +78,15 @@ public class FileExplorerPane extends BorderPane implements Observer {
 
   // Threads
   private ComputeDirectorySize computeSize;
-  private static DirectoryWatcher directoryWatcher;
 
   // Filter control
   private static boolean showFiles = true;
   private static boolean showIgnored = false;
   private static boolean showMapped = false;
 
-  // This thread is used to walk a directory's file tree and update the UI
-  // periodically with the SIZE and file count
-  private WalkFileTree computeThread;
+  // The selection's size is only computed when the selection stops changing
+  private static final int SIZE_DELAY = 200; // in milliseconds
+  private PauseTransition computeDelay;
 
   /**
    * Creates a new FileExplorerPane object.
@@ -188,6 +186,7 @@ public class FileExplorerPane extends BorderPane implements Observer {
 
       dummyRoot.getChildren().remove(selectedItem);
       realRoots.remove(selectedItem.getPath());
+      DirectoryWatcher.unregisterRoot(Paths.get(selectedItem.getPath()));
       if (realRoots.isEmpty()) {
         this.setTop(top);
         this.setCenter(centerHelp);
@@ -369,13 +368,20 @@ public class FileExplorerPane extends BorderPane implements Observer {
    * Updates the interface with the attributes of the selected items
    */
   private void updateAttributes(Set<String> paths) {
-    // we need to stop the directory size compute thread to avoid more than one
-    // thread updating the ui at the same time
+    // we need to stop the directory size computation to avoid more than one
+    // computation updating the ui at the same time
     stopComputeThread();
-    computeSize = new ComputeDirectorySize();
-    computeSize.addObserver(this);
-    computeThread = new WalkFileTree(paths, computeSize);
-    computeThread.start();
+    if (computeDelay == null) {
+      computeDelay = new PauseTransition(Duration.millis(SIZE_DELAY));
+    }
+    computeDelay.setOnFinished(event -> {
+      computeSize = new ComputeDirectorySize(paths);
+      computeSize.addObserver(this);
+      Thread computeThread = new Thread(computeSize);
+      computeThread.setDaemon(true);
+      computeThread.start();
+    });
+    computeDelay.playFromStart();
   }
 
   @Override
@@ -404,8 +410,8 @@ public class FileExplorerPane extends BorderPane implements Observer {
   }
 
   private void stopComputeThread() {
-    if (computeThread != null)
-      computeThread.interrupt();
+    if (computeSize != null)
+      computeSize.cancel();
   }
 
   public void updateSize(final String start, final long fileCount, final long dirCount, final long size) {
@@ -594,29 +600,10 @@ public class FileExplorerPane extends BorderPane implements Observer {
     }
   }
 
-  // 20170308 hsilva: disabled watchservice
-  // private static WatchService createWatcher() {
-  // WatchService watchService = null;
-  // try {
-  // watchService = FileSystems.getDefault().newWatchService();
-  // directoryWatcher = new DirectoryWatcher();
-  // directoryWatcher.start();
-  // } catch (IOException e) {
-  // LOGGER.warn(
-  // "Can't create a WatchService. The application will be unable to update the
-  // files of the file explorer", e);
-  // }
-  // return watchService;
-  // }
-  //
-  // /**
-  // * Calls the close() method to close the WatchService
-  // */
-  // public void closeWatcher() {
-  // try {
-  // watcher.close();
-  // } catch (IOException e) {
-  // LOGGER.debug("Error closing file explorer watcher", e);
-  // }
-  // }
+  /**
+   * Stops watching the file explorer's directories
+   */
+  public void closeWatcher() {
+    DirectoryWatcher.close();
+  }
 }
@@ -1,15 +1,16 @@
 package org.roda.rodain.ui.source.items;
 
 import java.io.File;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.WatchKey;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.stream.Collectors;
@@ -18,9 +19,11 @@ import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.rules.filters.IgnoredFilter;
+import org.roda.rodain.core.rules.filters.ValidFilesIndex;
 import org.roda.rodain.core.source.representation.SourceDirectory;
 import org.roda.rodain.core.source.representation.SourceItem;
 import org.roda.rodain.ui.rules.Rule;
+import org.roda.rodain.ui.source.DirectoryWatcher;
 import org.roda.rodain.ui.source.ExpandedEventHandler;
 import org.roda.rodain.ui.source.FileExplorerPane;
 import org.slf4j.Logger;
@@ -50,7 +53,6 @@ public class SourceTreeDirectory extends SourceTreeItem {
   public boolean expanded = false;
   private SourceDirectory directory;
   private String fullPath;
-  private WatchKey watchKey;
 
   private HashSet<SourceTreeItem> ignored;
   private HashSet<SourceTreeItem> mapped;
@@ -59,7 +61,6 @@ public class SourceTreeDirectory extends SourceTreeItem {
   public SourceTreeDirectory(Path file, SourceDirectory directory, PathState st, SourceTreeDirectory parent) {
     this(file, directory, parent);
     state = st;
-    PathCollection.simpleAddPath(Paths.get(fullPath));
   }
 
   public SourceTreeDirectory(Path file, SourceDirectory directory, SourceTreeDirectory parent) {
@@ -90,6 +91,7 @@ public class SourceTreeDirectory extends SourceTreeItem {
       SourceTreeDirectory source = SourceTreeDirectory.class.cast(event.getSource());
       if (!source.isExpanded()) {
         source.expanded = false;
+        DirectoryWatcher.unregister(source);
       }
     });
   }
@@ -494,6 +496,9 @@ public class SourceTreeDirectory extends SourceTreeItem {
       .filter(p -> p instanceof SourceTreeLoading || p instanceof SourceTreeLoadMore).collect(Collectors.toList());
     children.removeAll(toRemove);
 
+    // the loaded directories are indexed after they're shown
+    final List<Path> loadedDirectories = new ArrayList<>();
+
     // First we access the disk and save the loaded items to a temporary
     // collection
     Task<Integer> task = new Task<Integer>() {
@@ -503,9 +508,15 @@ public class SourceTreeDirectory extends SourceTreeItem {
         long startTime = System.currentTimeMillis();
 
         if (!loaded.isEmpty()) {
+          for (SourceItem item : loaded.values()) {
+            if (item instanceof SourceDirectory) {
+              loadedDirectories.add(((SourceDirectory) item).getPath());
+            }
+          }
+
           // Add new items
-          for (String sourceItem : loaded.keySet()) {
-            addChild(children, sourceItem);
+          for (Map.Entry<String, SourceItem> sourceItem : loaded.entrySet()) {
+            addChild(children, sourceItem.getKey(), sourceItem.getValue());
           }
           // check if there's more files to load
           if (directory.isStreamOpen())
@@ -519,14 +530,22 @@ public class SourceTreeDirectory extends SourceTreeItem {
     };
 
     // After everything is loaded, we add all the items to the TreeView at once.
-    task.setOnSucceeded(event ->
-    // Set the children
-    getChildren().setAll(children));
+    task.setOnSucceeded(event -> {
+      // Set the children
+      getChildren().setAll(children);
+      // the directories without a valid file are removed when their verdicts
+      // arrive, until then they're shown. Without ignore rules, only the
+      // empty directories are ignored, as they were when added
+      if (IgnoredFilter.hasRules()) {
+        ValidFilesIndex.indexInBackground(loadedDirectories)
+          .thenRun(() -> Platform.runLater(() -> removeIgnoredDirectories(loadedDirectories)));
+      }
+    });
 
     new Thread(task).start();
   }
 
-  private void addChild(List children, String sourceItem) {
+  private void addChild(List children, String sourceItem, SourceItem loadedItem) {
     Path sourceItemPath = Paths.get(sourceItem);
 
     PathState newState = PathCollection.getState(sourceItemPath);
@@ -535,9 +554,9 @@ public class SourceTreeDirectory extends SourceTreeItem {
     }
 
     SourceTreeItem item;
-    if (Files.isDirectory(sourceItemPath)) {
+    if (loadedItem instanceof SourceDirectory) {
       if (newState != PathState.IGNORED) {
-        item = new SourceTreeDirectory(sourceItemPath, directory.getChildDirectory(sourceItemPath), newState, this);
+        item = new SourceTreeDirectory(sourceItemPath, (SourceDirectory) loadedItem, newState, this);
       } else {
         item = null;
       }
@@ -568,6 +587,22 @@ public class SourceTreeDirectory extends SourceTreeItem {
     }
   }
 
+  /*
+   * Removes the loaded directories that turned out to only have ignored files,
+   * like addChild does when their verdicts are known before they're added.
+   */
+  private synchronized void removeIgnoredDirectories(Collection<Path> directories) {
+    for (Path path : directories) {
+      if (IgnoredFilter.isIgnored(path)) {
+        SourceTreeItem item = PathCollection.getItem(path);
+        if (item instanceof SourceTreeDirectory && item.getParentDir() == this) {
+          removeChild(item);
+          PathCollection.removeItem(item);
+        }
+      }
+    }
+  }
+
   private void addChildIgnored(List children, SourceTreeItem item) {
     if (FileExplorerPane.isShowIgnored()) {
       if (item instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
@@ -663,16 +698,88 @@ public class SourceTreeDirectory extends SourceTreeItem {
     });
   }
 
+  /**
+   * Updates the children with the entries created and deleted in the
+   * directory, without loading it again. Must be called in the JavaFX thread,
+   * with the objects of the created entries already created, so the disk isn't
+   * accessed.
+   * <p/>
+   * <p>
+   * The created entries are only added when all the directory's entries are
+   * loaded, otherwise they're found when more entries are loaded.
+   * </p>
+   *
+   * @param created
+   *          The objects of the created entries, by path
+   * @param deleted
+   *          The paths of the deleted entries
+   * @see SourceDirectory#createChild(Path)
+   */
+  public synchronized void applyChanges(Map<Path, SourceItem> created, Collection<Path> deleted) {
+    Set<String> known = getChildrenPaths();
+    for (Path path : deleted) {
+      if (known.contains(path.toString())) {
+        SourceTreeItem item = PathCollection.getItem(path);
+        if (item != null) {
+          removeChild(item);
+        }
+        directory.removeChild(path);
+        PathCollection.removePathAndItem(path);
+      }
+    }
+    if (directory.isFirstLoaded() && !directory.isStreamOpen()) {
+      List<TreeItem<String>> children = new ArrayList<>(getChildren());
+      boolean added = false;
+      for (Map.Entry<Path, SourceItem> entry : created.entrySet()) {
+        if (!known.contains(entry.getKey().toString())) {
+          directory.addChild(entry.getKey(), entry.getValue());
+          addChild(children, entry.getKey().toString(), entry.getValue());
+          added = true;
+        }
+      }
+      if (added) {
+        Collections.sort(children, comparator);
+        getChildren().setAll(children);
+      }
+    }
+  }
+
+  /**
+   * Updates the children with a new listing of the directory, for example when
+   * the changes to the directory weren't seen. Must be called in the JavaFX
+   * thread.
+   *
+   * @param entries
+   *          The objects of all the entries of the directory, by path
+   * @see #applyChanges(Map, Collection)
+   */
+  public synchronized void applyListing(Map<Path, SourceItem> entries) {
+    Set<Path> known = new HashSet<>();
+    for (String path : getChildrenPaths()) {
+      known.add(Paths.get(path));
+    }
+    Map<Path, SourceItem> created = new HashMap<>(entries);
+    created.keySet().removeAll(known);
+    known.removeAll(entries.keySet());
+    applyChanges(created, known);
+  }
+
+  private Set<String> getChildrenPaths() {
+    Set<String> result = new HashSet<>();
+    List<TreeItem<String>> all = new ArrayList<>(getChildren());
+    all.addAll(mapped);
+    all.addAll(ignored);
+    all.addAll(files);
+    for (TreeItem<String> child : all) {
+      String path = ((SourceTreeItem) child).getPath();
+      if (path != null) {
+        result.add(path);
+      }
+    }
+    return result;
+  }
+
   private void addToWatcher() {
-    // 20170308 hsilva: disabled watchservice
-    // try {
-    // if (watchKey == null) {
-    // watchKey = directory.getPath().register(FileExplorerPane.watcher,
-    // ENTRY_CREATE, ENTRY_DELETE);
-    // }
-    // } catch (IOException e) {
-    // LOGGER.warn("Can't register path to watcher. Will be unable to update the
-    // directory: " + directory.getPath(), e);
-    // }
+    DirectoryWatcher.register(this);
   }
 }
@@ -0,0 +1,127 @@
+package org.roda.rodain.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.Constants.PathState;
+
+public class PathCollectionTest {
+  private static Path tempDir;
+  private static Path dir, first, second;
+  private static Path subtree, child, leaf;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(PathCollection.class.getSimpleName());
+    dir = Files.createDirectory(tempDir.resolve("dir"));
+    first = Files.createFile(dir.resolve("first.txt"));
+    second = Files.createFile(dir.resolve("second.txt"));
+    subtree = Files.createDirectory(tempDir.resolve("subtree"));
+    child = Files.createDirectory(subtree.resolve("child"));
+    leaf = Files.createFile(child.resolve("leaf.txt"));
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @After
+  public void reset() {
+    PathCollection.reset();
+  }
+
+  @Test
+  public void testMappingAllChildrenMapsTheDirectory() {
+    PathCollection.addAllPaths(Arrays.asList(first, second), PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+
+    PathCollection.addPath(first, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(first));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(second));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+  }
+
+  @Test
+  public void testUnlistedChildrenKeepTheDirectoryNormal() {
+    PathCollection.addPath(first, PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(first));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(second));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+  }
+
+  @Test
+  public void testIgnoringADirectoryIgnoresItsSubtree() {
+    PathCollection.addPath(subtree, PathState.IGNORED);
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(child));
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(leaf));
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(leaf.toString()));
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(child.resolve("not-created.txt")));
+
+    PathCollection.addPath(subtree, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(child));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(leaf));
+  }
+
+  @Test
+  public void testMappedSubtreeIsRemovedByItsRoot() {
+    PathCollection.addPath(subtree, PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(leaf));
+
+    PathCollection.addPath(subtree, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(subtree));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(child));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(leaf));
+  }
+
+  @Test
+  public void testRemovingAMappedSubtreeKeepsTheOthersMappedUnderIt() {
+    // a rule maps the child and another rule maps the subtree around it
+    PathCollection.addPath(child, PathState.MAPPED);
+    PathCollection.addPath(subtree, PathState.MAPPED);
+
+    PathCollection.addPath(subtree, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(subtree));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(child));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(leaf));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(child.resolve("not-created.txt")));
+
+    PathCollection.addPath(child, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(child));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(leaf));
+  }
+
+  @Test
+  public void testPathInsideAnIgnoredSubtreeKeepsItsOwnState() {
+    PathCollection.addPath(subtree, PathState.IGNORED);
+    PathCollection.addPath(leaf, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(leaf));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(child));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(subtree));
+  }
+
+  @Test
+  public void testRemovingAPathRemovesItsSubtree() {
+    PathCollection.addPath(subtree, PathState.IGNORED);
+    PathCollection.removePathAndItem(subtree);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(subtree));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(leaf));
+  }
+
+  @Test
+  public void testResetReleasesThePaths() {
+    int before = PathRegistry.size();
+    PathCollection.addAllPaths(Arrays.asList(first, second, leaf), PathState.MAPPED);
+    Assert.assertTrue(PathRegistry.size() > before);
+    PathCollection.reset();
+    Assert.assertEquals(before, PathRegistry.size());
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(leaf));
+  }
+}
@@ -0,0 +1,102 @@
+package org.roda.rodain.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PathRegistryTest {
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(PathRegistry.class.getSimpleName());
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @Test
+  public void testEqualPathsShareTheirId() {
+    Path path = tempDir.resolve("equal").resolve("a.txt");
+    int id = PathRegistry.acquire(path);
+    try {
+      Assert.assertEquals(id, PathRegistry.acquire(tempDir.resolve("equal/a.txt")));
+      PathRegistry.release(id);
+      Assert.assertEquals(path, PathRegistry.getPath(id));
+      Assert.assertEquals(id, PathRegistry.findId(path));
+      Assert.assertEquals(id, PathRegistry.findId(path.toString()));
+      Assert.assertEquals("a.txt", PathRegistry.getName(id));
+    } finally {
+      PathRegistry.release(id);
+    }
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(path));
+  }
+
+  @Test
+  public void testAncestorsAreKeptByTheirChildren() {
+    Path parent = tempDir.resolve("ancestors");
+    int first = PathRegistry.acquire(parent.resolve("a.txt"));
+    int second = PathRegistry.acquire(parent.resolve("b.txt"));
+    int parentId = PathRegistry.getParent(first);
+    Assert.assertEquals(parentId, PathRegistry.getParent(second));
+    Assert.assertEquals(parentId, PathRegistry.findId(parent));
+    Assert.assertTrue(PathRegistry.isSameOrDescendant(parentId, first));
+    Assert.assertFalse(PathRegistry.isSameOrDescendant(first, second));
+
+    PathRegistry.release(first);
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(parent.resolve("a.txt")));
+    Assert.assertEquals(parentId, PathRegistry.findId(parent));
+
+    PathRegistry.release(second);
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(parent));
+  }
+
+  @Test
+  public void testReleasedPathsLeaveTheRegistry() {
+    // keeps the ancestors of the temporary folder
+    int base = PathRegistry.acquire(tempDir);
+    int before = PathRegistry.size();
+    int id = PathRegistry.acquire(tempDir.resolve("released/a/b/c.txt"));
+    Assert.assertEquals(before + 4, PathRegistry.size());
+    PathRegistry.release(id);
+    Assert.assertEquals(before, PathRegistry.size());
+    PathRegistry.release(base);
+    try {
+      PathRegistry.getPath(id);
+      Assert.fail("The path of a released id was found");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPinnedPathsAreNotReleased() {
+    Path path = tempDir.resolve("pinned.txt");
+    int id = PathRegistry.getId(path);
+    Assert.assertEquals(id, PathRegistry.acquire(path));
+    PathRegistry.release(id);
+    Assert.assertEquals(id, PathRegistry.findId(path));
+    Assert.assertEquals(id, PathRegistry.getId(path));
+  }
+
+  @Test
+  public void testClosestIdIsTheDeepestRegisteredAncestor() {
+    Path parent = tempDir.resolve("closest");
+    int id = PathRegistry.acquire(parent);
+    try {
+      Path missing = parent.resolve("a").resolve("b.txt");
+      Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(missing));
+      Assert.assertEquals(id, PathRegistry.findClosestId(missing));
+      Assert.assertEquals(id, PathRegistry.findClosestId(missing.toString()));
+    } finally {
+      PathRegistry.release(id);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package org.roda.rodain.core.creation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.Constants.SipNameStrategy;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.Pair;
+import org.roda.rodain.core.schema.Sip;
+import org.roda.rodain.core.sip.naming.SIPNameBuilder;
+import org.roda.rodain.core.sip.naming.SIPNameBuilderHungarian;
+
+public class SimpleSipCreatorTest {
+  private static final int SIP_COUNT = 8;
+  private static final long SIP_TIME = 100; // in milliseconds
+  private static Path tempDir;
+  private static Path stagingRoot;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    // the SIP creators are localized, so the configuration is initialized, but
+    // only in a RODA-in folder set for the tests, see the pom
+    Assume.assumeNotNull(System.getenv(Constants.RODAIN_HOME_ENV_VARIABLE));
+    ConfigurationManager.initialize();
+    tempDir = Files.createTempDirectory(SimpleSipCreator.class.getSimpleName());
+    stagingRoot = tempDir.resolve(Constants.FOLDER_STAGING);
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    if (tempDir != null) {
+      ControllerUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  @Test
+  public void testSipsAreCreatedConcurrentlyInTheirOwnStaging() {
+    Assume.assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+    TestSipCreator creator = new TestSipCreator(createPreviews(SIP_COUNT));
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    Set<Path> stagingFolders = ConcurrentHashMap.newKeySet();
+    Set<Sip> overwritten = ConcurrentHashMap.newKeySet();
+
+    Map<Path, Object> sips = creator.createSips(null, sip -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Path staging = creator.getStagingFolder();
+        stagingFolders.add(staging);
+        Path metadata = Files.write(staging.resolve("metadata.xml"), sip.getId().getBytes());
+        Thread.sleep(SIP_TIME);
+        if (!sip.getId().equals(new String(Files.readAllBytes(metadata)))) {
+          overwritten.add(sip);
+        }
+        return new Pair<>(tempDir.resolve(sip.getId()), sip);
+      } catch (IOException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+    });
+
+    Assert.assertEquals(SIP_COUNT, sips.size());
+    Assert.assertTrue(maxRunning.get() > 1);
+    Assert.assertEquals(SIP_COUNT, stagingFolders.size());
+    Assert.assertTrue(overwritten.isEmpty());
+    for (Path staging : stagingFolders) {
+      Assert.assertFalse(Files.exists(staging));
+    }
+  }
+
+  @Test
+  public void testFailedSipDoesntStopTheOthers() {
+    Map<Sip, List<String>> previews = createPreviews(SIP_COUNT);
+    Sip failing = previews.keySet().iterator().next();
+    TestSipCreator creator = new TestSipCreator(previews);
+    Set<Path> stagingFolders = ConcurrentHashMap.newKeySet();
+
+    Map<Path, Object> sips = creator.createSips(null, sip -> {
+      if (sip == failing) {
+        throw new IllegalStateException("Failed on purpose");
+      }
+      try {
+        stagingFolders.add(creator.getStagingFolder());
+        Thread.sleep(SIP_TIME);
+        return new Pair<>(tempDir.resolve(sip.getId()), sip);
+      } catch (IOException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    Assert.assertEquals(SIP_COUNT - 1, sips.size());
+    Assert.assertFalse(sips.containsValue(failing));
+    // deleted after all the other SIPs were created
+    for (Path staging : stagingFolders) {
+      Assert.assertFalse(Files.exists(staging));
+    }
+  }
+
+  @Test
+  public void testSipNamesFollowTheOrderOfThePreviews() {
+    Map<Sip, List<String>> previews = createPreviews(SIP_COUNT);
+    TestSipCreator creator = new TestSipCreator(previews);
+    SIPNameBuilder sipNameBuilder = new SIPNameBuilderHungarian("transferring", "001",
+      SipNameStrategy.DATE_TRANSFERRING_SERIALNUMBER);
+    Map<Sip, String> names = new ConcurrentHashMap<>();
+
+    creator.createSips(sipNameBuilder, sip -> {
+      names.put(sip, creator.createSipName(sip, sipNameBuilder));
+      return new Pair<>(tempDir.resolve(sip.getId()), sip);
+    });
+
+    int serial = 1;
+    for (Sip sip : previews.keySet()) {
+      Assert.assertTrue(names.get(sip), names.get(sip).endsWith(String.format("_transferring_%03d", serial++)));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testStagingFolderOutsideAWorkerFails() throws IOException {
+    new TestSipCreator(createPreviews(1)).getStagingFolder();
+  }
+
+  @Test
+  public void testOnlyTheOldStagingFoldersAreDeleted() throws IOException {
+    Path old = Files.createDirectories(stagingRoot.resolve("export-old"));
+    Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000));
+    Path recent = Files.createDirectories(stagingRoot.resolve("export-recent"));
+    TestSipCreator creator = new TestSipCreator(createPreviews(1));
+
+    Map<Path, Object> sips = creator.createSips(null, sip -> {
+      try {
+        Assert.assertTrue(creator.getStagingFolder().startsWith(stagingRoot));
+        return new Pair<>(tempDir.resolve(sip.getId()), sip);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    Assert.assertEquals(1, sips.size());
+    Assert.assertFalse(Files.exists(old));
+    Assert.assertTrue(Files.exists(recent));
+  }
+
+  @Test
+  public void testEstimateFollowsTheSmoothedThroughput() {
+    TestSipCreator creator = new TestSipCreator(createPreviews(1));
+    creator.allSipsSize = 1000;
+    Instant start = Instant.ofEpochMilli(1000000);
+
+    // nothing is known before the first bytes are processed
+    Assert.assertEquals(-1, creator.getTimeRemainingEstimate(0, start), 0);
+    Assert.assertEquals(-1, creator.getTimeRemainingEstimate(0, start.plusMillis(1000)), 0);
+    // the throughput is sampled once per second
+    Assert.assertEquals(-1, creator.getTimeRemainingEstimate(100, start.plusMillis(1500)), 0);
+    // 100 bytes in a second, 900 bytes left
+    Assert.assertEquals(9000, creator.getTimeRemainingEstimate(100, start.plusMillis(2000)), 1e-6);
+    // 200 bytes in the next second, smoothed to 120 bytes per second
+    Assert.assertEquals(700 / 0.12, creator.getTimeRemainingEstimate(300, start.plusMillis(3000)), 1e-6);
+    Assert.assertEquals(0, creator.getTimeRemainingEstimate(1000, start.plusMillis(4000)), 0);
+  }
+
+  @Test
+  public void testBytesReadReplaceTheEstimateOfTheFilesRead() {
+    SimpleSipCreator.SipProgress progress = new SimpleSipCreator.SipProgress(1000);
+    progress.representationsCount = 1;
+    progress.representationSize = 10;
+    progress.setRepresentationProcessed(5);
+    // half of the files read, nothing written
+    Assert.assertEquals(250, progress.getTransferedSize());
+
+    progress.addBytesRead(100);
+    Assert.assertEquals(50, progress.getTransferedSize());
+    progress.addBytesRead(2000);
+    Assert.assertEquals(500, progress.getTransferedSize());
+  }
+
+  private static Map<Sip, List<String>> createPreviews(int count) {
+    Map<Sip, List<String>> result = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      result.put(new Sip(), Collections.emptyList());
+    }
+    return result;
+  }
+
+  private static final class TestSipCreator extends SimpleSipCreator {
+    TestSipCreator(Map<Sip, List<String>> previews) {
+      super(tempDir, previews, false, stagingRoot);
+    }
+  }
+}
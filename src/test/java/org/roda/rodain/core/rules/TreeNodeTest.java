@@ -0,0 +1,88 @@
+package org.roda.rodain.core.rules;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.PathRegistry;
+import org.roda.rodain.core.rules.filters.ContentFilter;
+
+public class TreeNodeTest {
+  private static Path tempDir;
+  private static Path dir, file, other;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(TreeNode.class.getSimpleName());
+    dir = Files.createDirectory(tempDir.resolve("dir"));
+    file = Files.createFile(dir.resolve("file.txt"));
+    other = Files.createFile(dir.resolve("other.txt"));
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @Test
+  public void testReleasedTreeLeavesTheRegistry() {
+    TreeNode root = new TreeNode(dir);
+    root.add(file);
+    root.add(other);
+    Assert.assertNotEquals(PathRegistry.NO_ID, PathRegistry.findId(file));
+
+    root.release();
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(file));
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(dir));
+    // a released node still has its path
+    Assert.assertEquals(dir, root.getPath());
+    root.release();
+  }
+
+  @Test
+  public void testIgnoredContentIsReleased() {
+    TreeNode root = new TreeNode(dir);
+    root.add(file);
+    root.add(other);
+    Assert.assertEquals(Collections.singleton(file.toString()),
+      root.ignoreContent(Collections.singleton(file)));
+    Assert.assertEquals(1, root.getChildren().size());
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(file));
+    Assert.assertNotEquals(PathRegistry.NO_ID, PathRegistry.findId(other));
+    root.release();
+  }
+
+  @Test
+  public void testFlattenedDirectoriesAreReleased() {
+    TreeNode root = new TreeNode(tempDir);
+    TreeNode child = new TreeNode(dir);
+    child.add(file);
+    root.add(child);
+    root.flatten();
+    Assert.assertEquals(file, root.getChildren().values().iterator().next().getPath());
+    Assert.assertEquals(dir, child.getPath());
+    // the directory is only kept by its file
+    root.release();
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(file));
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(dir));
+  }
+
+  @Test
+  public void testReleasedFilterLeavesTheRegistry() {
+    ContentFilter filter = new ContentFilter();
+    filter.addIgnored(file.toString());
+    filter.addMapped(file.toString());
+    filter.addAllMapped(Collections.singleton(other.toString()));
+    Assert.assertNotEquals(PathRegistry.NO_ID, PathRegistry.findId(file));
+
+    filter.release();
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(file));
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(other));
+  }
+}
@@ -0,0 +1,85 @@
+package org.roda.rodain.core.rules.filters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.Constants.PathState;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.PathCollection;
+import org.roda.rodain.core.PathRegistry;
+
+public class ContentFilterTest {
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(ContentFilter.class.getSimpleName());
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @After
+  public void reset() {
+    PathCollection.reset();
+  }
+
+  private static void assertFiltered(ContentFilter filter, Path path, boolean expected) {
+    Assert.assertEquals(path.toString(), expected, filter.filter(path));
+    Assert.assertEquals(path.toString(), expected, filter.filter(path.toString()));
+  }
+
+  @Test
+  public void testListedPathsAndTheirDescendantsAreFiltered() {
+    Path ignored = tempDir.resolve("lists").resolve("ignored");
+    Path mapped = tempDir.resolve("lists").resolve("mapped");
+    ContentFilter filter = new ContentFilter();
+    filter.addIgnored(ignored.toString());
+    filter.addAllMapped(Arrays.asList(mapped));
+    try {
+      assertFiltered(filter, ignored, true);
+      assertFiltered(filter, ignored.resolve("a").resolve("b.txt"), true);
+      assertFiltered(filter, mapped.resolve("c.txt"), true);
+      // a sibling with the same prefix isn't a descendant
+      assertFiltered(filter, tempDir.resolve("lists").resolve("ignored2"), false);
+      assertFiltered(filter, tempDir.resolve("lists"), false);
+      // the descendants aren't added to the registry to be checked
+      Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(ignored.resolve("a")));
+    } finally {
+      filter.release();
+    }
+  }
+
+  @Test
+  public void testReleasedFilterKeepsNoPaths() {
+    Path ignored = tempDir.resolve("released").resolve("ignored");
+    ContentFilter filter = new ContentFilter();
+    filter.addIgnored(ignored.toString());
+    // a path added twice is kept once
+    filter.addIgnored(ignored.toString());
+    filter.addMapped(ignored.toString());
+    Assert.assertNotEquals(PathRegistry.NO_ID, PathRegistry.findId(ignored));
+
+    filter.release();
+    assertFiltered(filter, ignored.resolve("a.txt"), false);
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(ignored));
+  }
+
+  @Test
+  public void testPathsNotNormalInTheCollectionAreFiltered() {
+    Path dir = tempDir.resolve("collection");
+    ContentFilter filter = new ContentFilter();
+    PathCollection.addPath(dir.resolve("mapped.txt"), PathState.MAPPED);
+    assertFiltered(filter, dir.resolve("mapped.txt"), true);
+    assertFiltered(filter, dir.resolve("normal.txt"), false);
+  }
+}
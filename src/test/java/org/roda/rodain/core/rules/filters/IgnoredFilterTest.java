@@ -0,0 +1,115 @@
+package org.roda.rodain.core.rules.filters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+
+public class IgnoredFilterTest {
+  private static final String SEPARATOR = File.separator;
+
+  @BeforeClass
+  public static void setup() {
+    // a name, a suffix, a prefix and two rules that need the pattern
+    IgnoredFilter.addIgnoreRule("Thumbs\\.db");
+    IgnoredFilter.addIgnoreRule(".*\\.tmp");
+    IgnoredFilter.addIgnoreRule("\\..*");
+    IgnoredFilter.addIgnoreRule("[0-9]+\\.bak");
+    IgnoredFilter.addIgnoreRule("A[a-z]");
+  }
+
+  @After
+  public void restoreCacheSize() {
+    IgnoredFilter.setCacheSize(10000);
+  }
+
+  @Test
+  public void testEachKindOfRuleIsMatched() {
+    Assert.assertTrue(IgnoredFilter.isIgnoredName("Thumbs.db"));
+    Assert.assertFalse(IgnoredFilter.isIgnoredName("Thumbs.dbx"));
+    Assert.assertTrue(IgnoredFilter.isIgnoredName("a.tmp"));
+    Assert.assertFalse(IgnoredFilter.isIgnoredName("a.tmp.txt"));
+    Assert.assertTrue(IgnoredFilter.isIgnoredName(".git"));
+    Assert.assertTrue(IgnoredFilter.isIgnoredName("123.bak"));
+    Assert.assertFalse(IgnoredFilter.isIgnoredName("12a.bak"));
+    Assert.assertFalse(IgnoredFilter.isIgnoredName("file.txt"));
+  }
+
+  @Test
+  public void testInvalidRuleIsRejected() {
+    try {
+      IgnoredFilter.addIgnoreRule("[unclosed");
+      Assert.fail("The invalid rule was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Assert.assertFalse(IgnoredFilter.isIgnoredName("file.txt"));
+  }
+
+  @Test
+  public void testOnlyTheFileNameIsMatched() {
+    String dir = SEPARATOR + "data" + SEPARATOR + "123.bak" + SEPARATOR;
+    Assert.assertFalse(IgnoredFilter.isIgnoredFileName(Paths.get(dir + "file.txt")));
+    Assert.assertTrue(IgnoredFilter.isIgnoredFileName(Paths.get(dir + "456.bak")));
+    Assert.assertTrue(IgnoredFilter.isIgnoredFileName(Paths.get(dir + "Thumbs.db")));
+  }
+
+  @Test
+  public void testIgnoredAncestorIgnoresThePath() {
+    String data = SEPARATOR + "data" + SEPARATOR;
+    Assert.assertTrue(IgnoredFilter.isIgnored(data + ".git" + SEPARATOR + "objects" + SEPARATOR + "a"));
+    Assert.assertTrue(IgnoredFilter.isIgnored(Paths.get(data + "123.bak" + SEPARATOR + "file.txt")));
+    Assert.assertTrue(IgnoredFilter.isIgnored(data + "dir" + SEPARATOR + SEPARATOR + "a.tmp"));
+    Assert.assertFalse(IgnoredFilter.isIgnored(data + "dir" + SEPARATOR + "file.txt"));
+    Assert.assertFalse(IgnoredFilter.isIgnored(Paths.get(data + "12a.bak" + SEPARATOR + "file.txt")));
+  }
+
+  @Test
+  public void testCachedVerdictsAreOnlyUsedForTheirName() {
+    // "Aa" and "BB" have the same hash, so they share a slot of the cache
+    Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(IgnoredFilter.isIgnoredName("Aa"));
+      Assert.assertFalse(IgnoredFilter.isIgnoredName("BB"));
+      Assert.assertTrue(IgnoredFilter.isIgnored(SEPARATOR + "BB" + SEPARATOR + "Aa"));
+      Assert.assertFalse(IgnoredFilter.isIgnored(SEPARATOR + "Aa0" + SEPARATOR + "BB"));
+    }
+  }
+
+  @Test
+  public void testVerdictsDontDependOnTheCacheSize() {
+    for (int size : new int[] {0, 1, 1000}) {
+      IgnoredFilter.setCacheSize(size);
+      for (int i = 0; i < 100; i++) {
+        Assert.assertEquals(i + ".bak", true, IgnoredFilter.isIgnoredName(i + ".bak"));
+        Assert.assertEquals(i + "a.bak", false, IgnoredFilter.isIgnoredName(i + "a.bak"));
+        Assert.assertTrue(IgnoredFilter.isIgnored(SEPARATOR + "dir" + i + SEPARATOR + i + ".bak"));
+        Assert.assertFalse(IgnoredFilter.isIgnored(SEPARATOR + i + ".bak0" + SEPARATOR + "file"));
+      }
+    }
+  }
+
+  @Test
+  public void testEmptyDirectoryIsIgnoredBeforeItsIndexed() throws IOException {
+    Path tempDir = Files.createTempDirectory(IgnoredFilter.class.getSimpleName());
+    try {
+      Path empty = Files.createDirectory(tempDir.resolve("empty"));
+      Path full = Files.createDirectory(tempDir.resolve("full"));
+      Files.createFile(full.resolve("Thumbs.db"));
+      // neither indexed nor listed, so the disk tells if they're empty
+      Assert.assertFalse(IgnoredFilter.containsAtLeastOneNotIgnoredFile(empty));
+      Assert.assertTrue(IgnoredFilter.containsAtLeastOneNotIgnoredFile(full));
+      Assert.assertTrue(IgnoredFilter.isIgnored(empty));
+      Assert.assertFalse(IgnoredFilter.isIgnored(full));
+    } finally {
+      ControllerUtils.deleteQuietly(tempDir);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package org.roda.rodain.core.rules.filters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.PathRegistry;
+import org.roda.rodain.core.rules.filters.ValidFilesIndex.Verdict;
+
+public class ValidFilesIndexTest {
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(ValidFilesIndex.class.getSimpleName());
+    IgnoredFilter.addIgnoreRule(".*\\.ignored");
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @After
+  public void clear() {
+    ValidFilesIndex.clear();
+  }
+
+  /*
+   * A directory with an ignored file and a sub-directory with another ignored
+   * file.
+   */
+  private static Path createIgnoredTree(String name) throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve(name));
+    Files.createFile(dir.resolve("a.ignored"));
+    Path deep = Files.createDirectory(dir.resolve("deep"));
+    Files.createFile(deep.resolve("b.ignored"));
+    Files.setLastModifiedTime(deep, FileTime.fromMillis(1000000));
+    return dir;
+  }
+
+  @Test
+  public void testVerdictsOfTheSubtree() throws IOException {
+    Path ignored = createIgnoredTree("ignored");
+    Path valid = createIgnoredTree("valid");
+    Files.createFile(valid.resolve("deep").resolve("c.txt"));
+    Assert.assertEquals(Verdict.UNKNOWN, ValidFilesIndex.getVerdict(ignored));
+
+    ValidFilesIndex.indexInBackground(Arrays.asList(ignored, valid)).join();
+    Assert.assertEquals(Verdict.NOT_VALID, ValidFilesIndex.getVerdict(ignored));
+    Assert.assertEquals(Verdict.NOT_VALID, ValidFilesIndex.getVerdict(ignored.resolve("deep").toString()));
+    Assert.assertEquals(Verdict.VALID, ValidFilesIndex.getVerdict(valid));
+    Assert.assertEquals(Verdict.VALID, ValidFilesIndex.getVerdict(valid.resolve("deep")));
+  }
+
+  @Test
+  public void testFileAddedDeepInTheSubtreeIsSeen() throws IOException {
+    Path dir = createIgnoredTree("added");
+    ValidFilesIndex.index(Collections.singleton(dir));
+    Assert.assertEquals(Verdict.NOT_VALID, ValidFilesIndex.getVerdict(dir));
+
+    Path deep = dir.resolve("deep");
+    Files.createFile(deep.resolve("c.txt"));
+    Files.setLastModifiedTime(deep, FileTime.fromMillis(2000000));
+    ValidFilesIndex.index(Collections.singleton(dir));
+    Assert.assertEquals(Verdict.VALID, ValidFilesIndex.getVerdict(dir));
+    Assert.assertEquals(Verdict.VALID, ValidFilesIndex.getVerdict(deep));
+  }
+
+  @Test
+  public void testClearReleasesThePaths() throws IOException {
+    Path dir = createIgnoredTree("cleared");
+    ValidFilesIndex.index(Collections.singleton(dir));
+    Assert.assertNotEquals(PathRegistry.NO_ID, PathRegistry.findId(dir));
+
+    ValidFilesIndex.clear();
+    Assert.assertEquals(Verdict.UNKNOWN, ValidFilesIndex.getVerdict(dir));
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(dir.resolve("deep")));
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(dir));
+  }
+
+  @Test
+  public void testVerdictsAreRebuiltWhenTheRulesChange() throws IOException, InterruptedException {
+    Path dir = createIgnoredTree("rebuilt");
+    Files.createFile(dir.resolve("deep").resolve("c.rebuilt"));
+    ValidFilesIndex.index(Collections.singleton(dir));
+    Assert.assertEquals(Verdict.VALID, ValidFilesIndex.getVerdict(dir));
+
+    // the directory is indexed again in the background
+    IgnoredFilter.addIgnoreRule(".*\\.rebuilt");
+    long deadline = System.currentTimeMillis() + 10000;
+    while (ValidFilesIndex.getVerdict(dir) != Verdict.NOT_VALID && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(Verdict.NOT_VALID, ValidFilesIndex.getVerdict(dir));
+    Assert.assertEquals(Verdict.NOT_VALID, ValidFilesIndex.getVerdict(dir.resolve("deep")));
+  }
+}
@@ -0,0 +1,123 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+
+public class ChecksumCacheTest {
+  private static final String SHA_256 = "SHA-256";
+  private static final String MD5 = "MD5";
+  private static final int MAX_FILES = 8;
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException, InterruptedException, ExecutionException {
+    tempDir = Files.createTempDirectory(ChecksumCache.class.getSimpleName());
+    ChecksumCache.open(tempDir.resolve("cache"), MAX_FILES).get();
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ChecksumCache.close();
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @Test
+  public void testChecksumIsOnlyUsedWhileTheFileIsTheSame() throws IOException {
+    Path file = Files.write(tempDir.resolve("changed.txt"), new byte[10]);
+    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    ChecksumCache.put(file, attrs, SHA_256, "cached");
+    Assert.assertEquals("cached", ChecksumCache.get(file, SHA_256));
+    Assert.assertNull(ChecksumCache.get(file, MD5));
+
+    Files.write(file, new byte[20]);
+    Files.setLastModifiedTime(file, attrs.lastModifiedTime());
+    Assert.assertNull(ChecksumCache.get(file, SHA_256));
+
+    Files.write(file, new byte[10]);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(attrs.lastModifiedTime().toMillis() + 2000));
+    Assert.assertNull(ChecksumCache.get(file, SHA_256));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedFilesAreDropped() throws IOException {
+    Path used = Files.write(tempDir.resolve("used.txt"), new byte[10]);
+    Path dropped = Files.write(tempDir.resolve("dropped.txt"), new byte[10]);
+    ChecksumCache.put(used, Files.readAttributes(used, BasicFileAttributes.class), SHA_256, "used");
+    ChecksumCache.put(dropped, Files.readAttributes(dropped, BasicFileAttributes.class), SHA_256, "dropped");
+    Assert.assertEquals("used", ChecksumCache.get(used, SHA_256));
+
+    for (int i = 0; i < MAX_FILES - 1; i++) {
+      Path file = Files.write(tempDir.resolve("file" + i + ".txt"), new byte[10]);
+      ChecksumCache.put(file, Files.readAttributes(file, BasicFileAttributes.class), SHA_256, "file" + i);
+    }
+    Assert.assertEquals(MAX_FILES, ChecksumCache.countFiles());
+    Assert.assertEquals("used", ChecksumCache.get(used, SHA_256));
+    Assert.assertNull(ChecksumCache.get(dropped, SHA_256));
+    Assert.assertEquals("file0", ChecksumCache.get(tempDir.resolve("file0.txt"), SHA_256));
+  }
+
+  @Test
+  public void testDigestsAreComputedOnceAndCached() throws IOException, NoSuchAlgorithmException {
+    byte[] content = "checksums".getBytes();
+    Path file = Files.write(tempDir.resolve("digested.txt"), content);
+    Set<String> algorithms = new LinkedHashSet<>(Arrays.asList(SHA_256, MD5));
+
+    Map<String, String> checksums = FileDigests.digest(file, algorithms);
+    Assert.assertEquals(expected(SHA_256, content), checksums.get(SHA_256));
+    Assert.assertEquals(expected(MD5, content), checksums.get(MD5));
+    Assert.assertEquals(checksums.get(SHA_256), ChecksumCache.get(file, SHA_256));
+    Assert.assertEquals(checksums.get(MD5), ChecksumCache.get(file, MD5));
+  }
+
+  @Test
+  public void testBytesReadAreCounted() throws IOException, NoSuchAlgorithmException, InterruptedException {
+    Path file = Files.write(tempDir.resolve("counted.txt"), new byte[3000]);
+    Set<String> algorithms = Collections.singleton(SHA_256);
+    LongAdder bytesRead = new LongAdder();
+
+    FileDigests.digestAll(Collections.singletonList(file), algorithms, bytesRead::add);
+    Assert.assertEquals(3000, bytesRead.sum());
+    // a file with all its checksums cached counts as read
+    FileDigests.digest(file, algorithms, bytesRead::add);
+    Assert.assertEquals(6000, bytesRead.sum());
+  }
+
+  @Test
+  public void testDigestAllFailsWhenAFileCantBeRead()
+    throws IOException, NoSuchAlgorithmException, InterruptedException {
+    Path file = Files.write(tempDir.resolve("readable.txt"), new byte[10]);
+    Set<String> algorithms = Collections.singleton(SHA_256);
+    Assert.assertEquals(expected(SHA_256, new byte[10]),
+      FileDigests.digestAll(Collections.singletonList(file), algorithms).get(file).get(SHA_256));
+
+    try {
+      FileDigests.digestAll(Arrays.asList(file, tempDir.resolve("missing.txt")), algorithms);
+      Assert.fail("The checksums of a missing file were computed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static String expected(String algorithm, byte[] content) throws NoSuchAlgorithmException {
+    return Hex.encodeHexString(MessageDigest.getInstance(algorithm).digest(content));
+  }
+}
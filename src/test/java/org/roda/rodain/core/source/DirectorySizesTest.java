@@ -0,0 +1,105 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.PathRegistry;
+
+public class DirectorySizesTest {
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(DirectorySizes.class.getSimpleName());
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @After
+  public void clear() {
+    DirectorySizes.clear();
+    DirectorySizes.setMaxPaths(SourceMetadataCache.getMaxEntries());
+  }
+
+  /*
+   * A directory with 2 files of 10 bytes and 2 sub-directories, each with 3
+   * files of 100 bytes.
+   */
+  private static Path createTree(String name) throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve(name));
+    for (int i = 0; i < 2; i++) {
+      Files.write(dir.resolve("file" + i), new byte[10]);
+      Path subDir = Files.createDirectory(dir.resolve("dir" + i));
+      for (int j = 0; j < 3; j++) {
+        Files.write(subDir.resolve("file" + j), new byte[100]);
+      }
+    }
+    return dir;
+  }
+
+  private static DirectorySizes.Counters compute(Path dir) {
+    DirectorySizes.Counters counters = new DirectorySizes.Counters();
+    DirectorySizes.submit(dir, counters).join();
+    return counters;
+  }
+
+  private static void assertSize(DirectorySizes.Counters counters, long files, long directories, long bytes) {
+    Assert.assertEquals(files, counters.getFiles());
+    Assert.assertEquals(directories, counters.getDirectories());
+    Assert.assertEquals(bytes, counters.getBytes());
+  }
+
+  @Test
+  public void testSizeIsTheSumOfTheSubtree() throws IOException {
+    Path dir = createTree("sum");
+    assertSize(compute(dir), 8, 3, 620);
+    // the cached size is the same
+    assertSize(compute(dir), 8, 3, 620);
+    assertSize(compute(dir.resolve("dir0")), 3, 1, 300);
+  }
+
+  @Test
+  public void testInvalidateDropsTheAncestors() throws IOException {
+    Path dir = createTree("invalidated");
+    assertSize(compute(dir), 8, 3, 620);
+
+    Files.write(dir.resolve("dir1").resolve("added"), new byte[1000]);
+    DirectorySizes.invalidate(dir.resolve("dir1"));
+    assertSize(compute(dir), 9, 3, 1620);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedSizesAreDropped() throws IOException {
+    Path dir = createTree("bounded");
+    // the size of the directory keeps 3 paths, those of its sub-directories 1
+    DirectorySizes.setMaxPaths(3);
+    assertSize(compute(dir), 8, 3, 620);
+    assertSize(compute(dir), 8, 3, 620);
+
+    // the size of the directory is too big to be kept, it's computed again from
+    // the sizes of the sub-directories
+    DirectorySizes.setMaxPaths(2);
+    assertSize(compute(dir), 8, 3, 620);
+    assertSize(compute(dir), 8, 3, 620);
+
+    // the dropped sizes release their paths
+    DirectorySizes.setMaxPaths(0);
+    Path[] paths = {dir, dir.resolve("dir0"), dir.resolve("dir1")};
+    for (Path path : paths) {
+      SourceMetadataCache.invalidate(path);
+    }
+    for (Path path : paths) {
+      Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(path));
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+
+public class SourceIndexTest {
+  private static final long TIMEOUT = 5000; // in milliseconds
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException, InterruptedException, ExecutionException {
+    tempDir = Files.createTempDirectory(SourceIndex.class.getSimpleName());
+    SourceIndex.open(tempDir.resolve("index")).get();
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    SourceIndex.close();
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @Test
+  public void testIndexedListingKeepsTheAttributes() throws IOException, InterruptedException {
+    Path dir = Files.createDirectory(tempDir.resolve("kept"));
+    Path file = Files.write(dir.resolve("file.txt"), new byte[10]);
+    Files.createDirectory(dir.resolve("sub"));
+    FileTime modified = FileTime.fromMillis(1000000);
+    Files.setLastModifiedTime(dir, modified);
+    SourceMetadataCache.getListing(dir);
+    SourceMetadataCache.invalidate(dir);
+
+    SourceMetadataCache.Listing listing = waitForListing(dir, modified);
+    Assert.assertEquals(2, listing.size());
+    int fileIndex = listing.getEntries().indexOf(file);
+    BasicFileAttributes attrs = listing.getAttributes().get(fileIndex);
+    Assert.assertTrue(attrs.isRegularFile());
+    Assert.assertEquals(10, attrs.size());
+    Assert.assertEquals(Files.getLastModifiedTime(file), attrs.lastModifiedTime());
+    Assert.assertTrue(listing.getAttributes().get(1 - fileIndex).isDirectory());
+  }
+
+  @Test
+  public void testChangedEntryDropsTheListing() throws IOException, InterruptedException {
+    Path dir = Files.createDirectory(tempDir.resolve("resized"));
+    Path file = Files.write(dir.resolve("file.txt"), new byte[10]);
+    FileTime modified = FileTime.fromMillis(1000000);
+    Files.setLastModifiedTime(dir, modified);
+    SourceMetadataCache.getListing(dir);
+    SourceMetadataCache.invalidate(dir);
+    waitForListing(dir, modified);
+
+    // a file changed in place doesn't change its directory, the listing is
+    // dropped once its entries are checked
+    Files.write(file, new byte[20]);
+    Files.setLastModifiedTime(dir, modified);
+    long end = System.currentTimeMillis() + TIMEOUT;
+    while (SourceIndex.find(dir, modified) != null && System.currentTimeMillis() < end) {
+      Thread.sleep(20);
+    }
+    Assert.assertNull(SourceIndex.find(dir, modified));
+    Assert.assertEquals(20, SourceMetadataCache.getListing(dir).getAttributes().get(0).size());
+  }
+
+  @Test
+  public void testChangedDirectoryIsNotServed() throws IOException, InterruptedException {
+    Path dir = Files.createDirectory(tempDir.resolve("changed"));
+    Files.createFile(dir.resolve("first.txt"));
+    FileTime modified = FileTime.fromMillis(1000000);
+    Files.setLastModifiedTime(dir, modified);
+    SourceMetadataCache.getListing(dir);
+    SourceMetadataCache.invalidate(dir);
+    Assert.assertNotNull(waitForListing(dir, modified));
+
+    Files.createFile(dir.resolve("second.txt"));
+    Files.setLastModifiedTime(dir, FileTime.fromMillis(2000000));
+    Assert.assertNull(SourceIndex.find(dir, Files.getLastModifiedTime(dir)));
+    Assert.assertNull(SourceIndex.find(dir, modified));
+  }
+
+  /*
+   * The listings are written to the index in the background.
+   */
+  private static SourceMetadataCache.Listing waitForListing(Path dir, FileTime modified)
+    throws InterruptedException {
+    long end = System.currentTimeMillis() + TIMEOUT;
+    SourceMetadataCache.Listing listing = SourceIndex.find(dir, modified);
+    while (listing == null && System.currentTimeMillis() < end) {
+      Thread.sleep(20);
+      listing = SourceIndex.find(dir, modified);
+    }
+    Assert.assertNotNull("The listing wasn't indexed", listing);
+    return listing;
+  }
+}
@@ -0,0 +1,72 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.PathRegistry;
+
+public class SourceMetadataCacheTest {
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(SourceMetadataCache.class.getSimpleName());
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @Test
+  public void testListingIsCachedUntilTheDirectoryChanges() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("changed"));
+    Files.write(dir.resolve("first.txt"), new byte[10]);
+    Files.setLastModifiedTime(dir, FileTime.fromMillis(1000000));
+
+    SourceMetadataCache.Listing listing = SourceMetadataCache.getListing(dir);
+    Assert.assertEquals(1, listing.size());
+    Assert.assertEquals(10, listing.getAttributes().get(0).size());
+    Assert.assertSame(listing, SourceMetadataCache.getListing(dir));
+    Assert.assertSame(listing, SourceMetadataCache.getCachedListing(dir));
+
+    Files.createFile(dir.resolve("second.txt"));
+    Files.setLastModifiedTime(dir, FileTime.fromMillis(2000000));
+    Assert.assertNull(SourceMetadataCache.getCachedListing(dir));
+    SourceMetadataCache.Listing changed = SourceMetadataCache.getListing(dir);
+    Assert.assertNotSame(listing, changed);
+    Assert.assertEquals(2, changed.size());
+    SourceMetadataCache.invalidate(dir);
+  }
+
+  @Test
+  public void testInvalidateDropsTheListing() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("invalidated"));
+    Files.createFile(dir.resolve("file.txt"));
+
+    SourceMetadataCache.getListing(dir);
+    Assert.assertNotNull(SourceMetadataCache.peekListing(dir.toString()));
+    SourceMetadataCache.invalidate(dir);
+    Assert.assertNull(SourceMetadataCache.peekListing(dir.toString()));
+    Assert.assertNull(SourceMetadataCache.getCachedListing(dir));
+    // the cache no longer keeps the directory in the registry
+    Assert.assertEquals(PathRegistry.NO_ID, PathRegistry.findId(dir));
+  }
+
+  @Test
+  public void testListingOfAMissingDirectoryFails() {
+    try {
+      SourceMetadataCache.getListing(tempDir.resolve("missing"));
+      Assert.fail("A missing directory was listed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package org.roda.rodain.core.source.representation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.source.SourceMetadataCache;
+
+public class SourceDirectoryTest {
+  private static final int FILES = 2000;
+  private static final int DIRECTORIES = 5;
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(SourceDirectory.class.getSimpleName());
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  private static Path createDirectory(String name) throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve(name));
+    for (int i = 0; i < FILES; i++) {
+      Files.createFile(dir.resolve("file" + i));
+    }
+    for (int i = 0; i < DIRECTORIES; i++) {
+      Files.createDirectory(dir.resolve("dir" + i));
+    }
+    return dir;
+  }
+
+  /*
+   * Loads all the pages of the directory, returning their sizes.
+   */
+  private static List<Integer> loadAll(SourceDirectory directory, Set<String> loaded) {
+    List<Integer> pages = new ArrayList<>();
+    do {
+      SortedMap<String, SourceItem> page = directory.loadMore();
+      for (String child : page.keySet()) {
+        Assert.assertTrue(child, loaded.add(child));
+      }
+      pages.add(page.size());
+    } while (directory.isStreamOpen());
+    return pages;
+  }
+
+  @Test
+  public void testPagesLoadEachEntryOnce() throws IOException {
+    Path dir = createDirectory("paged");
+    SourceDirectory directory = new SourceDirectory(dir, true);
+    Set<String> loaded = new HashSet<>();
+    List<Integer> pages = loadAll(directory, loaded);
+
+    Assert.assertEquals(FILES + DIRECTORIES, loaded.size());
+    Assert.assertEquals(FILES + DIRECTORIES, directory.getChildren().size());
+    Assert.assertEquals(100, (int) pages.get(0));
+    // the first pages load fast, so the next ones are bigger
+    Assert.assertTrue(pages.toString(), pages.stream().anyMatch(size -> size > 100));
+    for (int i = 0; i < DIRECTORIES; i++) {
+      Assert.assertNotNull(directory.getChildDirectory(dir.resolve("dir" + i)));
+    }
+    Assert.assertTrue(directory.getChild(dir.resolve("file0")) instanceof SourceFile);
+  }
+
+  @Test
+  public void testFilesAreSkippedWhenHidden() throws IOException {
+    Path dir = createDirectory("hidden");
+    SourceDirectory directory = new SourceDirectory(dir, false);
+    Set<String> loaded = new HashSet<>();
+    loadAll(directory, loaded);
+
+    Assert.assertEquals(DIRECTORIES, loaded.size());
+    for (String child : loaded) {
+      Assert.assertTrue(child, directory.getChildren().get(child) instanceof SourceDirectory);
+    }
+  }
+
+  @Test
+  public void testCompleteListingIsCached() throws IOException {
+    Path dir = createDirectory("cached");
+    Assert.assertNull(SourceMetadataCache.getCachedListing(dir));
+    loadAll(new SourceDirectory(dir, true), new HashSet<>());
+    SourceMetadataCache.Listing listing = SourceMetadataCache.getCachedListing(dir);
+    Assert.assertNotNull(listing);
+    Assert.assertEquals(FILES + DIRECTORIES, listing.size());
+
+    // loaded again from the cache
+    Set<String> loaded = new HashSet<>();
+    loadAll(new SourceDirectory(dir, true), loaded);
+    Assert.assertEquals(FILES + DIRECTORIES, loaded.size());
+    SourceMetadataCache.invalidate(dir);
+  }
+}
@@ -0,0 +1,214 @@
+package org.roda.rodain.core.utils;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.source.SourceMetadataCache;
+
+public class WalkFileTreeTest {
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(WalkFileTree.class.getSimpleName());
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  /*
+   * A directory with a file and the given sub-directories, each with a file
+   * and a sub-directory with a file.
+   */
+  private static Path createTree(String name, String... subDirectories) throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve(name));
+    Files.createFile(dir.resolve("file.txt"));
+    for (String subDirectory : subDirectories) {
+      Path sub = Files.createDirectory(dir.resolve(subDirectory));
+      Files.createFile(sub.resolve("file.txt"));
+      Files.createFile(Files.createDirectory(sub.resolve("nested")).resolve("file.txt"));
+    }
+    return dir;
+  }
+
+  private static List<String> walk(RecordingVisitor visitor, Path... startPaths) {
+    List<String> paths = new ArrayList<>();
+    for (Path startPath : startPaths) {
+      paths.add(startPath.toString());
+    }
+    // in this thread, so the events are recorded when it returns
+    new WalkFileTree(new LinkedHashSet<>(paths), visitor).run();
+    Assert.assertTrue(visitor.ended);
+    return visitor.events;
+  }
+
+  @Test
+  public void testSkippedSubtreeIsntVisited() throws IOException {
+    Path dir = createTree("skipped", "kept", "skip");
+    RecordingVisitor visitor = new RecordingVisitor();
+    visitor.skipped = "skip";
+    List<String> events = walk(visitor, dir);
+
+    Assert.assertTrue(events.contains("pre " + dir.resolve("skip")));
+    Assert.assertTrue(events.contains("post " + dir.resolve("kept")));
+    Assert.assertTrue(events.contains("file " + dir.resolve("kept").resolve("nested").resolve("file.txt")));
+    Assert.assertTrue(events.contains("post " + dir));
+    for (String event : events) {
+      Assert.assertFalse(event, event.startsWith("file " + dir.resolve("skip")));
+      Assert.assertFalse(event, event.startsWith("entries " + dir.resolve("skip")));
+      Assert.assertFalse(event, event.startsWith("post " + dir.resolve("skip")));
+    }
+  }
+
+  @Test
+  public void testTerminateStopsTheWalk() throws IOException {
+    Path dir = createTree("terminated", "a", "b", "c");
+    RecordingVisitor visitor = new RecordingVisitor();
+    visitor.terminated = "b";
+    List<String> events = walk(visitor, dir);
+
+    Assert.assertEquals("pre " + dir.resolve("b"), events.get(events.size() - 1));
+    Assert.assertFalse(events.contains("post " + dir));
+  }
+
+  /*
+   * The events of a walk of Files.walkFileTree over the start paths.
+   */
+  private static List<String> expectedEvents(Path... startPaths) throws IOException {
+    List<String> events = new ArrayList<>();
+    for (Path startPath : startPaths) {
+      events.add("start " + startPath);
+      Files.walkFileTree(startPath, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+          events.add("pre " + dir);
+          try (Stream<Path> entries = Files.list(dir)) {
+            events.add("entries " + dir + " " + entries.count());
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          events.add("file " + file);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+          events.add("post " + dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    return events;
+  }
+
+  @Test
+  public void testWalkIsInTheOrderOfFilesWalkFileTree() throws IOException {
+    // more directories than the listings read ahead
+    String[] subDirectories = new String[100];
+    for (int i = 0; i < subDirectories.length; i++) {
+      subDirectories[i] = "dir" + i;
+    }
+    Path first = createTree("ordered", subDirectories);
+    Path second = createTree("ordered2", "a", "b");
+    Path file = Files.createFile(tempDir.resolve("ordered.txt"));
+
+    List<String> events = walk(new RecordingVisitor(), first, file, second);
+    Assert.assertEquals(expectedEvents(first, file, second), events);
+  }
+
+  @Test
+  public void testWalkedListingsAreCached() throws IOException {
+    Path dir = createTree("cached", "a", "b", "c");
+    walk(new RecordingVisitor(), dir);
+    for (String name : new String[] {"a", "b", "c"}) {
+      Assert.assertNotNull(SourceMetadataCache.peekListing(dir.resolve(name).toString()));
+      Assert.assertNotNull(SourceMetadataCache.peekListing(dir.resolve(name).resolve("nested").toString()));
+    }
+  }
+
+  @Test
+  public void testCancelledWalkEnds() throws IOException {
+    Path dir = createTree("cancelled", "a", "b", "c");
+    RecordingVisitor visitor = new RecordingVisitor();
+    WalkFileTree walker = new WalkFileTree(Collections.singleton(dir.toString()), visitor);
+    walker.cancel();
+    walker.run();
+    Assert.assertTrue(visitor.ended);
+    Assert.assertFalse(visitor.events.contains("post " + dir));
+  }
+
+  /**
+   * Records the calls of the walk, skipping or terminating in the directories
+   * with the given names.
+   */
+  private static final class RecordingVisitor implements TreeVisitor {
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private String skipped;
+    private String terminated;
+    private boolean ended = false;
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+      events.add("pre " + path);
+      String name = path.getFileName().toString();
+      if (name.equals(terminated)) {
+        return FileVisitResult.TERMINATE;
+      }
+      return name.equals(skipped) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public void visitDirectoryEntries(Path path, List<Path> entries) {
+      events.add("entries " + path + " " + entries.size());
+    }
+
+    @Override
+    public void postVisitDirectory(Path path) {
+      events.add("post " + path);
+    }
+
+    @Override
+    public void visitFile(Path path, BasicFileAttributes attrs) {
+      events.add("file " + path);
+    }
+
+    @Override
+    public void visitFileFailed(Path path) {
+      events.add("failed " + path);
+    }
+
+    @Override
+    public void end() {
+      ended = true;
+    }
+
+    @Override
+    public String getId() {
+      return "recording";
+    }
+
+    @Override
+    public void setStartPath(String path) {
+      events.add("start " + path);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package org.roda.rodain.ui.rules;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.utils.TreeVisitor;
+
+public class VisitorStackTest {
+  private static final String ROOT = File.separator + "source" + File.separator;
+
+  private static VisitorStack.Admission admission(String... paths) {
+    List<String> absolute = new ArrayList<>();
+    for (String path : paths) {
+      absolute.add(ROOT + path.replace('/', File.separatorChar));
+    }
+    VisitorStack.Admission result = new VisitorStack.Admission(new HashSet<>(absolute));
+    result.task = new FutureTask<>(() -> null);
+    return result;
+  }
+
+  @Test
+  public void testDisjointVisitorsStartTogether() {
+    VisitorStack.Admission first = admission("a");
+    VisitorStack.Admission second = admission("b", "c");
+    // a prefix of the name isn't an ancestor
+    VisitorStack.Admission third = admission("ab");
+    List<VisitorStack.Admission> waiting = new ArrayList<>(Arrays.asList(first, second, third));
+    List<VisitorStack.Admission> admitted = new ArrayList<>();
+
+    Assert.assertEquals(Arrays.asList(first, second, third), VisitorStack.admit(waiting, admitted, 4));
+    Assert.assertTrue(waiting.isEmpty());
+    Assert.assertEquals(3, admitted.size());
+  }
+
+  @Test
+  public void testOverlappingVisitorsWaitInOrder() {
+    VisitorStack.Admission parent = admission("a");
+    VisitorStack.Admission child = admission("a/b");
+    VisitorStack.Admission grandChild = admission("a/b/c");
+    VisitorStack.Admission other = admission("d");
+    List<VisitorStack.Admission> waiting = new ArrayList<>(Arrays.asList(parent, child, grandChild, other));
+    List<VisitorStack.Admission> admitted = new ArrayList<>();
+
+    Assert.assertEquals(Arrays.asList(parent, other), VisitorStack.admit(waiting, admitted, 4));
+    Assert.assertEquals(Arrays.asList(child, grandChild), waiting);
+
+    // the grandchild waits for the child, added before it, even when the
+    // parent ends
+    admitted.remove(parent);
+    Assert.assertEquals(Arrays.asList(child), VisitorStack.admit(waiting, admitted, 4));
+    admitted.remove(child);
+    Assert.assertEquals(Arrays.asList(grandChild), VisitorStack.admit(waiting, admitted, 4));
+  }
+
+  @Test
+  public void testConcurrencyIsBounded() {
+    List<VisitorStack.Admission> waiting = new ArrayList<>(
+      Arrays.asList(admission("a"), admission("b"), admission("c")));
+    List<VisitorStack.Admission> admitted = new ArrayList<>();
+
+    Assert.assertEquals(2, VisitorStack.admit(waiting, admitted, 2).size());
+    Assert.assertTrue(VisitorStack.admit(waiting, admitted, 2).isEmpty());
+    admitted.remove(0);
+    Assert.assertEquals(1, VisitorStack.admit(waiting, admitted, 2).size());
+    Assert.assertTrue(waiting.isEmpty());
+  }
+
+  @Test
+  public void testCancelledVisitorDoesntBlockTheOthers() {
+    VisitorStack.Admission running = admission("a");
+    VisitorStack.Admission cancelled = admission("b");
+    VisitorStack.Admission blocked = admission("b/c");
+    List<VisitorStack.Admission> waiting = new ArrayList<>(Arrays.asList(cancelled, blocked));
+    List<VisitorStack.Admission> admitted = new ArrayList<>(Arrays.asList(running));
+
+    cancelled.task.cancel(true);
+    Assert.assertEquals(Arrays.asList(blocked), VisitorStack.admit(waiting, admitted, 2));
+    Assert.assertTrue(waiting.isEmpty());
+  }
+
+  @Test
+  public void testVisitorCancelledBeforeItRunsDoesntBlockTheOthers() throws IOException, InterruptedException {
+    Path tempDir = Files.createTempDirectory(VisitorStack.class.getSimpleName());
+    // two visitors are admitted, but only one runs at a time
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Path first = Files.createDirectory(tempDir.resolve("a"));
+      Path cancelled = Files.createDirectory(tempDir.resolve("b"));
+      Path overlapping = Files.createDirectory(cancelled.resolve("c"));
+      VisitorStack stack = new VisitorStack(2, executor);
+      RecordingVisitor running = new RecordingVisitor("running", true);
+      RecordingVisitor queued = new RecordingVisitor("queued", false);
+      RecordingVisitor blocked = new RecordingVisitor("blocked", false);
+
+      stack.add(Collections.singleton(first.toString()), running);
+      Assert.assertTrue(running.started.await(10, TimeUnit.SECONDS));
+      // waits in the executor's queue for the running visitor
+      stack.add(Collections.singleton(cancelled.toString()), queued);
+      // waits for the queued visitor
+      stack.add(Collections.singleton(overlapping.toString()), blocked);
+      Assert.assertTrue(stack.cancel(queued));
+      running.release.countDown();
+
+      Assert.assertTrue(blocked.ended.await(10, TimeUnit.SECONDS));
+      // the cancelled visitor never started
+      Assert.assertEquals(1, queued.started.getCount());
+    } finally {
+      executor.shutdownNow();
+      ControllerUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  /**
+   * Records when the walk starts and ends, holding the end until it's released.
+   */
+  private static final class RecordingVisitor implements TreeVisitor {
+    private final String id;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch ended = new CountDownLatch(1);
+
+    RecordingVisitor(String id, boolean held) {
+      this.id = id;
+      if (!held) {
+        release.countDown();
+      }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public void visitDirectoryEntries(Path path, List<Path> entries) {
+      // only the start and the end are recorded
+    }
+
+    @Override
+    public void postVisitDirectory(Path path) {
+      // only the start and the end are recorded
+    }
+
+    @Override
+    public void visitFile(Path path, BasicFileAttributes attrs) {
+      // only the start and the end are recorded
+    }
+
+    @Override
+    public void visitFileFailed(Path path) {
+      // only the start and the end are recorded
+    }
+
+    @Override
+    public void end() {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      ended.countDown();
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    @Override
+    public void setStartPath(String path) {
+      started.countDown();
+    }
+  }
+}
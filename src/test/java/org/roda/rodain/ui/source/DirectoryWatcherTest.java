@@ -0,0 +1,87 @@
+package org.roda.rodain.ui.source;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DirectoryWatcherTest {
+  private static final Path DIR = Paths.get("source", "dir");
+
+  private static WatchEvent<Path> event(WatchEvent.Kind<Path> kind, String name) {
+    return new WatchEvent<Path>() {
+      @Override
+      public Kind<Path> kind() {
+        return kind;
+      }
+
+      @Override
+      public int count() {
+        return 1;
+      }
+
+      @Override
+      public Path context() {
+        return Paths.get(name);
+      }
+    };
+  }
+
+  @Test
+  public void testLastEventOfAnEntryWins() {
+    DirectoryWatcher.Changes changes = new DirectoryWatcher.Changes(null, true);
+    changes.add(DIR, event(ENTRY_CREATE, "created"));
+    changes.add(DIR, event(ENTRY_CREATE, "replaced"));
+    changes.add(DIR, event(ENTRY_DELETE, "replaced"));
+    changes.add(DIR, event(ENTRY_DELETE, "deleted"));
+    changes.add(DIR, event(ENTRY_DELETE, "recreated"));
+    changes.add(DIR, event(ENTRY_CREATE, "recreated"));
+
+    Assert.assertEquals(2, changes.created.size());
+    Assert.assertTrue(changes.created.contains(DIR.resolve("created")));
+    Assert.assertTrue(changes.created.contains(DIR.resolve("recreated")));
+    Assert.assertEquals(2, changes.deleted.size());
+    Assert.assertTrue(changes.deleted.contains(DIR.resolve("replaced")));
+    Assert.assertTrue(changes.deleted.contains(DIR.resolve("deleted")));
+    Assert.assertFalse(changes.rescan);
+  }
+
+  @Test
+  public void testOverflowListsTheDirectoryAgain() {
+    DirectoryWatcher.Changes changes = new DirectoryWatcher.Changes(null, true);
+    changes.add(DIR, new WatchEvent<Object>() {
+      @Override
+      public Kind<Object> kind() {
+        return OVERFLOW;
+      }
+
+      @Override
+      public int count() {
+        return 1;
+      }
+
+      @Override
+      public Object context() {
+        return null;
+      }
+    });
+    Assert.assertTrue(changes.rescan);
+    Assert.assertEquals(Collections.emptySet(), changes.created);
+  }
+
+  @Test
+  public void testNetworkFileSystemsArePolled() {
+    Assert.assertTrue(DirectoryWatcher.isNetworkFileSystemType("nfs4"));
+    Assert.assertTrue(DirectoryWatcher.isNetworkFileSystemType("CIFS"));
+    Assert.assertTrue(DirectoryWatcher.isNetworkFileSystemType("fuse.sshfs"));
+    Assert.assertFalse(DirectoryWatcher.isNetworkFileSystemType("ext4"));
+    Assert.assertFalse(DirectoryWatcher.isNetworkFileSystemType("NTFS"));
+  }
+}